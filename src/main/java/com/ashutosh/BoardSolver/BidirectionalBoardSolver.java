@@ -0,0 +1,264 @@
+package com.ashutosh.BoardSolver;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Solver which records only the states and moves lying on the paths from the initial state to a final state. It's meant
+ * for games whose every move leads to the next lower level, see BoardState.getLevel(), and whose moves can be reversed,
+ * see BoardState.getPreviousStates().
+ *
+ * The states are explored forward from the initial state down to the level midway between the initial state and the
+ * final states, and backward from the final states up to that level, one level at a time. The states found both ways
+ * at the middle level lie on a solution path. Walking back up the forward levels, only the states leading to the states
+ * on a solution path are retained, and walking down the backward levels only the states reached from those are
+ * retained. The states retained and the moves between those are then recorded in the store, level by level.
+ *
+ * The states explored are kept in memory till the end, but the states and the moves not on a solution path are never
+ * written to the store. The store should assign ids to the resultant states while expanding a state, as required by
+ * BoardSolver.solveByLevels().
+ */
+public class BidirectionalBoardSolver {
+    private static final Logger LOGGER = Logger.getLogger(BidirectionalBoardSolver.class.getName());
+
+    private final BoardState initialState;
+    private final int numThreads;
+    private final StateStore store;
+    private long numStates = 0;
+    private long numMoves = 0;
+
+    public BidirectionalBoardSolver(int numThreads, BoardState initialState, StateStore store) {
+        if (numThreads <= 0) {
+            throw new IllegalArgumentException("expected positive number of threads, but got " + numThreads);
+        }
+        this.initialState = initialState;
+        this.numThreads = numThreads;
+        this.store = store;
+    }
+
+    public void solve() throws SQLException, InterruptedException {
+        BoardState canonicalState = initialState.canonicalize();
+        Map<Long, BoardState> finalStates = new HashMap<>();
+        for (BoardState finalState : initialState.getFinalStates()) {
+            BoardState canonicalFinalState = finalState.canonicalize();
+            finalStates.putIfAbsent(canonicalFinalState.getKey(), canonicalFinalState);
+        }
+        int startLevel = canonicalState.getLevel();
+        int finalLevel = getFinalLevel(finalStates);
+
+        // States on a solution path by level, from startLevel down to finalLevel. The first level, if any, has the given
+        // canonical initial state itself, so that its id is known when recording.
+        List<Map<Long, BoardState>> levels = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            if (startLevel >= finalLevel) {
+                findStatesOnPaths(pool, canonicalState, startLevel, finalStates, finalLevel, levels);
+            }
+            record(pool, canonicalState, levels);
+        } finally {
+            pool.shutdown();
+        }
+        LOGGER.info("Board solved. Recorded " + numStates + " states and " + numMoves + " moves.");
+    }
+
+    /**
+     * @return number of states recorded in the store, including the initial state.
+     */
+    public long getNumStates() {
+        return numStates;
+    }
+
+    /**
+     * @return number of moves recorded in the store
+     */
+    public long getNumMoves() {
+        return numMoves;
+    }
+
+    private static int getFinalLevel(Map<Long, BoardState> finalStates) {
+        Iterator<BoardState> finalStateIterator = finalStates.values().iterator();
+        if (!finalStateIterator.hasNext()) {
+            throw new IllegalStateException("the board does not have any final state.");
+        }
+        int finalLevel = finalStateIterator.next().getLevel();
+        while (finalStateIterator.hasNext()) {
+            BoardState finalState = finalStateIterator.next();
+            if (finalState.getLevel() != finalLevel) {
+                throw new IllegalStateException("final state " + finalState.getDesc() + " is at level " +
+                                                finalState.getLevel() + " instead of " + finalLevel);
+            }
+        }
+        return finalLevel;
+    }
+
+    // Fill the given list of levels with the states on the paths from the given canonical initial state to the given
+    // final states, one map of the keys of the states to the states per level.
+    private void findStatesOnPaths(ForkJoinPool pool, BoardState canonicalState, int startLevel,
+                                   Map<Long, BoardState> finalStates, int finalLevel, List<Map<Long, BoardState>> levels)
+            throws InterruptedException {
+        int meetLevel = (startLevel + finalLevel) / 2;
+
+        // Forward levels from startLevel down to meetLevel.
+        List<Map<Long, BoardState>> forwardLevels = new ArrayList<>();
+        forwardLevels.add(Collections.singletonMap(canonicalState.getKey(), canonicalState));
+        for (int level = startLevel; level > meetLevel; level--) {
+            forwardLevels.add(getNextLevel(pool, forwardLevels.get(forwardLevels.size() - 1), level, true));
+            LOGGER.info("found " + forwardLevels.get(forwardLevels.size() - 1).size() + " states at level " +
+                        (level - 1) + " from the initial state.");
+        }
+
+        // Backward levels from finalLevel up to meetLevel.
+        List<Map<Long, BoardState>> backwardLevels = new ArrayList<>();
+        backwardLevels.add(finalStates);
+        for (int level = finalLevel; level < meetLevel; level++) {
+            backwardLevels.add(getNextLevel(pool, backwardLevels.get(backwardLevels.size() - 1), level, false));
+            LOGGER.info("found " + backwardLevels.get(backwardLevels.size() - 1).size() + " states at level " +
+                        (level + 1) + " from the final states.");
+        }
+
+        // The states reached both ways at the middle level lie on a solution path. Walking up, a state lies on a
+        // solution path if any of the states resulting from it does. Walking down, a state lies on a solution path if it
+        // results from one which does and leads to a final state.
+        Map<Long, BoardState> meetStates = new HashMap<>(forwardLevels.get(forwardLevels.size() - 1));
+        meetStates.keySet().retainAll(backwardLevels.get(backwardLevels.size() - 1).keySet());
+        LOGGER.info("found " + meetStates.size() + " states at level " + meetLevel + " both ways.");
+
+        List<Map<Long, BoardState>> upperLevels = new ArrayList<>();
+        upperLevels.add(meetStates);
+        for (int cnt = forwardLevels.size() - 2; cnt >= 0; cnt--) {
+            Map<Long, BoardState> lowerStates = upperLevels.get(upperLevels.size() - 1);
+            Map<Long, BoardState> candidates = forwardLevels.get(cnt);
+            Map<Long, BoardState> states = new ConcurrentHashMap<>();
+            run(pool, () -> candidates.values().parallelStream()
+                    .filter(state -> StateProcessor.getNewStates(state).values().stream()
+                                        .anyMatch(newState -> lowerStates.containsKey(newState.getKey())))
+                    .forEach(state -> states.put(state.getKey(), state)));
+            upperLevels.add(states);
+        }
+        Collections.reverse(upperLevels);
+        levels.addAll(upperLevels);
+
+        for (int cnt = backwardLevels.size() - 2; cnt >= 0; cnt--) {
+            Map<Long, BoardState> upperStates = levels.get(levels.size() - 1);
+            Map<Long, BoardState> candidates = backwardLevels.get(cnt);
+            Map<Long, BoardState> states = new ConcurrentHashMap<>();
+            run(pool, () -> upperStates.values().parallelStream()
+                    .flatMap(state -> StateProcessor.getNewStates(state).values().stream())
+                    .map(newState -> candidates.get(newState.getKey()))
+                    .filter(candidate -> candidate != null)
+                    .forEach(candidate -> states.putIfAbsent(candidate.getKey(), candidate)));
+            levels.add(states);
+        }
+    }
+
+    // Return the canonical states at the level next to the given level, reached by a move from the given states at the
+    // given level if forward, or by reversing a move otherwise.
+    private static Map<Long, BoardState> getNextLevel(ForkJoinPool pool, Map<Long, BoardState> states, int level,
+                                                      boolean forward) throws InterruptedException {
+        int nextLevel = forward ? level - 1 : level + 1;
+        Map<Long, BoardState> nextStates = new ConcurrentHashMap<>();
+        run(pool, () -> states.values().parallelStream().forEach(state -> {
+            List<BoardState> resultantStates = forward ? new ArrayList<>(StateProcessor.getNewStates(state).values()) :
+                                                        state.getPreviousStates();
+            for (BoardState resultantState : resultantStates) {
+                BoardState canonicalState = resultantState.canonicalize();
+                if (canonicalState.getLevel() != nextLevel) {
+                    throw new IllegalStateException("state " + canonicalState.getDesc() + " is at level " +
+                                                    canonicalState.getLevel() + " instead of " + nextLevel);
+                }
+                nextStates.putIfAbsent(canonicalState.getKey(), canonicalState);
+            }
+        }));
+        return nextStates;
+    }
+
+    private static void run(ForkJoinPool pool, Runnable task) throws InterruptedException {
+        try {
+            pool.submit(task).get();
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ee.getCause();
+            }
+            throw new IllegalStateException("could not explore the states", ee.getCause());
+        }
+    }
+
+    // Record the given levels of states in the store, level by level, along with the moves from every state to the
+    // states at the next level.
+    private void record(ForkJoinPool pool, BoardState canonicalState, List<Map<Long, BoardState>> levels)
+            throws InterruptedException, SQLException {
+        AtomicLong idCounter = new AtomicLong(store.getNextId());
+        try (StateStoreConnPool connPool = new StateStoreConnPool(store, numThreads)) {
+            StateStore.Conn dbConn = connPool.lease();
+            dbConn.searchAndInsertState(canonicalState, idCounter.getAndIncrement());
+            dbConn.flush();
+            connPool.release(dbConn);
+            initialState.setId(canonicalState.getId());
+            numStates = 1;
+
+            for (int cnt = 0; cnt < levels.size(); cnt++) {
+                Map<Long, BoardState> lowerStates = cnt + 1 < levels.size() ? levels.get(cnt + 1) :
+                                                                                Collections.emptyMap();
+                List<Future<Integer>> tasks = new ArrayList<>();
+                Iterator<BoardState> stateIterator = levels.get(cnt).values().iterator();
+                while (stateIterator.hasNext()) {
+                    List<BoardState> chunk = new ArrayList<>(StateProcessor.NUM_STATES_PER_CHUNK);
+                    while (chunk.size() < StateProcessor.NUM_STATES_PER_CHUNK && stateIterator.hasNext()) {
+                        chunk.add(stateIterator.next());
+                    }
+                    tasks.add(pool.submit(() -> recordStates(chunk, lowerStates, connPool, idCounter)));
+                }
+
+                for (Future<Integer> task : tasks) {
+                    numMoves = numMoves + BoardSolver.getResult(task, "could not record states");
+                }
+                numStates = numStates + lowerStates.size();
+            }
+        }
+    }
+
+    // Record the moves from the given states to the given states at the next level in the store, assigning those the
+    // ids they are recorded with. Returns the number of moves recorded.
+    private static int recordStates(List<BoardState> states, Map<Long, BoardState> lowerStates,
+                                    StateStoreConnPool connPool, AtomicLong idCounter)
+            throws InterruptedException, SQLException {
+        List<Map<BoardMove, BoardState>> allNewStates = new ArrayList<>(states.size());
+        int numMoves = 0;
+        for (BoardState state : states) {
+            Map<BoardMove, BoardState> newStates = new LinkedHashMap<>();
+            for (Map.Entry<BoardMove, BoardState> entry : StateProcessor.getNewStates(state).entrySet()) {
+                if (lowerStates.containsKey(entry.getValue().getKey())) {
+                    // Ids are never negative, so that a resultant state not assigned an id by the store can be caught.
+                    entry.getValue().setId(-1);
+                    newStates.put(entry.getKey(), entry.getValue());
+                }
+            }
+            allNewStates.add(newStates);
+            numMoves = numMoves + newStates.size();
+        }
+        BoardSolver.recordNewStates(states, allNewStates, connPool, idCounter, null);
+
+        for (Map<BoardMove, BoardState> newStates : allNewStates) {
+            for (BoardState newState : newStates.values()) {
+                if (newState.getId() < 0) {
+                    throw new IllegalStateException("the store did not assign an id to state " + newState.getDesc() +
+                                                    " while expanding a state.");
+                }
+                lowerStates.get(newState.getKey()).setId(newState.getId());
+            }
+        }
+        return numMoves;
+    }
+}
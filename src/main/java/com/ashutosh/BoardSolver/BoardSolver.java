@@ -1,11 +1,27 @@
 package com.ashutosh.BoardSolver;
 
+import com.ashutosh.utils.LongLongCache;
+
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
@@ -18,69 +34,218 @@ public class BoardSolver {
     // killed because of lack of memory. Instead we use a bounded queue,
     // refilling it from the database whenever it gets empty.
     private static final int QCAPACITY = 150000;
-    private static final short NUM_STATES_TO_PROCESS_PER_THREAD = 2;
-
-    // We should be really measuing this using EventTimeAggregator. For now set it to 1ms.
-    private static final short TIME_REQUIRED_TO_PROCESS_ONE_STATE = 1;
+    // Longest to wait for the other runs sharing the store to produce states, see StateStore.Conn.awaitUnprocessedStates().
+    // The states leased by a run which died are fetched again only after their lease expires, so there is no point in
+    // checking much more often than that.
+    private static final long AWAIT_MILLIS = 10000;
 
-    // Initial db connection passed by users of this class. Any thread specific connections need to relevant properties
-    // of this connection.
-    private final BoardSolverDB db;
+    // Store of states and moves passed by users of this class. Every thread opens its own connection to this store.
+    // The store may be a database (BoardSolverDB) or an in-memory one (InMemoryStateStore).
+    private final StateStore store;
+    // Number of connections to the store shared by the threads of the pooled solver, 0 if the solver uses state
+    // processors, each with a connection of its own.
+    private final int numConnections;
+    // Number of states whose ids are cached by the threads of the solver, see setKnownStatesCacheSize(), and the cache
+    // used by the last run, if any.
+    private int knownStatesCacheSize = 0;
+    private LongLongCache knownStates;
+    // Number of writer threads of the write-behind pipeline, see setNumWriters(), 0 to not use the pipeline.
+    private int numWriters = 0;
 
+    public BoardSolver(int numThreads, BoardState initialState, StateStore store) {
+        this(numThreads, initialState, store, 0);
+    }
 
-    public BoardSolver(int numThreads, BoardState initialState, BoardSolverDB db) {
+    /**
+     * Create a solver which processes chunks of states as tasks run by numThreads threads. The tasks share a pool of
+     * numConnections connections to the store. A task holds a connection only while recording its result in the store,
+     * so that the number of threads expanding states is not limited by the number of connections the store can afford.
+     * @param numConnections size of the connection pool, 0 to use a state processor with its own connection per thread
+     */
+    public BoardSolver(int numThreads, BoardState initialState, StateStore store, int numConnections) {
+        if (numConnections < 0) {
+            throw new IllegalArgumentException("expected non-negative number of connections, but got " + numConnections);
+        }
         this.initialState = initialState;
         this.numThreads = numThreads;
-        this.db = db;
+        this.store = store;
+        this.numConnections = numConnections;
     }
 
+    /**
+     * Cache the ids of up to the given number of states known to be in the store, shared by the threads of the
+     * solver. A resultant state found in the cache is not searched in the store, see StateProcessor.expandStates().
+     * Applies to solve() and resume().
+     * @param knownStatesCacheSize number of states to cache, 0 to not cache any
+     */
+    public void setKnownStatesCacheSize(int knownStatesCacheSize) {
+        if (knownStatesCacheSize < 0) {
+            throw new IllegalArgumentException("invalid cache size " + knownStatesCacheSize);
+        }
+        this.knownStatesCacheSize = knownStatesCacheSize;
+    }
+
+    LongLongCache getKnownStates() {
+        return knownStates;
+    }
+
+    /**
+     * Decouple expanding the states from recording those in the store using a write-behind pipeline. numThreads
+     * threads only expand the states, handing over the results to the given number of writer threads, each with a
+     * connection of its own, which record those in the store in large batches, see StateWriter. Thus the threads
+     * expanding the states do not wait for the store, nor the writers for the states to be expanded. Applies to solve()
+     * and resume(), in place of the connection pool if any.
+     * @param numWriters number of writer threads, 0 to not use the pipeline
+     */
+    public void setNumWriters(int numWriters) {
+        if (numWriters < 0) {
+            throw new IllegalArgumentException("invalid number of writers " + numWriters);
+        }
+        this.numWriters = numWriters;
+    }
+
+    /**
+     * Solve the board. Several runs, possibly on different machines, may solve the board in the same store together if
+     * the store supports it, as BoardSolverDB does. Every run fetches the states to process from the store and finishes
+     * when no state is left to process by any run.
+     */
     public void solve() throws SQLException, InterruptedException {
-        if (numThreads > 1) {
-            multiThreadedSolver();
+        // The store hands out a range of ids to every run, so that the runs sharing it do not assign the same ids.
+        long firstId = store.getNextId();
+        knownStates = knownStatesCacheSize > 0 ? new LongLongCache(knownStatesCacheSize) : null;
+        if (numWriters > 0) {
+            pipelinedSolver(firstId);
+        } else if (numConnections > 0) {
+            pooledSolver(firstId);
+        } else if (numThreads > 1) {
+            multiThreadedSolver(firstId);
         } else {
-            singleThreadedSolver();
+            singleThreadedSolver(firstId);
+        }
+        if (knownStates != null) {
+            LOGGER.info("found " + knownStates.getNumHits() + " resultant states in the cache of known states, missed " +
+                        knownStates.getNumMisses() + ".");
         }
         LOGGER.info("Board solved.");
     }
 
+    /**
+     * Continue solving the board in a store which has the states and the moves recorded by an earlier run, e.g. one
+     * which died midway. The states processed by the earlier run are not processed again. The states it queued but did
+     * not process are reclaimed first, see StateStore.reclaimQueuedStates(). No other run should be using the store.
+     */
+    public void resume() throws SQLException, InterruptedException {
+        long numReclaimed = store.reclaimQueuedStates();
+        LOGGER.info("resuming with " + numReclaimed + " states reclaimed.");
+        solve();
+    }
+
+    /**
+     * Solve the board level by level, for games whose states have levels, see BoardState.getLevel(). Since every move
+     * leads to a lower level, the states at a level are all known once the higher levels are expanded and none of those
+     * is reached again after expanding it. Thus the states at the highest level not expanded yet are expanded by
+     * numThreads threads together, deduplicating the resultant states only against the other states at their level. A
+     * level is dropped as soon as it's expanded, so only the levels yet to be expanded are kept in memory, usually the
+     * next two levels, instead of every state visited.
+     *
+     * The threads share a pool of numConnections connections to the store, or numThreads connections if
+     * numConnections is 0. The store is used only to record the states and the moves, not to deduplicate those: the
+     * resultant states are deduplicated against their levels first, so that those seen before are passed to the store
+     * as known, with their ids, and those seen for the first time are inserted without searching, see
+     * StateStore.Conn.expandStates(). The store should assign ids to the resultant states while expanding a state,
+     * which BSDCCopyConn does not.
+     */
+    public void solveByLevels() throws SQLException, InterruptedException {
+        AtomicLong idCounter = new AtomicLong(store.getNextId());
+        // Levels yet to be expanded, highest first. Every level maps the keys of its states to the states.
+        ConcurrentSkipListMap<Integer, Map<Long, BoardState>> levels =
+                new ConcurrentSkipListMap<>(Comparator.reverseOrder());
+        long numProcessed = 0;
+
+        try (StateStoreConnPool connPool = new StateStoreConnPool(store,
+                                                        numConnections > 0 ? numConnections : numThreads)) {
+            StateStore.Conn dbConn = connPool.lease();
+            BoardState canonicalState = insertInitialState(dbConn, idCounter);
+            dbConn.flush();
+            connPool.release(dbConn);
+            levels.computeIfAbsent(canonicalState.getLevel(), level -> new ConcurrentHashMap<>())
+                    .put(canonicalState.getKey(), canonicalState);
+
+            ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+            try {
+                Map.Entry<Integer, Map<Long, BoardState>> level;
+                while ((level = levels.pollFirstEntry()) != null) {
+                    numProcessed = numProcessed + expandLevel(level.getKey(), level.getValue().values(), levels,
+                                                                executor, connPool, idCounter);
+                }
+            } finally {
+                // Nothing is in flight unless the processing failed, in which case the tasks in flight are abandoned.
+                executor.shutdownNow();
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+            LOGGER.info("Board solved. Processed ALL the " + numProcessed + " states.");
+        } catch (SQLException sqe) {
+            LOGGER.severe("database error " + sqe.getMessage());
+            throw sqe;
+        } catch (Exception e) {
+            LOGGER.severe(e.getMessage());
+            throw e;
+        }
+    }
+
+
+    // Insert the canonical form of the initial state in the store and return it. The initial state is assigned the id of
+    // its canonical form, so that the solutions can be found starting from it.
+    private BoardState insertInitialState(StateStore.Conn dbConn, AtomicLong idCounter) throws SQLException {
+        BoardState canonicalState = initialState.canonicalize();
+        dbConn.searchAndInsertState(canonicalState, idCounter.getAndIncrement());
+        initialState.setId(canonicalState.getId());
+        return canonicalState;
+    }
 
-    private void singleThreadedSolver()
+    private void singleThreadedSolver(long firstId)
             throws SQLException {
         Queue<BoardState> unprocessedStates;
-        AtomicLong idCounter = new AtomicLong();
+        AtomicLong idCounter = new AtomicLong(firstId);
         final int REPORTING_PERIOD = 10000;
 
         // Main body of the function
-        try (BoardSolverDB.BSDCConn dbConn = db.getConnection()) {
+        try (StateStore.Conn dbConn = store.getConnection()) {
             long numstates = 0;
-            BoardState curState;
-            StateProcessor stateProcessor = new StateProcessor(db, idCounter);
+            StateProcessor stateProcessor = new StateProcessor(store, idCounter, knownStates);
 
             // readUnprocessedStates also marks the states as queued in DB, so just adding the initial state in DB followed
             // by queueing it doesn't work.
-            dbConn.searchAndInsertState(initialState, idCounter.getAndIncrement());
+            insertInitialState(dbConn, idCounter);
             unprocessedStates = dbConn.readUnprocessedStates(initialState);
             while(true)
             {
-                numstates++;
-                curState = unprocessedStates.poll();
-                if (curState == null)
+                if (unprocessedStates.isEmpty())
                 {
                     // Finished processing all the elements in the queue, check
                     // if database has any unprocessed elements.
                     unprocessedStates = dbConn.readUnprocessedStates(initialState);
                     LOGGER.info("Fetched " + unprocessedStates.size() + " states.");
-                    curState = unprocessedStates.poll();
-                    if (curState == null) {
+                    if (unprocessedStates.isEmpty()) {
                         // Even the database does not have any elements, quit the
-                        // loop.
+                        // loop, unless the other runs sharing it are going to add more.
+                        if (dbConn.awaitUnprocessedStates(AWAIT_MILLIS)) {
+                            continue;
+                        }
                         break;
                     }
                 }
-                stateProcessor.process(curState, dbConn);
-                if (numstates % REPORTING_PERIOD == 0) {
-                    LOGGER.info("finished processing " + numstates + " states.");
+
+                // Process the states in chunks so that the resultant states are added to the database together.
+                List<BoardState> curStates = new ArrayList<>(StateProcessor.NUM_STATES_PER_CHUNK);
+                while (curStates.size() < StateProcessor.NUM_STATES_PER_CHUNK && !unprocessedStates.isEmpty()) {
+                    curStates.add(unprocessedStates.poll());
+                }
+                stateProcessor.process(curStates, dbConn);
+                if ((numstates + curStates.size()) / REPORTING_PERIOD > numstates / REPORTING_PERIOD) {
+                    LOGGER.info("finished processing " + (numstates + curStates.size()) + " states.");
                 }
+                numstates = numstates + curStates.size();
             }
 
             LOGGER.info("finished processing ALL the " + numstates + " states.");
@@ -97,43 +262,99 @@ public class BoardSolver {
     // It doesn't know what to do in case a waiting thread is interrupted, hence
     // throws an exception. In future this function may catch the exception and
     // take an appropriate action.
-    private void multiThreadedSolver()
+    private void multiThreadedSolver(long firstId)
             throws InterruptedException, SQLException {
         int numStateProcessors = numThreads - 1;
         int cnt;
         BlockingQueue<BoardState> statesQ = new ArrayBlockingQueue<>(QCAPACITY);
         List<StateProcessor> stateProcessors = new ArrayList<>();
-        AtomicLong idCounter = new AtomicLong();
+        AtomicLong idCounter = new AtomicLong(firstId);
+        // Wake up the feeder when each of the state processors has at most one chunk left to take from the queue.
+        InFlightTracker tracker = new InFlightTracker(statesQ, numStateProcessors * StateProcessor.NUM_STATES_PER_CHUNK);
 
-        try (BoardSolverDB.BSDCConn dbConn = db.getConnection()) {
+        try (StateStore.Conn dbConn = store.getConnection()) {
             // Add initial state to the database.
-            dbConn.searchAndInsertState(initialState, idCounter.getAndIncrement());
+            insertInitialState(dbConn, idCounter);
 
             // Initialize and start state processor threads
             for (cnt = 0; cnt < numStateProcessors; cnt++) {
-                StateProcessor stateProcessor = new StateProcessor(db, statesQ, " State processor thread #" + cnt,
-                                                                    idCounter);
+                StateProcessor stateProcessor = new StateProcessor(store, statesQ, " State processor thread #" + cnt,
+                                                                    idCounter, tracker, knownStates);
                 stateProcessors.add(stateProcessor);
                 stateProcessor.start();
             }
 
-            keepFeedingUnprocessedStates(dbConn, statesQ, stateProcessors);
+            try {
+                keepFeedingUnprocessedStates(dbConn, statesQ, tracker);
+            } finally {
+                // Signal each state processor to end their processing by interrupting it. When all the states are
+                // processed, each of them is waiting for the next state. Otherwise, feeding failed and the states in
+                // flight are abandoned.
+                LOGGER.info("Signalling all threads to quit.");
+                for (StateProcessor sp : stateProcessors) {
+                    sp.interrupt();
+                }
 
-            // Signal each state processor to end their processing. We achieve this by adding as many
-            // invalid states as the number of state processors. Each of them is expected to stop
-            // pulling from a queue as soon as it gets one end element; thus never getting more than one
-            // invalid state.
-            LOGGER.info("Signalling all threads to quit.");
-            for (StateProcessor sp : stateProcessors) {
-                sp.interrupt();
+                LOGGER.info("Waiting for all threads to finish.");
+                for (StateProcessor sp : stateProcessors) {
+                    sp.join();
+                }
             }
+        } catch (SQLException sqe){
+            LOGGER.severe("database error " + sqe.getMessage());
+            throw sqe;
+        } catch (Exception e) {
+            LOGGER.severe(e.getMessage());
+            throw e;
+        }
+    }
 
-            LOGGER.info("Waiting for all threads to finish.");
-            for (StateProcessor sp : stateProcessors) {
-                sp.join();
+    // Function to run the write-behind pipeline, see setNumWriters(). numThreads threads expand the states fed through
+    // the states queue and hand over the results to numWriters writers through another bounded queue. When the writers
+    // fall behind, that queue fills up and blocks the threads expanding the states, which in turn leaves the states queue
+    // full and stops the feeder, so the memory used stays bounded. A state is in flight till a writer records its
+    // moves, so the feeder ends only when everything expanded is in the store.
+    private void pipelinedSolver(long firstId) throws InterruptedException, SQLException {
+        BlockingQueue<BoardState> statesQ = new ArrayBlockingQueue<>(QCAPACITY);
+        // Every writer can have a full batch waiting while it records one.
+        BlockingQueue<StateWriter.ExpandedState> expandedStatesQ =
+                new ArrayBlockingQueue<>(2 * numWriters * StateWriter.MAX_BATCH_SIZE);
+        AtomicLong idCounter = new AtomicLong(firstId);
+        InFlightTracker tracker = new InFlightTracker(statesQ, numThreads * StateProcessor.NUM_STATES_PER_CHUNK);
+        List<StateWriter> writers = new ArrayList<>();
+        ExecutorService expanders = Executors.newFixedThreadPool(numThreads);
+
+        try (StateStore.Conn dbConn = store.getConnection()) {
+            insertInitialState(dbConn, idCounter);
+
+            for (int cnt = 0; cnt < numWriters; cnt++) {
+                StateWriter writer = new StateWriter(store, expandedStatesQ, "State writer thread #" + cnt, idCounter,
+                                                     tracker, knownStates);
+                writers.add(writer);
+                writer.start();
+            }
+            for (int cnt = 0; cnt < numThreads; cnt++) {
+                expanders.submit(() -> expandQueuedStates(statesQ, expandedStatesQ, tracker));
             }
 
-        } catch (SQLException sqe){
+            try {
+                keepFeedingUnprocessedStates(dbConn, statesQ, tracker);
+            } finally {
+                // When all the states are processed, the threads expanding the states and the writers are all waiting
+                // for more. Otherwise, the pipeline failed and the states in flight are abandoned.
+                LOGGER.info("Signalling all threads to quit.");
+                expanders.shutdownNow();
+                for (StateWriter writer : writers) {
+                    writer.interrupt();
+                }
+
+                LOGGER.info("Waiting for all threads to finish.");
+                expanders.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                for (StateWriter writer : writers) {
+                    writer.join();
+                }
+            }
+        } catch (SQLException sqe) {
             LOGGER.severe("database error " + sqe.getMessage());
             throw sqe;
         } catch (Exception e) {
@@ -142,63 +363,309 @@ public class BoardSolver {
         }
     }
 
-    private void keepFeedingUnprocessedStates(BoardSolverDB.BSDCConn dbConn, BlockingQueue<BoardState> statesQ,
-                                              List<StateProcessor> stateProcessors)
-            throws InterruptedException, SQLException {
-        // For now we have only one thread (this) which fetches the unprocessed states from the database and adds them
-        // to the queue. But we may want to add more threads for doing that, in which case a. we have to add a loop to
-        // start as many readers as needed and b. add some logic to synchronize among the thread not to add same state
-        // twice in the queue.
-        while (true) {
-            int minQueueLengthToMaintain = stateProcessors.size() * NUM_STATES_TO_PROCESS_PER_THREAD;
-            // Read unprocessed states from the database, when the number of unprocessed states is lower than
-            // preconfigured multiple of number of threads.
-            if (minQueueLengthToMaintain >= statesQ.size()) {
-                Queue<BoardState> tempStatesQueue = dbConn.readUnprocessedStates(initialState);
-                LOGGER.info(tempStatesQueue.size() + "states fetched and being queued for processing.");
-                while (tempStatesQueue.size() > 0) {
-                    statesQ.add(tempStatesQueue.remove());
+    // Expand the states taken from the given states queue a chunk at a time, handing over every state along with its
+    // resultant states to the writers, till interrupted.
+    private static void expandQueuedStates(BlockingQueue<BoardState> statesQ,
+                                           BlockingQueue<StateWriter.ExpandedState> expandedStatesQ,
+                                           InFlightTracker tracker) {
+        List<BoardState> states = new ArrayList<>(StateProcessor.NUM_STATES_PER_CHUNK);
+        try {
+            while (true) {
+                states.clear();
+                states.add(statesQ.take());
+                statesQ.drainTo(states, StateProcessor.NUM_STATES_PER_CHUNK - 1);
+                tracker.dequeued();
+                for (BoardState state : states) {
+                    expandedStatesQ.put(new StateWriter.ExpandedState(state, StateProcessor.getNewStates(state)));
                 }
             }
+        } catch (InterruptedException ie) {
+            // All the states are processed, or the pipeline failed.
+        } catch (RuntimeException re) {
+            LOGGER.severe("received exception " + re + " while expanding states.");
+            tracker.failed(re);
+            throw re;
+        }
+    }
 
-            if (statesQ.size() == 0) {
-                // If there are no states to process, check if any of the threads are still processing any states.
-                boolean finishProcessing = true;
-                for (StateProcessor sp : stateProcessors) {
-                    if (!sp.isWaitingForNextState()) {
-                        finishProcessing = false;
+    // Feed the states to be processed to the state processors till there are no more states to process. The states are
+    // read from the store only when the state processors need those, i.e. when the queue drops to the low water mark.
+    // While the states read from the store are being processed, the next batch of states is read asynchronously using
+    // the given connection, so that the state processors do not wait for the store. The processing is complete when no
+    // state is in flight and the store does not have any unprocessed state, including those being processed by the other
+    // runs sharing it.
+    private void keepFeedingUnprocessedStates(StateStore.Conn dbConn, BlockingQueue<BoardState> statesQ,
+                                              InFlightTracker tracker)
+            throws InterruptedException, SQLException {
+        ExecutorService prefetcher = Executors.newSingleThreadExecutor();
+        try {
+            long completionsBeforeFetch = tracker.getNumCompletions();
+            Future<LinkedList<BoardState>> nextStates = prefetcher.submit(() -> dbConn.readUnprocessedStates(initialState));
+            while (true) {
+                LinkedList<BoardState> states = getPrefetchedStates(nextStates);
+                if (states.isEmpty()) {
+                    // If none of the state processors completed any state since the fetch started, the store had all the
+                    // states produced till then. If nothing is in flight either, nothing more is going to be produced.
+                    // Otherwise wait for a state processor to complete and try again.
+                    tracker.awaitCompletionAfter(completionsBeforeFetch);
+                    if (tracker.getNumCompletions() == completionsBeforeFetch && tracker.isIdle() &&
+                        !dbConn.awaitUnprocessedStates(AWAIT_MILLIS)) {
+                        LOGGER.info("No state in flight and no state left to process.");
+                        return;
+                    }
+                } else {
+                    LOGGER.info(states.size() + " states fetched and being queued for processing.");
+                    tracker.queued(states.size());
+                    for (BoardState state : states) {
+                        statesQ.put(state);
                     }
                 }
 
-                if (finishProcessing) {
-                    // All threads are waiting for new state and there is no state in the queue as checked above.
-                    // Between that check and now, nobody else is going to feed any new states so that check is
-                    // still valid. The state processors are still waiting on the queue. Make a last attempt to read
-                    // new states from the database, in case any of the state processors has added a new state after
-                    // we read unprocessed states from the database.
-                    Queue<BoardState> tempStatesQueue = dbConn.readUnprocessedStates(initialState);
-                    if (tempStatesQueue.size() == 0) {
-                        LOGGER.info("All the threads are waiting for a new state to process and did not find any states for processing.");
-                        // There are no new states in the queue, none of the state processors are processing any
-                        // threads and there is no unprocessed states in the database. We are done.
-                        return;
+                // Start fetching the next batch while the queued states are being processed, and wait till those are
+                // required.
+                completionsBeforeFetch = tracker.getNumCompletions();
+                nextStates = prefetcher.submit(() -> dbConn.readUnprocessedStates(initialState));
+                if (!states.isEmpty()) {
+                    tracker.awaitDemand();
+                }
+            }
+        } finally {
+            prefetcher.shutdownNow();
+        }
+    }
+
+    private LinkedList<BoardState> getPrefetchedStates(Future<LinkedList<BoardState>> nextStates)
+            throws InterruptedException, SQLException {
+        return getResult(nextStates, "could not fetch unprocessed states");
+    }
+
+    static <T> T getResult(Future<T> future, String errorMessage) throws InterruptedException, SQLException {
+        try {
+            return future.get();
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof SQLException) {
+                throw (SQLException) ee.getCause();
+            }
+            throw new IllegalStateException(errorMessage, ee.getCause());
+        }
+    }
+
+    // Function to process chunks of states as tasks run by a pool of numThreads threads, which share a pool of
+    // numConnections connections to the store. The calling thread reads the unprocessed states from the store and
+    // submits those as tasks, keeping at most two tasks per thread in flight. Since a task makes its result visible in
+    // the store before completing, the processing is complete when no task is in flight and the store does not have any
+    // unprocessed state, including those being processed by the other runs sharing it.
+    //
+    // The threads are platform threads, thus each one of those blocks while waiting for the store. Only the connections
+    // are decoupled from the threads.
+    private void pooledSolver(long firstId) throws InterruptedException, SQLException {
+        AtomicLong idCounter = new AtomicLong(firstId);
+        int maxInFlight = 2 * numThreads;
+        int numInFlight = 0;
+        long numProcessed = 0;
+
+        try (StateStoreConnPool connPool = new StateStoreConnPool(store, numConnections)) {
+            StateStore.Conn dbConn = connPool.lease();
+            insertInitialState(dbConn, idCounter);
+            dbConn.flush();
+            connPool.release(dbConn);
+
+            ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+            ExecutorCompletionService<Integer> completionService = new ExecutorCompletionService<>(executor);
+            try {
+                while (true) {
+                    // All the completed tasks have been accounted for, so if nothing is in flight now, the store has
+                    // all the states produced so far.
+                    boolean nothingInFlight = numInFlight == 0;
+                    dbConn = connPool.lease();
+                    LinkedList<BoardState> states = dbConn.readUnprocessedStates(initialState);
+                    connPool.release(dbConn);
+                    if (states.isEmpty()) {
+                        if (nothingInFlight) {
+                            dbConn = connPool.lease();
+                            boolean moreStates = dbConn.awaitUnprocessedStates(AWAIT_MILLIS);
+                            connPool.release(dbConn);
+                            if (!moreStates) {
+                                break;
+                            }
+                            continue;
+                        }
+                        // Wait for a task to produce more states.
+                        numProcessed = awaitTask(completionService, numProcessed);
+                        numInFlight--;
+                        continue;
                     }
 
-                    LOGGER.info("All the threads are waiting for a new state to process but queued " + tempStatesQueue.size() + " states for processing.");
-                    while (tempStatesQueue.size() > 0) {
-                        statesQ.add(tempStatesQueue.remove());
+                    LOGGER.info(states.size() + " states fetched and being submitted for processing.");
+                    while (!states.isEmpty()) {
+                        if (numInFlight == maxInFlight) {
+                            numProcessed = awaitTask(completionService, numProcessed);
+                            numInFlight--;
+                        }
+
+                        List<BoardState> chunk = new ArrayList<>(StateProcessor.NUM_STATES_PER_CHUNK);
+                        while (chunk.size() < StateProcessor.NUM_STATES_PER_CHUNK && !states.isEmpty()) {
+                            chunk.add(states.poll());
+                        }
+                        completionService.submit(() -> expandStates(chunk, connPool, idCounter, knownStates));
+                        numInFlight++;
                     }
                 }
+            } finally {
+                // Nothing is in flight unless the processing failed, in which case the tasks in flight are abandoned.
+                executor.shutdownNow();
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
             }
+            LOGGER.info("finished processing ALL the " + numProcessed + " states.");
+        } catch (SQLException sqe) {
+            LOGGER.severe("database error " + sqe.getMessage());
+            throw sqe;
+        } catch (Exception e) {
+            LOGGER.severe(e.getMessage());
+            throw e;
+        }
+    }
+
+    // Wait for the next task to complete and return the number of states processed so far, including those processed by
+    // the task.
+    private static long awaitTask(ExecutorCompletionService<Integer> completionService, long numProcessed)
+            throws InterruptedException, SQLException {
+        final int REPORTING_PERIOD = 100000;
+        int numCompleted = getResult(completionService.take(), "could not process states");
+        if ((numProcessed + numCompleted) / REPORTING_PERIOD > numProcessed / REPORTING_PERIOD) {
+            LOGGER.info("finished processing " + (numProcessed + numCompleted) + " states.");
+        }
+        return numProcessed + numCompleted;
+    }
 
-            long numExtraStates = statesQ.size() - minQueueLengthToMaintain;
-            if (numExtraStates > 0) {
-                long sleepTime = TIME_REQUIRED_TO_PROCESS_ONE_STATE * numExtraStates;
-                LOGGER.info("Sleeping for " + sleepTime);
-                // Wait for some time proportional to the number of states queued, before reading next states to be
-                // processed. We should ideally wait for the queue size to drop to considerable amount before doing so.
-                Thread.sleep(sleepTime);
+    // Expand the given states at the given level in chunks run as tasks by the given executor and wait till all of those
+    // are expanded, adding the resultant states to their levels. Returns the number of states expanded.
+    private static int expandLevel(int level, Collection<BoardState> states,
+                                   ConcurrentSkipListMap<Integer, Map<Long, BoardState>> levels, ExecutorService executor,
+                                   StateStoreConnPool connPool, AtomicLong idCounter)
+            throws InterruptedException, SQLException {
+        List<Future<Integer>> tasks = new ArrayList<>();
+        Iterator<BoardState> stateIterator = states.iterator();
+        while (stateIterator.hasNext()) {
+            List<BoardState> chunk = new ArrayList<>(StateProcessor.NUM_STATES_PER_CHUNK);
+            while (chunk.size() < StateProcessor.NUM_STATES_PER_CHUNK && stateIterator.hasNext()) {
+                chunk.add(stateIterator.next());
+            }
+            tasks.add(executor.submit(() -> expandLevelStates(level, chunk, levels, connPool, idCounter)));
+        }
+
+        for (Future<Integer> task : tasks) {
+            getResult(task, "could not process states at level " + level);
+        }
+        LOGGER.info("finished processing " + states.size() + " states at level " + level + ".");
+        return states.size();
+    }
+
+    // Expand the given states at the given level and add the resultant states to their levels, unless already there.
+    // Returns the number of states expanded.
+    //
+    // The resultant states are deduplicated against their levels before the store is used. A level holds every state at
+    // it reached so far, since the states at a level are reached only from the higher levels, all of which are expanded
+    // before it. Thus a resultant state added to its level by this chunk has never been recorded, and is inserted
+    // without searching. A resultant state in its level with an id is recorded already with that id, and only the move
+    // leading to it is recorded. The store assigns an id to a state only once it's recorded, so a state in its level
+    // without an id is being recorded by another chunk, or by this chunk from another starting state, and is searched as
+    // usual; a stale read of its id likewise only leads to a search.
+    private static int expandLevelStates(int level, List<BoardState> states,
+                                         ConcurrentSkipListMap<Integer, Map<Long, BoardState>> levels,
+                                         StateStoreConnPool connPool, AtomicLong idCounter)
+            throws InterruptedException, SQLException {
+        List<Map<BoardMove, BoardState>> allNewStates = getNewStates(states);
+        List<Map<BoardMove, BoardState>> allSearchedStates = new ArrayList<>(states.size());
+        List<Map<BoardMove, BoardState>> allAbsentStates = new ArrayList<>(states.size());
+        List<Map<BoardMove, BoardState>> allKnownStates = new ArrayList<>(states.size());
+        int numUnknown = 0;
+        for (Map<BoardMove, BoardState> newStates : allNewStates) {
+            Map<BoardMove, BoardState> searchedStates = new HashMap<>();
+            Map<BoardMove, BoardState> absentStates = new HashMap<>();
+            Map<BoardMove, BoardState> knownStates = new HashMap<>();
+            for (Map.Entry<BoardMove, BoardState> entry : newStates.entrySet()) {
+                BoardState newState = entry.getValue();
+                if (newState.getLevel() >= level) {
+                    throw new IllegalStateException("a move from level " + level + " leads to state " +
+                                                    newState.getDesc() + " at level " + newState.getLevel());
+                }
+                // Ids are never negative, so that a resultant state not assigned an id by the store can be caught. The id
+                // is reset before the state is visible to the other chunks in its level.
+                newState.setId(-1);
+                BoardState seenState = levels.computeIfAbsent(newState.getLevel(), l -> new ConcurrentHashMap<>())
+                                                .putIfAbsent(newState.getKey(), newState);
+                if (seenState == null) {
+                    absentStates.put(entry.getKey(), newState);
+                } else if (seenState.getId() >= 0) {
+                    newState.setId(seenState.getId());
+                    knownStates.put(entry.getKey(), newState);
+                } else {
+                    searchedStates.put(entry.getKey(), newState);
+                }
+            }
+            allSearchedStates.add(searchedStates);
+            allAbsentStates.add(absentStates);
+            allKnownStates.add(knownStates);
+            numUnknown = numUnknown + searchedStates.size() + absentStates.size();
+        }
+
+        StateStore.Conn dbConn = connPool.lease();
+        try {
+            dbConn.expandStates(states, allSearchedStates, allAbsentStates, allKnownStates,
+                                idCounter.getAndAdd(numUnknown));
+            dbConn.flush();
+        } catch (SQLException | RuntimeException e) {
+            // The connection may be in the middle of a failed transaction.
+            connPool.discard(dbConn);
+            throw e;
+        }
+        connPool.release(dbConn);
+
+        for (Map<BoardMove, BoardState> newStates : allNewStates) {
+            for (BoardState newState : newStates.values()) {
+                if (newState.getId() < 0) {
+                    throw new IllegalStateException("the store did not assign an id to state " + newState.getDesc() +
+                                                    " while expanding a state.");
+                }
             }
         }
+        return states.size();
+    }
+
+    // Process the given states, recording the resultant states and the moves in the store using a connection leased
+    // from the given pool. Returns the number of states processed.
+    private static int expandStates(List<BoardState> states, StateStoreConnPool connPool, AtomicLong idCounter,
+                                    LongLongCache knownStates)
+            throws InterruptedException, SQLException {
+        recordNewStates(states, getNewStates(states), connPool, idCounter, knownStates);
+        return states.size();
+    }
+
+    private static List<Map<BoardMove, BoardState>> getNewStates(List<BoardState> states) {
+        List<Map<BoardMove, BoardState>> allNewStates = new ArrayList<>(states.size());
+        for (BoardState state : states) {
+            allNewStates.add(StateProcessor.getNewStates(state));
+        }
+        return allNewStates;
+    }
+
+    // Record the given resultant states of the given states and the moves leading to those in the store using a
+    // connection leased from the given pool. The resultant states are computed before leasing the connection, so that
+    // the connection is held only for the trips to the store. The given cache of known states, if any, is used as
+    // StateProcessor.expandStates() does.
+    static void recordNewStates(List<BoardState> states, List<Map<BoardMove, BoardState>> allNewStates,
+                                StateStoreConnPool connPool, AtomicLong idCounter, LongLongCache knownStates)
+            throws InterruptedException, SQLException {
+        StateStore.Conn dbConn = connPool.lease();
+        try {
+            StateProcessor.expandStates(states, allNewStates, dbConn, idCounter, knownStates);
+            dbConn.flush();
+        } catch (SQLException | RuntimeException e) {
+            // The connection may be in the middle of a failed transaction.
+            connPool.discard(dbConn);
+            throw e;
+        }
+        connPool.release(dbConn);
     }
 }
@@ -1,23 +1,54 @@
 package com.ashutosh.BoardSolver;
 
+import com.ashutosh.utils.ScalableBloomFilter;
 import com.google.common.annotations.VisibleForTesting;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.CallableStatement;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPOutputStream;
 
 // Database to store the board state and moves
-public class BoardSolverDB {
+public class BoardSolverDB implements SolutionStore {
     private static final Logger LOGGER = Logger.getLogger(BoardSolverDB.class.getName());
     private final String dbUrl;
     private final String dbUser;
@@ -25,7 +56,50 @@ public class BoardSolverDB {
     private final String statesTableName;
     private final String movesTableName;
     private final String dbSchema;
+    private final String expandStatesFuncName;
+    // Sequence handing out the ranges of ids to the runs, see getNextId(), and the channel on which the runs sharing the
+    // tables signal each other, see BSDCConn.awaitUnprocessedStates().
+    private final String idRangesSeqName;
+    private final String channelName;
     private static final int MAX_STATES_TO_FETCH = 10000;
+    private static final int SOLUTIONS_FETCH_SIZE = 10000;
+    private static final int DEFAULT_MAX_CONNECTIONS = 64;
+    private static final long DEFAULT_MAX_IDLE_MILLIS = 60000;
+    private static final long DEFAULT_LEASE_MILLIS = 600000;
+    // Every run assigns ids from a range of 2^ID_RANGE_BITS ids of its own.
+    private static final int ID_RANGE_BITS = 40;
+    // Number of keys the state filter is sized for to start with, when the states table is smaller.
+    private static final long MIN_STATE_FILTER_KEYS = 1 << 20;
+    // Every connection to the database, including those used by BSDCConn, is leased from this pool.
+    private final DBConnPool connPool;
+    // Number of processed states buffered by a connection before those are written using COPY. 0 disables COPY.
+    private int copyFlushSize = 0;
+    // The states fetched for processing using this object are leased to this owner for leaseMillis. A state whose lease
+    // expired before it was processed is fetched again, by this object or by another one using the same tables.
+    private final String ownerId = UUID.randomUUID().toString();
+    private long leaseMillis = DEFAULT_LEASE_MILLIS;
+    // Number of hash partitions of the tables, 0 if those are not partitioned. A run claims the states from its home
+    // partition first, see getNextId().
+    private int numPartitions = 0;
+    private volatile int homePartition = 0;
+    // Whether the tables are created for a bulk build, without the constraints on the moves, see setBulkBuild().
+    private boolean bulkBuild = false;
+    // Filter over the keys of the states in the states table, see setStateFilterFalsePositiveRate(). Created by the
+    // first connection which uses it. The counters track how often it's right that a state is not in the table and how
+    // often it's wrong that a state may be.
+    private double stateFilterFalsePositiveRate = 0;
+    private ScalableBloomFilter stateFilter = null;
+    private final LongAdder numFilterNegatives = new LongAdder();
+    private final LongAdder numFilterFalsePositives = new LongAdder();
+    // A connection records the results of processing up to this many states, or of those processed in this many
+    // milliseconds, in a single transaction, see setGroupCommit().
+    private int groupCommitStates = 1;
+    private long groupCommitMillis = 0;
+    // Number of transactions which recorded the results of processing states, the number of states those recorded
+    // and the time the first of those committed, 0 till then.
+    private final LongAdder numCommits = new LongAdder();
+    private final LongAdder numCommittedStates = new LongAdder();
+    private final AtomicLong firstCommitNanos = new AtomicLong();
 
     enum BoardProcState {
         NEW,
@@ -47,167 +121,1002 @@ public class BoardSolverDB {
 
     public BoardSolverDB(String dbUrl, String dbUser, String dbPassword, String statesTableName, String movesTableName,
                          String dbSchema) {
+        this(dbUrl, dbUser, dbPassword, statesTableName, movesTableName, dbSchema, DEFAULT_MAX_CONNECTIONS,
+                DEFAULT_MAX_IDLE_MILLIS);
+    }
+
+    /**
+     * @param maxConnections maximum number of connections open to the database at a time, including those held by
+     *                       BSDCConn objects. When all of those are in use, obtaining another waits for one to be closed.
+     * @param maxIdleMillis a connection idle for longer than this is closed
+     */
+    public BoardSolverDB(String dbUrl, String dbUser, String dbPassword, String statesTableName, String movesTableName,
+                         String dbSchema, int maxConnections, long maxIdleMillis) {
+        this.connPool = new DBConnPool(dbUrl, dbUser, dbPassword, maxConnections, maxIdleMillis);
         this.dbUrl = dbUrl;
         this.dbUser = dbUser;
         this.dbPassword = dbPassword;
         this.dbSchema = dbSchema;
         this.statesTableName = dbSchema + "." + statesTableName;
         this.movesTableName = dbSchema + "." + movesTableName;
+        this.expandStatesFuncName = dbSchema + ".expand_states";
+        this.idRangesSeqName = dbSchema + ".id_ranges";
+        this.channelName = this.statesTableName;
     }
 
+    /**
+     * Create the tables, hash partitioned into the given number of partitions if it's positive, see setNumPartitions().
+     */
     public void createObjects() throws SQLException {
+        boolean partitioned = numPartitions > 0;
+        // A unique constraint on a partitioned table has to include the partition key, and the states are deduplicated
+        // by their keys. Hence the states are partitioned by their keys and the moves by the ids of their start states.
+        // Without a unique constraint on the ids of the states, the moves can not reference those; the ids are unique
+        // anyway since the runs assign those from ranges of their own. A bulk build adds the references at the end, see
+        // finishBulkBuild().
+        String stateReference = partitioned || bulkBuild ? "" : "REFERENCES " + statesTableName + "(id) ";
+        // The partitioned tables themselves do not have any storage, their partitions do.
+        String unlogged = bulkBuild && !partitioned ? "UNLOGGED " : "";
         String createSchemeStmt = "CREATE SCHEMA " + dbSchema;
         // States table records all the states reachable from the initial state.
-        String createStateTableStmt = "CREATE TABLE " + statesTableName +
-                "(id BIGINT PRIMARY KEY," + // uniquely identifies a state
-                "state_desc VARCHAR UNIQUE," + // describes the state of board
+        String createStateTableStmt = "CREATE " + unlogged + "TABLE " + statesTableName +
+                "(id BIGINT " + (partitioned ? "NOT NULL," : "PRIMARY KEY,") + // uniquely identifies a state
+                // key of the state, see BoardState.getKey(). The states are deduplicated and looked up by their keys,
+                // so the index on the key is the only other index on the table.
+                "state_key BIGINT NOT NULL UNIQUE," +
+                "state_desc VARCHAR NOT NULL," + // describes the state of board, not used to look up the state
                 // the state of this board state
                 // new - for a newly created state, yet to be queued for processing
                 // processing - queued for processing or being processed
                 // processed - done, all moves in
                 "state_proc varchar NOT NULL," +
+                // owner of the lease on a state queued for processing, see getOwnerId(), and when the lease expires
+                "lease_owner VARCHAR," +
+                "lease_expiry TIMESTAMPTZ," +
                 // is final state
-                "is_final boolean NOT NULL" +
-                ")";
+                "is_final boolean NOT NULL," +
+                // number of paths from this state to the final states, NULL till computed by countSolutions()
+                "num_solutions NUMERIC" +
+                ")" + (partitioned ? " PARTITION BY HASH (state_key)" : "");
         // bv_moves records moves possible for each board state
-        String createMovesTableStmt = "CREATE TABLE " + movesTableName +
+        String createMovesTableStmt = "CREATE " + unlogged + "TABLE " + movesTableName +
                 // identifier indicating the starting board state for this move
-                "(start_state BIGINT REFERENCES " + statesTableName + "(id) NOT NULL," +
+                "(start_state BIGINT " + stateReference + "NOT NULL," +
                 // Description of move
                 "move_desc varchar NOT NULL," +
-                // identifier of the resultant board state after applying this move
-                "end_state BIGINT REFERENCES " + statesTableName + "(id) NOT NULL," +
-                // start and end state are unique for every move and identify the move
-                "UNIQUE(start_state, end_state)," +
-                "UNIQUE(start_state, move_desc)" +
-                ")";
-
-        try (Connection conn = DriverManager.getConnection(dbUrl, dbUser, dbPassword);
-             Statement createStmt = conn.createStatement()) {
+                // identifier of the resultant board state after applying this move. Only the canonical form of a
+                // state is recorded, so the moves leading to states symmetric to each other have the same end state.
+                "end_state BIGINT " + stateReference + "NOT NULL," +
+                // symmetry which transforms the end state to the state actually resulting from this move
+                "symmetry SMALLINT NOT NULL" +
+                // start state and move description identify the move, enforced only once a bulk build finishes
+                (bulkBuild ? "" : ", UNIQUE(start_state, move_desc)") +
+                ")" + (partitioned ? " PARTITION BY HASH (start_state)" : "");
+        // Function to record the results of processing a batch of states in a single trip to the database. It searches
+        // and inserts the resultant states, the same way searchAndInsertState() does, records the moves and marks the
+        // starting states as processed. Every resultant state carries the position of its starting state in parent_ids.
+        // It returns the ids of the resultant states in the same order as the given keys. The
+        // resultant states known to be in the table already are passed with their ids and are not searched. The
+        // resultant states likely to be absent from the table, see setStateFilterFalsePositiveRate(), are inserted
+        // without searching those first.
+        String createExpandStatesFuncStmt = "CREATE FUNCTION " + expandStatesFuncName +
+                "(parent_ids BIGINT[], child_parents INT[], child_ids BIGINT[], child_keys BIGINT[], child_descs VARCHAR[], child_finals BOOLEAN[]," +
+                " child_known BOOLEAN[], child_absent BOOLEAN[], move_descs VARCHAR[], move_symmetries SMALLINT[])" +
+                " RETURNS BIGINT[] LANGUAGE plpgsql AS $$" +
+                " DECLARE" +
+                "   result BIGINT[] := child_ids;" +
+                "   found_id BIGINT;" +
+                " BEGIN" +
+                "   FOR i IN 1 .. coalesce(array_length(child_keys, 1), 0) LOOP" +
+                "     CONTINUE WHEN child_known[i];" +
+                "     found_id := NULL;" +
+                "     IF NOT child_absent[i] THEN" +
+                "       SELECT id INTO found_id FROM " + statesTableName + " WHERE state_key = child_keys[i];" +
+                "     END IF;" +
+                "     IF found_id IS NULL THEN" +
+                "       INSERT INTO " + statesTableName + "(id, state_key, state_desc, state_proc, is_final)" +
+                "         VALUES (child_ids[i], child_keys[i], child_descs[i], " + quoteString(BoardProcState.NEW.toString()) + ", child_finals[i])" +
+                "         ON CONFLICT DO NOTHING RETURNING id INTO found_id;" +
+                // Every statement in the function takes a new snapshot, so a state inserted by a concurrent transaction
+                // is visible now.
+                "       IF found_id IS NULL THEN" +
+                "         SELECT id INTO STRICT found_id FROM " + statesTableName + " WHERE state_key = child_keys[i];" +
+                "       END IF;" +
+                "     END IF;" +
+                "     result[i] := found_id;" +
+                "   END LOOP;" +
+                // A state whose lease expired is processed again, so the moves it already has are skipped.
+                "   INSERT INTO " + movesTableName + "(start_state, move_desc, end_state, symmetry)" +
+                "     SELECT parent_ids[m.parent], m.move_desc, m.end_state, m.symmetry" +
+                "       FROM unnest(child_parents, move_descs, result, move_symmetries) AS m(parent, move_desc, end_state, symmetry)" +
+                "     ON CONFLICT DO NOTHING;" +
+                "   UPDATE " + statesTableName + " SET state_proc = " + quoteString(BoardProcState.PROCESSED.toString()) +
+                "     WHERE id = ANY(parent_ids);" +
+                "   RETURN result;" +
+                " END $$";
+
+        String createIdRangesSeqStmt = "CREATE SEQUENCE " + idRangesSeqName + " MINVALUE 0 START 0";
+
+        try (DBConnPool.PooledConn pooledConn = connPool.lease();
+             Statement createStmt = pooledConn.getConnection().createStatement()) {
             createStmt.executeUpdate(createSchemeStmt);
             createStmt.executeUpdate(createStateTableStmt);
             createStmt.executeUpdate(createMovesTableStmt);
+            if (partitioned) {
+                for (int cnt = 0; cnt < numPartitions; cnt++) {
+                    String bounds = " FOR VALUES WITH (MODULUS " + numPartitions + ", REMAINDER " + cnt + ")";
+                    String unloggedPartition = bulkBuild ? "UNLOGGED " : "";
+                    createStmt.executeUpdate("CREATE " + unloggedPartition + "TABLE " +
+                                                getPartitionName(statesTableName, cnt) + " PARTITION OF " +
+                                                statesTableName + bounds);
+                    createStmt.executeUpdate("CREATE " + unloggedPartition + "TABLE " +
+                                                getPartitionName(movesTableName, cnt) +
+                                                " PARTITION OF " + movesTableName + bounds);
+                }
+                // The moves are joined to their end states by the ids of those.
+                createStmt.executeUpdate("CREATE INDEX ON " + statesTableName + "(id)");
+            }
+            createStmt.executeUpdate(createExpandStatesFuncStmt);
+            createStmt.executeUpdate(createIdRangesSeqStmt);
         }
     }
 
     public void dropObjects() throws SQLException {
         String dropCommand = "DROP TABLE " + movesTableName + "," + statesTableName;
+        String dropFuncCommand = "DROP FUNCTION " + expandStatesFuncName;
+        String dropSeqCommand = "DROP SEQUENCE " + idRangesSeqName;
         String dropSchemaCommand = "DROP SCHEMA " + dbSchema;
-        try (Connection conn = DriverManager.getConnection(dbUrl, dbUser, dbPassword);
-                Statement dropStmt = conn.createStatement()) {
+        // The statements cached by the pooled connections refer to the objects being dropped.
+        connPool.clear();
+        try (DBConnPool.PooledConn pooledConn = connPool.lease();
+                Statement dropStmt = pooledConn.getConnection().createStatement()) {
+            dropStmt.executeUpdate(dropFuncCommand);
+            dropStmt.executeUpdate(dropSeqCommand);
             dropStmt.executeUpdate(dropCommand);
             dropStmt.executeUpdate(dropSchemaCommand);
         }
+        connPool.clear();
+        resetStateFilter();
     }
 
     public void clearObjects() throws SQLException {
         String truncateCommand = "TRUNCATE TABLE " + movesTableName + "," + statesTableName;
-        try (Connection conn = DriverManager.getConnection(dbUrl, dbUser, dbPassword);
-             Statement truncateStmt = conn.createStatement()) {
+        try (DBConnPool.PooledConn pooledConn = connPool.lease();
+             Statement truncateStmt = pooledConn.getConnection().createStatement()) {
             truncateStmt.executeUpdate(truncateCommand);
+            truncateStmt.executeUpdate("ALTER SEQUENCE " + idRangesSeqName + " RESTART");
+        }
+        resetStateFilter();
+    }
+
+    /**
+     * Verify that the moves recorded by a bulk build, see setBulkBuild(), satisfy the constraints left out of the moves
+     * table: the start state and the end state of every move are in the states table, and the start state and the move
+     * description identify a single move. A move recorded more than once with the same end state and symmetry is not
+     * a violation. Every kind of violation found is reported in the log.
+     * @return number of violations found, 0 if none.
+     */
+    public long verifyBulkBuild() throws SQLException {
+        Map<String, String> checks = new LinkedHashMap<>();
+        checks.put("moves from states not in the states table",
+                   "SELECT count(*) FROM " + movesTableName + " m WHERE NOT EXISTS" +
+                   " (SELECT 1 FROM " + statesTableName + " s WHERE s.id = m.start_state)");
+        checks.put("moves to states not in the states table",
+                   "SELECT count(*) FROM " + movesTableName + " m WHERE NOT EXISTS" +
+                   " (SELECT 1 FROM " + statesTableName + " s WHERE s.id = m.end_state)");
+        checks.put("moves recorded with different end states or symmetries",
+                   "SELECT count(*) FROM (SELECT start_state, move_desc FROM " + movesTableName +
+                   " GROUP BY start_state, move_desc HAVING count(DISTINCT (end_state, symmetry)) > 1) c");
+
+        long numViolations = 0;
+        try (DBConnPool.PooledConn pooledConn = connPool.lease();
+             Statement checkStmt = pooledConn.getConnection().createStatement()) {
+            for (Map.Entry<String, String> check : checks.entrySet()) {
+                try (ResultSet rs = checkStmt.executeQuery(check.getValue())) {
+                    rs.next();
+                    long numFound = rs.getLong(1);
+                    if (numFound > 0) {
+                        LOGGER.severe("found " + numFound + " " + check.getKey() + ".");
+                    }
+                    numViolations = numViolations + numFound;
+                }
+            }
+        }
+        return numViolations;
+    }
+
+    /**
+     * Finish a bulk build, see setBulkBuild(), after all the states are processed and before the solutions are looked
+     * up. The moves violating the constraints are reported by verifyBulkBuild(), and nothing is changed if there are
+     * any. Otherwise, in a single transaction, the moves recorded more than once are removed, the tables are made
+     * logged and the constraints are added to the moves table by a single ALTER TABLE, which builds the index
+     * enforcing the uniqueness of the moves, using the given number of parallel workers, and validates the references
+     * to the states together.
+     * @param parallelWorkers largest number of parallel workers the database may use to build the index
+     * @throws IllegalStateException if the tables were not created for a bulk build or the moves violate the
+     * constraints.
+     */
+    public void finishBulkBuild(int parallelWorkers) throws SQLException {
+        if (!bulkBuild) {
+            throw new IllegalStateException("the tables were not created for a bulk build.");
+        }
+        if (parallelWorkers < 0) {
+            throw new IllegalArgumentException("invalid number of parallel workers " + parallelWorkers);
+        }
+        long numViolations = verifyBulkBuild();
+        if (numViolations > 0) {
+            throw new IllegalStateException("found " + numViolations + " violations of the constraints on the moves.");
+        }
+
+        // The partitions, and not the partitioned tables, have storage.
+        List<String> tableNames = new ArrayList<>();
+        for (String tableName : Arrays.asList(statesTableName, movesTableName)) {
+            if (numPartitions > 0) {
+                for (int cnt = 0; cnt < numPartitions; cnt++) {
+                    tableNames.add(getPartitionName(tableName, cnt));
+                }
+            } else {
+                tableNames.add(tableName);
+            }
+        }
+        // A unique constraint on the ids of the states, which the references need, does not exist when the tables are
+        // partitioned. See createObjects().
+        String references = numPartitions > 0 ? "" :
+                ", ADD FOREIGN KEY (start_state) REFERENCES " + statesTableName + "(id)" +
+                ", ADD FOREIGN KEY (end_state) REFERENCES " + statesTableName + "(id)";
+
+        try (DBConnPool.PooledConn pooledConn = connPool.lease();
+             Statement buildStmt = pooledConn.getConnection().createStatement()) {
+            // Returning the connection to the pool rolls back the transaction if it's not committed.
+            pooledConn.getConnection().setAutoCommit(false);
+            // The duplicates of a move are in the same partition as the move itself.
+            long numDuplicates = buildStmt.executeUpdate("DELETE FROM " + movesTableName + " a USING " +
+                    movesTableName + " b WHERE a.start_state = b.start_state AND a.move_desc = b.move_desc" +
+                    " AND a.ctid > b.ctid");
+            // Making a table logged rewrites it, which is cheaper before the moves table has an index.
+            for (String tableName : tableNames) {
+                buildStmt.executeUpdate("ALTER TABLE " + tableName + " SET LOGGED");
+            }
+            buildStmt.executeUpdate("SET LOCAL max_parallel_maintenance_workers = " + parallelWorkers);
+            buildStmt.executeUpdate("ALTER TABLE " + movesTableName + " ADD UNIQUE (start_state, move_desc)" +
+                                    references);
+            pooledConn.getConnection().commit();
+            LOGGER.info("finished bulk build after removing " + numDuplicates + " duplicate moves.");
         }
     }
 
     /**
      * Given the starting state of the board, find the solution i.e. the sets of moves which when applied leads to the
-     * final state/s. Return all the solutions.
-     * TODO: For too many solution using an interator instead of a collection will avoid OOM.
+     * final state/s. Return all the solutions. For too many solutions use streamSolutions() or writeSolutions(), which
+     * do not hold all of those in memory, or countSolutions() and sampleSolutions().
      * @param initialState the state for which to find the solution.
      */
+    @Override
     public Map<String, BoardState> findSolutions(BoardState initialState) throws SQLException {
+        Map<String, BoardState> solutions = new HashMap<>();
+        try (Stream<Map.Entry<String, BoardState>> solutionStream = streamSolutions(initialState)) {
+            solutionStream.forEach(solution -> solutions.put(solution.getKey(), solution.getValue()));
+        } catch (IllegalStateException ise) {
+            if (ise.getCause() instanceof SQLException) {
+                throw (SQLException) ise.getCause();
+            }
+            throw ise;
+        }
+        return solutions;
+    }
+
+    /**
+     * Stream the solutions for the given initial state, as found by findSolutions(), fetching those from the database
+     * lazily, SOLUTIONS_FETCH_SIZE at a time, using a cursor. Thus the memory used does not depend upon the number of
+     * solutions. The stream holds a connection and should be closed after use. A database error while fetching the
+     * solutions is thrown as an IllegalStateException caused by the SQLException.
+     * @param initialState the state for which to find the solutions
+     * @return stream of the moves, separated by "->", and the final state those lead to
+     */
+    public Stream<Map.Entry<String, BoardState>> streamSolutions(BoardState initialState) throws SQLException {
         String resultCTEName = "moves_path";
-        String movesSep = "->";
-        String nonRecursiveQuery = "SELECT start_state start_state, move_desc moves, end_state end_state" +
+        // The moves are recorded for the canonical states, hence the path is collected as the arrays of the moves and
+        // their symmetries, to be transformed into the actual moves. The moves form a directed acyclic graph, so every
+        // path is produced once and UNION ALL lets the paths be returned as they are produced instead of deduplicating
+        // those first.
+        String nonRecursiveQuery = "SELECT start_state start_state, ARRAY[move_desc] moves, ARRAY[symmetry] symmetries, end_state end_state" +
                                         " FROM " + movesTableName +
                                         " WHERE start_state = " + initialState.getId();
-        String recursiveQuery = "SELECT mp.start_state start_state, mp.moves || " + quoteString(movesSep) + " || m.move_desc moves, m.end_state end_state" +
+        String recursiveQuery = "SELECT mp.start_state start_state, mp.moves || m.move_desc moves, mp.symmetries || m.symmetry symmetries, m.end_state end_state" +
                                     " FROM " + movesTableName + " m, " + resultCTEName + " mp" +
                                     " WHERE mp.end_state = m.start_state";
-        String finalQuery = "SELECT mp.moves, s.state_desc, s.id" +
+        String finalQuery = "SELECT mp.moves, mp.symmetries, s.state_key, s.id" +
                                 " FROM " + resultCTEName + " mp, " + statesTableName + " s" +
                                 " WHERE mp.end_state = s.id AND s.is_final";
         String solutionQuery = "WITH RECURSIVE " + resultCTEName + " AS (" +
-                                    nonRecursiveQuery + " UNION " + recursiveQuery + ") " + finalQuery;
-        Map<String, BoardState> solutions = new HashMap<>();
-        try (Connection conn = DriverManager.getConnection(dbUrl, dbUser, dbPassword);
-             Statement solutionQueryStmt = conn.createStatement();
-             ResultSet rs = solutionQueryStmt.executeQuery(solutionQuery)) {
+                                    nonRecursiveQuery + " UNION ALL " + recursiveQuery + ") " + finalQuery;
 
-            while (rs.next()) {
-                String moves_path = rs.getString(1);
-                String finalStateDesc = rs.getString(2);
-                Long finalStateId = rs.getLong(3);
-                BoardState finalState = initialState.newState(finalStateId, finalStateDesc);
-                solutions.put(moves_path, finalState);
+        DBConnPool.PooledConn pooledConn = connPool.lease();
+        Statement solutionQueryStmt = null;
+        ResultSet rs;
+        try {
+            // The driver uses a cursor to fetch the rows only within a transaction.
+            pooledConn.getConnection().setAutoCommit(false);
+            solutionQueryStmt = pooledConn.getConnection().createStatement();
+            solutionQueryStmt.setFetchSize(SOLUTIONS_FETCH_SIZE);
+            rs = solutionQueryStmt.executeQuery(solutionQuery);
+        } catch (SQLException | RuntimeException e) {
+            if (solutionQueryStmt != null) {
+                solutionQueryStmt.close();
             }
+            pooledConn.close();
+            throw e;
         }
 
+        // Closing the statement closes the result set. Returning the connection to the pool ends the transaction.
+        Statement stmtToClose = solutionQueryStmt;
+        int initialSymmetry = initialState.canonicalize().getSymmetry();
+        Iterator<Map.Entry<String, BoardState>> solutionIterator = new Iterator<Map.Entry<String, BoardState>>() {
+            private Boolean hasNext = null;
+
+            @Override
+            public boolean hasNext() {
+                if (hasNext == null) {
+                    try {
+                        hasNext = rs.next();
+                    } catch (SQLException sqle) {
+                        throw new IllegalStateException("could not fetch solutions", sqle);
+                    }
+                }
+                return hasNext;
+            }
+
+            @Override
+            public Map.Entry<String, BoardState> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                hasNext = null;
+                try {
+                    return getSolution(rs, initialState, initialSymmetry);
+                } catch (SQLException sqle) {
+                    throw new IllegalStateException("could not fetch solutions", sqle);
+                }
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(solutionIterator, Spliterator.ORDERED), false)
+                .onClose(() -> {
+                    try {
+                        stmtToClose.close();
+                    } catch (SQLException sqle) {
+                        LOGGER.warning("could not close the solutions query: " + sqle.getMessage());
+                    } finally {
+                        pooledConn.close();
+                    }
+                });
+    }
+
+    // Returns the solution in the current row of the given result set of the solutions query.
+    private static Map.Entry<String, BoardState> getSolution(ResultSet rs, BoardState initialState, int initialSymmetry)
+            throws SQLException {
+        String movesSep = "->";
+        Object[] moves = (Object[]) rs.getArray(1).getArray();
+        Object[] symmetries = (Object[]) rs.getArray(2).getArray();
+        long finalStateKey = rs.getLong(3);
+        long finalStateId = rs.getLong(4);
+
+        // Symmetry transforming the canonical state reached by the moves so far to the actual state.
+        int symmetry = initialSymmetry;
+        StringBuilder movesPath = new StringBuilder();
+        for (int cnt = 0; cnt < moves.length; cnt++) {
+            if (cnt > 0) {
+                movesPath.append(movesSep);
+            }
+            movesPath.append(initialState.transformMove((String) moves[cnt], symmetry));
+            symmetry = initialState.composeSymmetries(symmetry, ((Number) symmetries[cnt]).intValue());
+        }
+        BoardState finalState = initialState.newStateFromKey(finalStateId, finalStateKey).transform(symmetry);
+        finalState.setId(finalStateId);
+        return new AbstractMap.SimpleImmutableEntry<>(movesPath.toString(), finalState);
+    }
+
+    /**
+     * Write the solutions for the given initial state, as found by findSolutions(), to the given file compressed using
+     * gzip, one solution per line: the moves separated by "->", a tab and the description of the final state. The
+     * solutions are fetched from the database only as fast as those are written, so the memory used does not depend upon
+     * the number of solutions.
+     * @return number of solutions written
+     */
+    public long writeSolutions(BoardState initialState, Path file) throws SQLException, IOException {
+        long numSolutions = 0;
+        try (Stream<Map.Entry<String, BoardState>> solutionStream = streamSolutions(initialState);
+             Writer writer = new BufferedWriter(new OutputStreamWriter(
+                     new GZIPOutputStream(Files.newOutputStream(file)), StandardCharsets.UTF_8))) {
+            Iterator<Map.Entry<String, BoardState>> solutionIterator = solutionStream.iterator();
+            while (solutionIterator.hasNext()) {
+                Map.Entry<String, BoardState> solution = solutionIterator.next();
+                writer.write(solution.getKey());
+                writer.write('\t');
+                writer.write(solution.getValue().getDesc());
+                writer.write('\n');
+                numSolutions++;
+            }
+        } catch (IllegalStateException ise) {
+            if (ise.getCause() instanceof SQLException) {
+                throw (SQLException) ise.getCause();
+            }
+            throw ise;
+        }
+        LOGGER.info("wrote " + numSolutions + " solutions to " + file + ".");
+        return numSolutions;
+    }
+
+    /**
+     * Count the solutions for the given initial state, i.e. the number of sequences of moves leading from it to the final
+     * states, without enumerating those as findSolutions() does. The number of solutions of every state in the database
+     * is computed and saved the first time, thus the board should be solved by then.
+     * @param initialState the state for which to count the solutions, should be in the database
+     * @return number of solutions, the number of entries findSolutions() would return
+     */
+    public BigInteger countSolutions(BoardState initialState) throws SQLException {
+        try (DBConnPool.PooledConn pooledConn = connPool.lease()) {
+            BigInteger numSolutions = getNumSolutions(pooledConn, initialState.getId());
+            if (numSolutions == null) {
+                computeNumSolutions(pooledConn);
+                numSolutions = getNumSolutions(pooledConn, initialState.getId());
+            }
+            if (numSolutions == null) {
+                throw new IllegalStateException("number of solutions of state " + initialState.getId() +
+                                                " could not be computed, the moves form a cycle.");
+            }
+            // Unlike the paths returned by findSolutions(), the number of solutions of a final state includes the path
+            // without any move.
+            return initialState.isFinalState() ? numSolutions.subtract(BigInteger.ONE) : numSolutions;
+        }
+    }
+
+    // Returns the number of solutions of the state with the given id, null if it's not computed yet.
+    private BigInteger getNumSolutions(DBConnPool.PooledConn pooledConn, long stateId) throws SQLException {
+        PreparedStatement numSolutionsStmt = pooledConn.prepareStatement("SELECT num_solutions FROM " +
+                                                                            statesTableName + " WHERE id = ?");
+        numSolutionsStmt.setLong(1, stateId);
+        try (ResultSet rs = numSolutionsStmt.executeQuery()) {
+            if (!rs.next()) {
+                throw new IllegalArgumentException("state " + stateId + " is not in the database.");
+            }
+            BigDecimal numSolutions = rs.getBigDecimal(1);
+            return numSolutions == null ? null : numSolutions.toBigIntegerExact();
+        }
+    }
+
+    // Compute the number of solutions of every state in reverse topological order: the number of solutions of a state is
+    // the sum of those of its resultant states, plus one if it's a final state. The states without any move are counted
+    // first. Every following round counts the states which lead to a state counted in the previous round and all of
+    // whose resultant states are counted by now. Thus a round looks up only the moves into the states counted in the
+    // previous round, and the whole computation is linear in the size of the graph.
+    private void computeNumSolutions(DBConnPool.PooledConn pooledConn) throws SQLException {
+        String frontierTableName = "solutions_frontier";
+        Connection conn = pooledConn.getConnection();
+        boolean commitTran = false;
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement();
+             PreparedStatement roundStmt = conn.prepareStatement("WITH candidates AS (" +
+                     "  SELECT DISTINCT m.start_state AS id FROM " + movesTableName + " m JOIN " + frontierTableName +
+                     "    f ON f.id = m.end_state WHERE f.round = ?)," +
+                     " counts AS (" +
+                     "  SELECT c.id, sum(e.num_solutions) AS total, bool_and(e.num_solutions IS NOT NULL) AS complete" +
+                     "    FROM candidates c JOIN " + movesTableName + " m ON m.start_state = c.id JOIN " +
+                     statesTableName + " e ON e.id = m.end_state GROUP BY c.id)," +
+                     " counted AS (" +
+                     "  UPDATE " + statesTableName + " s SET num_solutions = counts.total +" +
+                     "    CASE WHEN s.is_final THEN 1 ELSE 0 END FROM counts" +
+                     "    WHERE s.id = counts.id AND counts.complete AND s.num_solutions IS NULL RETURNING s.id)" +
+                     " INSERT INTO " + frontierTableName + " SELECT id, ? FROM counted");
+             PreparedStatement pruneStmt = conn.prepareStatement("DELETE FROM " + frontierTableName +
+                                                                " WHERE round < ?")) {
+            // The moves are looked up by their end states only here, hence the index is created once the graph is
+            // complete, so that solving the board does not pay for maintaining it.
+            stmt.executeUpdate("CREATE INDEX IF NOT EXISTS " + movesTableName.substring(dbSchema.length() + 1) +
+                                "_end_state_idx ON " + movesTableName + "(end_state)");
+            stmt.executeUpdate("CREATE TEMPORARY TABLE IF NOT EXISTS " + frontierTableName +
+                                "(id BIGINT, round INT) ON COMMIT DELETE ROWS");
+            stmt.executeUpdate("UPDATE " + statesTableName + " SET num_solutions = NULL WHERE num_solutions IS NOT NULL");
+            int numCounted = stmt.executeUpdate("WITH counted AS (" +
+                    "  UPDATE " + statesTableName + " s SET num_solutions = CASE WHEN s.is_final THEN 1 ELSE 0 END" +
+                    "    WHERE NOT EXISTS (SELECT 1 FROM " + movesTableName + " m WHERE m.start_state = s.id)" +
+                    "    RETURNING s.id)" +
+                    " INSERT INTO " + frontierTableName + " SELECT id, 0 FROM counted");
+            int round = 0;
+            while (numCounted > 0) {
+                LOGGER.info("counted solutions of " + numCounted + " states in round " + round + ".");
+                round++;
+                roundStmt.setInt(1, round - 1);
+                roundStmt.setInt(2, round);
+                numCounted = roundStmt.executeUpdate();
+                pruneStmt.setInt(1, round);
+                pruneStmt.executeUpdate();
+            }
+            commitTran = true;
+        } finally {
+            if (commitTran) {
+                conn.commit();
+            } else {
+                conn.rollback();
+            }
+            conn.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Draw the given number of distinct solutions for the given initial state uniformly at random, without enumerating
+     * all of those. Every solution is drawn by walking from the initial state, choosing every move with a probability
+     * proportional to the number of solutions of the state it leads to, see countSolutions().
+     * @param initialState the state for which to find the solutions, should be in the database
+     * @param numSamples number of solutions to draw
+     * @return map of the moves, separated by "->", to the final state those lead to, as returned by findSolutions(). All
+     * the solutions if there are at most numSamples of those.
+     */
+    public Map<String, BoardState> sampleSolutions(BoardState initialState, int numSamples) throws SQLException {
+        if (numSamples < 0) {
+            throw new IllegalArgumentException("expected non-negative number of samples, but got " + numSamples);
+        }
+        BigInteger numSolutions = countSolutions(initialState);
+        if (numSolutions.compareTo(BigInteger.valueOf(numSamples)) <= 0) {
+            return findSolutions(initialState);
+        }
+
+        String movesSep = "->";
+        Random random = ThreadLocalRandom.current();
+        int initialSymmetry = initialState.canonicalize().getSymmetry();
+        Map<String, BoardState> solutions = new HashMap<>();
+        try (DBConnPool.PooledConn pooledConn = connPool.lease()) {
+            PreparedStatement movesStmt = pooledConn.prepareStatement("SELECT m.move_desc, m.symmetry, s.id," +
+                    " s.state_key, s.is_final, s.num_solutions FROM " + movesTableName + " m JOIN " + statesTableName +
+                    " s ON s.id = m.end_state WHERE m.start_state = ?");
+            while (solutions.size() < numSamples) {
+                // Rank of the solution to draw among the solutions of the state reached so far. Every state orders its
+                // solutions as the one ending at it, if it's final, followed by those of its moves.
+                BigInteger rank;
+                do {
+                    rank = new BigInteger(numSolutions.bitLength(), random);
+                } while (rank.compareTo(numSolutions) >= 0);
+
+                long stateId = initialState.getId();
+                long stateKey = 0;
+                boolean isFinal = false;
+                int symmetry = initialSymmetry;
+                StringBuilder movesPath = new StringBuilder();
+                while (!isFinal || rank.signum() > 0) {
+                    if (isFinal) {
+                        rank = rank.subtract(BigInteger.ONE);
+                    }
+
+                    boolean moved = false;
+                    movesStmt.setLong(1, stateId);
+                    try (ResultSet rs = movesStmt.executeQuery()) {
+                        while (!moved && rs.next()) {
+                            BigInteger moveSolutions = rs.getBigDecimal(6).toBigIntegerExact();
+                            if (rank.compareTo(moveSolutions) >= 0) {
+                                rank = rank.subtract(moveSolutions);
+                                continue;
+                            }
+
+                            if (movesPath.length() > 0) {
+                                movesPath.append(movesSep);
+                            }
+                            movesPath.append(initialState.transformMove(rs.getString(1), symmetry));
+                            symmetry = initialState.composeSymmetries(symmetry, rs.getInt(2));
+                            stateId = rs.getLong(3);
+                            stateKey = rs.getLong(4);
+                            isFinal = rs.getBoolean(5);
+                            moved = true;
+                        }
+                    }
+                    if (!moved) {
+                        throw new IllegalStateException("number of solutions of state " + stateId +
+                                                        " does not match those of its moves.");
+                    }
+                }
+
+                BoardState finalState = initialState.newStateFromKey(stateId, stateKey).transform(symmetry);
+                finalState.setId(stateId);
+                solutions.put(movesPath.toString(), finalState);
+            }
+        }
         return solutions;
     }
 
+    @Override
     public BSDCConn getConnection() throws SQLException {
-        return new BSDCConn();
+        return copyFlushSize > 0 ? new BSDCCopyConn(copyFlushSize) : new BSDCConn();
+    }
+
+    /**
+     * Write the results of processing states using COPY instead of INSERTs. Every connection obtained after this call
+     * buffers the results of processing given number of states before writing those to the database.
+     * @param copyFlushSize number of processed states to buffer, 0 to write every state as it's processed.
+     */
+    public void setCopyFlushSize(int copyFlushSize) {
+        if (copyFlushSize < 0) {
+            throw new IllegalArgumentException("invalid flush size " + copyFlushSize);
+        }
+        this.copyFlushSize = copyFlushSize;
+    }
+
+    /**
+     * Hash partition the tables created by createObjects() into the given number of partitions, so that the runs and
+     * their threads do not all contend for the same pages of the tables and their indexes, and the partitions can be
+     * vacuumed and analyzed independently during long runs. Every run claims the states to process from a home
+     * partition of its own first, moving on to the other partitions only when that runs out of states. The runs sharing
+     * the tables should use the same number of partitions; a run which does not claims the states from all the
+     * partitions together.
+     * @param numPartitions number of partitions, 0 to not partition the tables
+     */
+    public void setNumPartitions(int numPartitions) {
+        if (numPartitions < 0) {
+            throw new IllegalArgumentException("invalid number of partitions " + numPartitions);
+        }
+        this.numPartitions = numPartitions;
+    }
+
+    private static String getPartitionName(String tableName, int partition) {
+        return tableName + "_p" + partition;
+    }
+
+    /**
+     * Create the tables for a bulk build of the graph of the states, when set before createObjects(). The tables are
+     * unlogged, so the states and the moves are not written to the WAL, and the moves table has neither the unique
+     * constraint on the moves nor the references to the states, so that recording a move does not maintain an index or
+     * look up the states. The states table keeps its indexes, which are needed to deduplicate and look up the states.
+     * Once all the states are processed, finishBulkBuild() should be called before looking up the solutions.
+     *
+     * The database truncates the unlogged tables when it recovers from a crash, so a bulk build can not be resumed
+     * after a crash of the database and has to be started afresh; it can be resumed after a crash of the run itself.
+     * A state processed again after its lease expired records its moves again, which finishBulkBuild() removes.
+     * @param bulkBuild true to create the tables for a bulk build, false for the regular tables
+     */
+    public void setBulkBuild(boolean bulkBuild) {
+        this.bulkBuild = bulkBuild;
+    }
+
+    /**
+     * Keep a Bloom filter over the keys of the states in the states table, consulted by the connections obtained after
+     * this call before searching a state. Most of the states resulting from a state are new during the early levels of
+     * the game, and the filter tells for sure that those are not in the table, so those are inserted right away instead
+     * of searching those in vain first. Only the states which may be in the table, a given fraction of the new states
+     * among those, are searched.
+     *
+     * The filter is loaded with the keys in the table when it's created and grows with the table thereafter. It's
+     * shared by the connections obtained from this object, but not by the other runs sharing the tables: a state
+     * inserted by another run may not be in the filter, in which case inserting it finds it in the table and searches
+     * it after all. The states merged from the COPY staging tables, see setCopyFlushSize(), are searched together in
+     * sets and do not use the filter.
+     * @param falsePositiveRate expected fraction of the states not in the table which the filter reports as may be in
+     *                          the table, 0 to not use the filter.
+     */
+    public void setStateFilterFalsePositiveRate(double falsePositiveRate) {
+        if (falsePositiveRate < 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("invalid false positive rate " + falsePositiveRate);
+        }
+        this.stateFilterFalsePositiveRate = falsePositiveRate;
+    }
+
+    /**
+     * @return fraction of the states found absent from the states table which the state filter reported as may be in
+     * the table, 0 if the filter was not consulted yet.
+     */
+    public double getStateFilterFalsePositiveRate() {
+        long numFalsePositives = numFilterFalsePositives.sum();
+        long numAbsent = numFalsePositives + numFilterNegatives.sum();
+        return numAbsent == 0 ? 0 : (double) numFalsePositives / numAbsent;
+    }
+
+    // Return the state filter, creating it if it's not created yet and loading it with the keys in the states table
+    // using the given connection. null if the filter is not used.
+    private synchronized ScalableBloomFilter getStateFilter(Connection conn) throws SQLException {
+        if (stateFilterFalsePositiveRate == 0 || stateFilter != null) {
+            return stateFilter;
+        }
+
+        // The filter starts with the size of the table, as estimated by the planner statistics; its partitions have
+        // the statistics if it's partitioned.
+        long numKeys;
+        try (PreparedStatement estimateStmt = conn.prepareStatement("SELECT coalesce(sum(greatest(reltuples, 0)), 0)" +
+                " FROM pg_class WHERE oid = ?::regclass OR oid IN (SELECT inhrelid FROM pg_inherits" +
+                " WHERE inhparent = ?::regclass)")) {
+            estimateStmt.setString(1, statesTableName);
+            estimateStmt.setString(2, statesTableName);
+            try (ResultSet rs = estimateStmt.executeQuery()) {
+                rs.next();
+                numKeys = rs.getLong(1);
+            }
+        }
+        ScalableBloomFilter filter = new ScalableBloomFilter(Math.max(numKeys, MIN_STATE_FILTER_KEYS),
+                                                             stateFilterFalsePositiveRate);
+        // A cursor is used only within a transaction.
+        try (Statement loadStmt = conn.createStatement()) {
+            loadStmt.setFetchSize(SOLUTIONS_FETCH_SIZE);
+            try (ResultSet rs = loadStmt.executeQuery("SELECT state_key FROM " + statesTableName)) {
+                while (rs.next()) {
+                    filter.add(rs.getLong(1));
+                }
+            }
+        } finally {
+            conn.commit();
+        }
+        LOGGER.info("loaded " + filter.getNumKeys() + " keys in the state filter.");
+        stateFilter = filter;
+        return stateFilter;
+    }
+
+    // The states table was emptied, the filter is created again when needed.
+    private synchronized void resetStateFilter() {
+        stateFilter = null;
+    }
+
+    /**
+     * Lease the states fetched for processing using the connections obtained after this call for the given duration. A
+     * state not processed by then is fetched again, e.g. by a run resumed after the one which fetched it died. Processing
+     * a state again is harmless, but it's wasted work, so the lease should be long enough to process the states fetched.
+     * @param leaseMillis duration of the lease in milliseconds
+     */
+    public void setLeaseMillis(long leaseMillis) {
+        if (leaseMillis < 0) {
+            throw new IllegalArgumentException("invalid lease duration " + leaseMillis);
+        }
+        this.leaseMillis = leaseMillis;
+    }
+
+    /**
+     * Group the results of processing several states into a single transaction, so that a commit, which waits for the
+     * WAL to be flushed to the disk, is shared by those states. Every connection obtained after this call holds back
+     * the results passed to expandStates() and addMoves() till those of the given number of states are
+     * held, or the given time has passed since the first of those, and records those all together using a single call
+     * to the function created by createObjects(). The results held are also recorded by flush(), and before any other
+     * operation. A state is marked processed in the same transaction which records its moves, so each state is still
+     * recorded in full or not at all, and a state whose results are lost in a crash is fetched again once its lease
+     * expires, see setLeaseMillis().
+     *
+     * The resultant states are assigned ids only when the results are recorded, thus expandStates() does not update
+     * the ids of the resultant states unless it records those right away. The time is checked only when the results of
+     * a state are passed; the results held by an idle connection are recorded when it's flushed. BSDCCopyConn groups the
+     * states by itself, see setCopyFlushSize().
+     * @param numStates number of states whose results are recorded together, 1 to record every state by itself
+     * @param millis longest time, in milliseconds, to hold back the results of a state, 0 for no limit
+     */
+    public void setGroupCommit(int numStates, long millis) {
+        if (numStates < 1 || millis < 0) {
+            throw new IllegalArgumentException("invalid group commit of " + numStates + " states or " + millis + " ms");
+        }
+        this.groupCommitStates = numStates;
+        this.groupCommitMillis = millis;
+    }
+
+    /**
+     * @return number of transactions which recorded the results of processing states, see setGroupCommit().
+     */
+    public long getNumCommits() {
+        return numCommits.sum();
+    }
+
+    /**
+     * @return average number of states whose results are recorded by a transaction, 0 if none committed yet.
+     */
+    public double getStatesPerCommit() {
+        long commits = numCommits.sum();
+        return commits == 0 ? 0 : (double) numCommittedStates.sum() / commits;
+    }
+
+    /**
+     * @return number of transactions which recorded the results of processing states per second, since the first of
+     * those committed.
+     */
+    public double getCommitsPerSecond() {
+        long startNanos = firstCommitNanos.get();
+        long elapsedNanos = System.nanoTime() - startNanos;
+        if (startNanos == 0 || elapsedNanos <= 0) {
+            return 0;
+        }
+        return numCommits.sum() / (elapsedNanos / 1e9);
+    }
+
+    // Count a committed transaction which recorded the results of processing the given number of states.
+    private void countCommit(int numStates) {
+        numCommits.increment();
+        numCommittedStates.add(numStates);
+        firstCommitNanos.compareAndSet(0, System.nanoTime());
+    }
+
+    /**
+     * @return identifier of this object, recorded as the owner of the leases on the states it fetches for processing.
+     */
+    public String getOwnerId() {
+        return ownerId;
+    }
+
+    /**
+     * Reclaim the states queued for processing by the other owners, irrespective of whether their leases have expired,
+     * so that those can be fetched again. Leases expire only after a while, so a run resumed right after the earlier
+     * one died would otherwise leave the states leased by it unprocessed. No other run should be using the tables.
+     */
+    @Override
+    public long reclaimQueuedStates() throws SQLException {
+        try (DBConnPool.PooledConn pooledConn = connPool.lease();
+             PreparedStatement reclaimStmt = pooledConn.getConnection().prepareStatement("UPDATE " + statesTableName +
+                     " SET state_proc = " + quoteString(BoardProcState.NEW.toString()) +
+                     ", lease_owner = NULL, lease_expiry = NULL WHERE state_proc = " +
+                     quoteString(BoardProcState.QUEUED.toString()) + " AND lease_owner IS DISTINCT FROM ?")) {
+            reclaimStmt.setString(1, ownerId);
+            long numReclaimed = reclaimStmt.executeUpdate();
+            LOGGER.info("reclaimed " + numReclaimed + " states queued by the other owners.");
+            return numReclaimed;
+        }
+    }
+
+    /**
+     * Every call hands out a new range of ids from a sequence, so the runs sharing the tables, possibly on different
+     * machines, as well as the runs resumed later, assign distinct ids. The runs are spread over the partitions, if any,
+     * by the ranges they get: the range also decides the home partition of the run.
+     */
+    @Override
+    public long getNextId() throws SQLException {
+        try (DBConnPool.PooledConn pooledConn = connPool.lease();
+             Statement stmt = pooledConn.getConnection().createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT nextval('" + idRangesSeqName + "')")) {
+            rs.next();
+            long range = rs.getLong(1);
+            if (numPartitions > 0) {
+                homePartition = (int) (range % numPartitions);
+            }
+            return range << ID_RANGE_BITS;
+        }
+    }
+
+    private String quoteIdent(String str) {
+        return '"' + str + '"';
     }
 
     private String quoteString(String str) {
         return "'" + str + "'";
     }
 
-    public class BSDCConn implements AutoCloseable {
-        private final Connection conn;
+    /**
+     * Close the connections pooled by this object. Connections in use are closed when those are closed.
+     */
+    public void close() {
+        if (numCommits.sum() > 0) {
+            LOGGER.info(numCommits.sum() + " commits, " + getStatesPerCommit() + " states per commit, " +
+                        getCommitsPerSecond() + " commits per second.");
+        }
+        if (stateFilter != null) {
+            LOGGER.info("state filter: " + stateFilter.getNumKeys() + " keys in " + stateFilter.getNumBits() +
+                        " bits, false positive rate " + getStateFilterFalsePositiveRate() + ", expected " +
+                        stateFilter.getExpectedFalsePositiveRate());
+        }
+        connPool.close();
+    }
+
+    public class BSDCConn implements StateStore.Conn {
+        private final DBConnPool.PooledConn pooledConn;
+        protected final Connection conn;
         private final PreparedStatement searchStateStmt;
         private final PreparedStatement insertStateStmt;
-        private final PreparedStatement fetchNewStateStmt;
-        private final PreparedStatement fetchQueuedStateStmt;
+        private final PreparedStatement insertStatesStmt;
+        private final PreparedStatement searchStatesStmt;
+        // Statements fetching the states from every partition, or from the whole table if it's not partitioned.
+        private final PreparedStatement[] fetchNewStateStmts;
+        private final PreparedStatement notifyStmt;
         private final PreparedStatement updateStateProcStmt;
         private final PreparedStatement insertMoveStmt;
+        private final CallableStatement expandStatesStmt;
+        private final ScalableBloomFilter stateFilter;
+        // The results of processing states held back to be recorded together, see setGroupCommit(), and when the first
+        // of those was held. Every state comes with the first id reserved for its resultant states not known to be in
+        // the database.
+        private final int groupCommitStates;
+        private final long groupCommitMillis;
+        private final List<BoardState> heldStates = new ArrayList<>();
+        private final List<Map<BoardMove, BoardState>> heldNewStates = new ArrayList<>();
+        private final List<Map<BoardMove, BoardState>> heldAbsentStates = new ArrayList<>();
+        private final List<Map<BoardMove, BoardState>> heldKnownStates = new ArrayList<>();
+        private final List<Long> heldFirstIds = new ArrayList<>();
+        private long heldSinceMillis = 0;
 
         public BSDCConn() throws SQLException {
-            conn = DriverManager.getConnection(dbUrl, dbUser, dbPassword);
+            this(BoardSolverDB.this.groupCommitStates, BoardSolverDB.this.groupCommitMillis);
+        }
+
+        protected BSDCConn(int groupCommitStates, long groupCommitMillis) throws SQLException {
+            this.groupCommitStates = groupCommitStates;
+            this.groupCommitMillis = groupCommitMillis;
+            // The statements are prepared only the first time the pooled connection is used.
+            pooledConn = connPool.lease();
+            conn = pooledConn.getConnection();
             conn.setAutoCommit(false);
-            searchStateStmt = conn.prepareStatement("SELECT id FROM " + statesTableName + " WHERE state_desc = ?");
-            insertStateStmt = conn.prepareStatement("INSERT INTO " + statesTableName + "(id, state_desc, state_proc, is_final) VALUES (?, ?, ?, ?) ON CONFLICT DO NOTHING RETURNING id");
-            updateStateProcStmt = conn.prepareStatement("UPDATE " + statesTableName + " SET state_proc = " +
+            try {
+                stateFilter = getStateFilter(conn);
+            } catch (SQLException sqle) {
+                pooledConn.close();
+                throw sqle;
+            }
+            searchStateStmt = pooledConn.prepareStatement("SELECT id FROM " + statesTableName + " WHERE state_key = ?");
+            insertStateStmt = pooledConn.prepareStatement("INSERT INTO " + statesTableName + "(id, state_key, state_desc, state_proc, is_final) VALUES (?, ?, ?, ?, ?) ON CONFLICT DO NOTHING RETURNING id");
+            // Insert the given states, skipping those already present, and return the ids of all the given states. The
+            // states are inserted in the order of their keys so that the concurrent transactions inserting overlapping
+            // sets of states wait for each other in the same order and do not deadlock. The outer SELECT does not see
+            // the rows inserted by the CTE, so those are added from the CTE's RETURNING clause.
+            insertStatesStmt = pooledConn.prepareStatement("WITH input AS (SELECT * FROM unnest(?::bigint[], ?::bigint[], ?::varchar[], ?::boolean[]) AS i(id, state_key, state_desc, is_final))," +
+                    " inserted AS (INSERT INTO " + statesTableName + "(id, state_key, state_desc, state_proc, is_final)" +
+                    " SELECT DISTINCT ON (state_key) id, state_key, state_desc, " + quoteString(BoardProcState.NEW.toString()) + ", is_final" +
+                    " FROM input ORDER BY state_key ON CONFLICT DO NOTHING RETURNING id, state_key)" +
+                    " SELECT id, state_key FROM inserted" +
+                    " UNION ALL" +
+                    " SELECT id, state_key FROM " + statesTableName + " WHERE state_key IN (SELECT state_key FROM input)");
+            searchStatesStmt = pooledConn.prepareStatement("SELECT id, state_key FROM " + statesTableName + " WHERE state_key = ANY(?::bigint[])");
+            updateStateProcStmt = pooledConn.prepareStatement("UPDATE " + statesTableName + " SET state_proc = " +
                     quoteString(BoardProcState.PROCESSED.toString()) + " WHERE id = ?");
-            fetchNewStateStmt = conn.prepareStatement("UPDATE " + statesTableName + " SET state_proc = " + quoteString(BoardProcState.QUEUED.toString()) +
-                    " WHERE id IN (SELECT id FROM " + statesTableName + " WHERE state_proc = " + quoteString(BoardProcState.NEW.toString()) + " LIMIT ?)" +
-                    " RETURNING id, state_desc");
-            fetchQueuedStateStmt = conn.prepareStatement("SELECT id, state_desc FROM " + statesTableName + " WHERE state_proc = " +
-                    quoteString(BoardProcState.QUEUED.toString()));
-            insertMoveStmt = conn.prepareStatement("INSERT INTO " + movesTableName + " (start_state, move_desc, end_state) " +
-                    " VALUES (?, ?, ?)");
+            // Fetch the new states as well as the queued states whose lease has expired, leasing those to this owner.
+            // The runs sharing the tables fetch concurrently; the rows being fetched by one are skipped by the others,
+            // instead of waiting for those and then finding them already queued.
+            fetchNewStateStmts = new PreparedStatement[Math.max(numPartitions, 1)];
+            for (int cnt = 0; cnt < fetchNewStateStmts.length; cnt++) {
+                String tableName = numPartitions > 0 ? getPartitionName(statesTableName, cnt) : statesTableName;
+                fetchNewStateStmts[cnt] = pooledConn.prepareStatement("UPDATE " + tableName + " SET state_proc = " + quoteString(BoardProcState.QUEUED.toString()) +
+                        ", lease_owner = ?, lease_expiry = now() + ? * interval '1 millisecond'" +
+                        " WHERE id IN (SELECT id FROM " + tableName + " WHERE state_proc = " + quoteString(BoardProcState.NEW.toString()) +
+                        " OR (state_proc = " + quoteString(BoardProcState.QUEUED.toString()) + " AND lease_expiry < now()) LIMIT ?" +
+                        " FOR UPDATE SKIP LOCKED)" +
+                        " RETURNING id, state_key");
+            }
+            notifyStmt = pooledConn.prepareStatement("SELECT pg_notify(?, ?)");
+            // A state whose lease expired is processed again, so the moves it already has are skipped.
+            insertMoveStmt = pooledConn.prepareStatement("INSERT INTO " + movesTableName + " (start_state, move_desc, end_state, symmetry) " +
+                    " VALUES (?, ?, ?, ?) ON CONFLICT DO NOTHING");
+            expandStatesStmt = pooledConn.prepareCall("{? = call " + expandStatesFuncName + "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)}");
         }
 
         // Insert the given state in the database if it's already not recorded. If the state is inserted anew the given id
         // is used for insertion. In this case the function returns true. If the given state is already in the database the
         // function returns false. In either case, given state is updated with it's identifier in the database.
-
-        // TODO: Modify this method to pass a list of states with possible ids instead of one state at a time. Helps to add all
-        // the resultant moves in one go, improving performance.
-        // Also, for testing pass a flag to indicate whether to just search the state instead of inserting when absent.
+        @Override
         public void searchAndInsertState(BoardState state, long id) throws SQLException {
-            String boardStateDesc = state.getDesc();
+            recordHeldStates();
+            long boardStateKey = state.getKey();
             boolean commitTran = true;
 
             // 1. If the state is already in the database get its id. Usually a state is searched multiple times, so most of
             // the times this step should succeed. We could just execute 2 and 3 below, but INSERTs are costlier than SELECT
-            // so this step actually improves the performance.
-            // TODO: convert these steps into a UDF thus saving two trips to database in worst case.
-            searchStateStmt.setString(1, boardStateDesc);
-            try (ResultSet rsSSS = searchStateStmt.executeQuery()) {
-                if (!rsSSS.next()) {
+            // so this step actually improves the performance. The step is skipped if the state filter tells that the
+            // state is not in the database.
+            // The batched calls, searchAndInsertStates() and expandStates(), run these steps in the database in a single
+            // trip through the expand_states function; a single state still takes up to three trips here.
+            boolean maybePresent = stateFilter == null || stateFilter.mightContain(boardStateKey);
+            boolean found = false;
+            try {
+                if (maybePresent) {
+                    searchStateStmt.setLong(1, boardStateKey);
+                    try (ResultSet rsSSS = searchStateStmt.executeQuery()) {
+                        if (rsSSS.next()) {
+                            state.setId(rsSSS.getLong(1));
+                            found = true;
+                        }
+                    }
+                }
+                if (!found) {
                     // 2. Try inserting the state in the database and get its id. If the state is already there (somebody inserted it between this
                     //    and the above step) insert will not return anything. Otherwise it will return the id.
                     insertStateStmt.setLong(1, id);
-                    insertStateStmt.setString(2, boardStateDesc);
-                    insertStateStmt.setString(3, BoardProcState.NEW.toString());
-                    insertStateStmt.setBoolean(4, state.isFinalState());
+                    insertStateStmt.setLong(2, boardStateKey);
+                    insertStateStmt.setString(3, state.getDesc());
+                    insertStateStmt.setString(4, BoardProcState.NEW.toString());
+                    insertStateStmt.setBoolean(5, state.isFinalState());
                     try (ResultSet rsISS = insertStateStmt.executeQuery()) {
-                        if (!rsISS.next()) {
+                        if (rsISS.next()) {
+                            state.setId(rsISS.getLong(1));
+                        } else {
                             // 3. Search the state again if insert didn't return anything. Now we should find the state in the database since
                             //    a state is never deleted. Any exception here will be caught by the outermost try block.
-                            searchStateStmt.setString(1, boardStateDesc);
+                            searchStateStmt.setLong(1, boardStateKey);
                             try (ResultSet rsSSS2 = searchStateStmt.executeQuery()) {
+                                if (!rsSSS2.next()) {
+                                    throw new IllegalStateException("state " + state.getDesc() + " neither inserted nor found.");
+                                }
+                                state.setId(rsSSS2.getLong(1));
                             }
                         }
                     }
@@ -219,16 +1128,116 @@ public class BoardSolverDB {
                 // We are in auto commit false mode, end the transaction
                 endTransaction(commitTran);
             }
+
+            if (stateFilter != null) {
+                if (!maybePresent) {
+                    numFilterNegatives.increment();
+                } else if (!found) {
+                    numFilterFalsePositives.increment();
+                }
+                stateFilter.add(boardStateKey);
+            }
+        }
+
+        /**
+         * Batch version of searchAndInsertState(). All the given states are searched and inserted in a single trip to
+         * the database and a single transaction. A state which is inserted anew is assigned firstId + its position in
+         * the list. Thus the caller should reserve states.size() ids starting at firstId. Every given state is updated
+         * with its identifier in the database.
+         * @param states states to search and insert, the same state may appear multiple times
+         * @param firstId id to be assigned to the first state in the list, if it's inserted
+         * @throws SQLException
+         */
+        @Override
+        public void searchAndInsertStates(List<BoardState> states, long firstId) throws SQLException {
+            long[] ids = new long[states.size()];
+            Arrays.setAll(ids, cnt -> firstId + cnt);
+            searchAndInsertStates(states, ids);
+        }
+
+        /**
+         * Same as searchAndInsertStates() above, except that a state which is inserted anew is assigned the id at its
+         * position in the given array, e.g. to write states which have ids assigned elsewhere.
+         * @param states states to search and insert
+         * @param stateIds ids to be assigned to the states, if inserted, parallel to states
+         * @throws SQLException
+         */
+        public void searchAndInsertStates(List<BoardState> states, long[] stateIds) throws SQLException {
+            recordHeldStates();
+            if (states.isEmpty()) {
+                return;
+            }
+
+            boolean commitTran = true;
+            Long[] ids = new Long[states.size()];
+            Long[] keys = new Long[states.size()];
+            String[] descs = new String[states.size()];
+            Boolean[] finals = new Boolean[states.size()];
+            for (int cnt = 0; cnt < states.size(); cnt++) {
+                ids[cnt] = stateIds[cnt];
+                keys[cnt] = states.get(cnt).getKey();
+                descs[cnt] = states.get(cnt).getDesc();
+                finals[cnt] = states.get(cnt).isFinalState();
+            }
+
+            Map<Long, Long> keyToId = new HashMap<>(states.size());
+            try {
+                insertStatesStmt.setArray(1, conn.createArrayOf("bigint", ids));
+                insertStatesStmt.setArray(2, conn.createArrayOf("bigint", keys));
+                insertStatesStmt.setArray(3, conn.createArrayOf("varchar", descs));
+                insertStatesStmt.setArray(4, conn.createArrayOf("boolean", finals));
+                try (ResultSet rs = insertStatesStmt.executeQuery()) {
+                    while (rs.next()) {
+                        keyToId.put(rs.getLong(2), rs.getLong(1));
+                    }
+                }
+
+                // A state inserted by a concurrent transaction which committed after our statement started is neither
+                // inserted nor visible to the statement. Search those again; now we should find them since a state is
+                // never deleted.
+                Long[] missingKeys = Arrays.stream(keys)
+                                            .filter(key -> !keyToId.containsKey(key))
+                                            .distinct()
+                                            .toArray(Long[]::new);
+                if (missingKeys.length > 0) {
+                    searchStatesStmt.setArray(1, conn.createArrayOf("bigint", missingKeys));
+                    try (ResultSet rs = searchStatesStmt.executeQuery()) {
+                        while (rs.next()) {
+                            keyToId.put(rs.getLong(2), rs.getLong(1));
+                        }
+                    }
+                }
+            } catch (SQLException sqe) {
+                commitTran = false;
+                throw sqe;
+            } finally {
+                endTransaction(commitTran);
+            }
+
+            for (int cnt = 0; cnt < states.size(); cnt++) {
+                Long id = keyToId.get(keys[cnt]);
+                if (id == null) {
+                    throw new IllegalStateException("state " + descs[cnt] + " neither inserted nor found.");
+                }
+                states.get(cnt).setId(id);
+                // All the states are searched together anyway, but the filter should know those for the later searches.
+                if (stateFilter != null) {
+                    stateFilter.add(keys[cnt]);
+                }
+            }
         }
 
         // We insert all the moves pertaining to a given state in one INSERT
         // statement and also update the status of the starting state to examined.
         // We do this in a single transaction so that when the status of the
         // starting state is set as examined, we know that all the moves pertaining
-        // to that state are recorded, otherwise none are recorded.
+        // to that state are recorded, otherwise none are recorded. With group commit, the moves are held back along with
+        // the other results, the resultant states being known to be in the database already.
+        @Override
         public void addMoves(BoardState state, Map<BoardMove, BoardState> newStates) throws SQLException {
-            if (newStates.isEmpty()) {
-                // No moves nothing to be done.
+            if (groupCommitStates > 1) {
+                expandStates(Collections.singletonList(state), Collections.emptyList(), Collections.emptyList(),
+                             Collections.singletonList(newStates), 0);
                 return;
             }
 
@@ -239,23 +1248,205 @@ public class BoardSolverDB {
                     insertMoveStmt.setLong(1, state.getId());
                     insertMoveStmt.setString(2, entry.getKey().getDesc());
                     insertMoveStmt.setLong(3, entry.getValue().getId());
+                    insertMoveStmt.setShort(4, (short) entry.getValue().getSymmetry());
                     insertMoveStmt.addBatch();
                 }
                 // TODO: should check whether the number of rows actually inserted is same as the number of moves passed.
-                insertMoveStmt.executeBatch();
+                // A state without any moves is only marked as processed.
+                if (!newStates.isEmpty()) {
+                    insertMoveStmt.executeBatch();
+                }
                 updateStateProcStmt.setLong(1, state.getId());
                 // TODO: Should make sure that only one state is updated.
                 updateStateProcStmt.executeUpdate();
             } catch (SQLException sqle) {
                 LOGGER.severe("error while inserting moves using statement: " + insertMoveStmt);
+                // The statement is reused, do not leave the failed batch behind.
+                insertMoveStmt.clearBatch();
                 commitTran = false;
                 throw sqle;
             } finally {
                 endTransaction(commitTran);
             }
+            countCommit(1);
+        }
+
+        /**
+         * Record the results of processing the given states in a single trip to the database, using the function
+         * created by createObjects(). The new resultant states are searched and inserted as searchAndInsertStates()
+         * does, except those the state filter tells are not in the database, which are inserted without searching as
+         * the absent states are. The known states are neither searched nor inserted. The moves are recorded and the
+         * states are marked as processed, all in a single transaction. With group commit, the results are held back to be
+         * recorded along with those of the other states, see setGroupCommit().
+         */
+        @Override
+        public void expandStates(List<BoardState> states, List<Map<BoardMove, BoardState>> allNewStates,
+                                 List<Map<BoardMove, BoardState>> allAbsentStates,
+                                 List<Map<BoardMove, BoardState>> allKnownStates, long firstId) throws SQLException {
+            allNewStates = perState(allNewStates, states.size());
+            allAbsentStates = perState(allAbsentStates, states.size());
+            allKnownStates = perState(allKnownStates, states.size());
+            if (heldStates.isEmpty()) {
+                heldSinceMillis = System.currentTimeMillis();
+            }
+            long nextId = firstId;
+            for (int cnt = 0; cnt < states.size(); cnt++) {
+                heldStates.add(states.get(cnt));
+                heldNewStates.add(allNewStates.get(cnt));
+                heldAbsentStates.add(allAbsentStates.get(cnt));
+                heldKnownStates.add(allKnownStates.get(cnt));
+                heldFirstIds.add(nextId);
+                nextId = nextId + allNewStates.get(cnt).size() + allAbsentStates.get(cnt).size();
+            }
+            if (heldStates.size() >= groupCommitStates ||
+                (groupCommitMillis > 0 && System.currentTimeMillis() - heldSinceMillis >= groupCommitMillis)) {
+                recordHeldStates();
+            }
+        }
+
+        // The given maps of the resultant states per state, or an empty map for every state if there are none, see
+        // StateStore.Conn.expandStates().
+        protected List<Map<BoardMove, BoardState>> perState(List<Map<BoardMove, BoardState>> allStates, int numStates) {
+            return allStates.isEmpty() ? Collections.nCopies(numStates, Collections.emptyMap()) : allStates;
+        }
+
+        // Record the results of processing the states held back so far, if any, in a single transaction.
+        private void recordHeldStates() throws SQLException {
+            if (heldStates.isEmpty()) {
+                return;
+            }
+            try {
+                recordExpandedStates(heldStates, heldNewStates, heldAbsentStates, heldKnownStates, heldFirstIds);
+            } finally {
+                // The results are not recorded again even if those could not be recorded. The states are fetched again
+                // once their leases expire.
+                heldStates.clear();
+                heldNewStates.clear();
+                heldAbsentStates.clear();
+                heldKnownStates.clear();
+                heldFirstIds.clear();
+            }
         }
 
-        private void endTransaction(boolean commit) throws SQLException {
+        // Record the results of processing the given states in a single transaction, see expandStates(). The resultant
+        // states of every state not known to be in the database, the new ones followed by the absent ones, are assigned
+        // the ids starting at the first id given for the state.
+        private void recordExpandedStates(List<BoardState> states, List<Map<BoardMove, BoardState>> allNewStates,
+                                          List<Map<BoardMove, BoardState>> allAbsentStates,
+                                          List<Map<BoardMove, BoardState>> allKnownStates, List<Long> firstIds)
+                throws SQLException {
+            // The entries of the absent states follow those of the new states, and the entries of the known states
+            // follow those. Every entry carries the position of its starting state.
+            List<Map.Entry<BoardMove, BoardState>> entries = new ArrayList<>();
+            List<Integer> entryParents = new ArrayList<>();
+            List<Long> entryIds = new ArrayList<>();
+            long[] nextIds = new long[states.size()];
+            for (int cnt = 0; cnt < states.size(); cnt++) {
+                nextIds[cnt] = firstIds.get(cnt);
+                for (Map.Entry<BoardMove, BoardState> entry : allNewStates.get(cnt).entrySet()) {
+                    entries.add(entry);
+                    entryParents.add(cnt);
+                    entryIds.add(nextIds[cnt]++);
+                }
+            }
+            int numNewStates = entries.size();
+            for (int cnt = 0; cnt < states.size(); cnt++) {
+                for (Map.Entry<BoardMove, BoardState> entry : allAbsentStates.get(cnt).entrySet()) {
+                    entries.add(entry);
+                    entryParents.add(cnt);
+                    entryIds.add(nextIds[cnt]++);
+                }
+            }
+            int numUnknownStates = entries.size();
+            for (int cnt = 0; cnt < states.size(); cnt++) {
+                for (Map.Entry<BoardMove, BoardState> entry : allKnownStates.get(cnt).entrySet()) {
+                    entries.add(entry);
+                    entryParents.add(cnt);
+                    entryIds.add(entry.getValue().getId());
+                }
+            }
+
+            // Pass the resultant states in the order of their keys so that the concurrent transactions inserting
+            // overlapping sets of states wait for each other in the same order and do not deadlock.
+            long[] keys = new long[entries.size()];
+            for (int cnt = 0; cnt < entries.size(); cnt++) {
+                keys[cnt] = entries.get(cnt).getValue().getKey();
+            }
+            Integer[] order = new Integer[entries.size()];
+            Arrays.setAll(order, cnt -> cnt);
+            Arrays.sort(order, Comparator.comparingLong(cnt -> keys[cnt]));
+
+            Long[] parentIds = new Long[states.size()];
+            for (int cnt = 0; cnt < states.size(); cnt++) {
+                parentIds[cnt] = states.get(cnt).getId();
+            }
+            Integer[] parents = new Integer[entries.size()];
+            Long[] ids = new Long[entries.size()];
+            Long[] childKeys = new Long[entries.size()];
+            String[] childDescs = new String[entries.size()];
+            Boolean[] finals = new Boolean[entries.size()];
+            Boolean[] known = new Boolean[entries.size()];
+            Boolean[] absent = new Boolean[entries.size()];
+            String[] moveDescs = new String[entries.size()];
+            Short[] symmetries = new Short[entries.size()];
+            for (int cnt = 0; cnt < order.length; cnt++) {
+                Map.Entry<BoardMove, BoardState> entry = entries.get(order[cnt]);
+                // SQL arrays start at 1.
+                parents[cnt] = entryParents.get(order[cnt]) + 1;
+                known[cnt] = order[cnt] >= numUnknownStates;
+                ids[cnt] = entryIds.get(order[cnt]);
+                childKeys[cnt] = keys[order[cnt]];
+                absent[cnt] = order[cnt] >= numNewStates && !known[cnt] ||
+                              order[cnt] < numNewStates && stateFilter != null && !stateFilter.mightContain(childKeys[cnt]);
+                childDescs[cnt] = entry.getValue().getDesc();
+                finals[cnt] = entry.getValue().isFinalState();
+                moveDescs[cnt] = entry.getKey().getDesc();
+                symmetries[cnt] = (short) entry.getValue().getSymmetry();
+            }
+
+            boolean commitTran = true;
+            Long[] resultIds;
+            try {
+                expandStatesStmt.registerOutParameter(1, Types.ARRAY);
+                expandStatesStmt.setArray(2, conn.createArrayOf("bigint", parentIds));
+                expandStatesStmt.setArray(3, conn.createArrayOf("int4", parents));
+                expandStatesStmt.setArray(4, conn.createArrayOf("bigint", ids));
+                expandStatesStmt.setArray(5, conn.createArrayOf("bigint", childKeys));
+                expandStatesStmt.setArray(6, conn.createArrayOf("varchar", childDescs));
+                expandStatesStmt.setArray(7, conn.createArrayOf("boolean", finals));
+                expandStatesStmt.setArray(8, conn.createArrayOf("boolean", known));
+                expandStatesStmt.setArray(9, conn.createArrayOf("boolean", absent));
+                expandStatesStmt.setArray(10, conn.createArrayOf("varchar", moveDescs));
+                expandStatesStmt.setArray(11, conn.createArrayOf("int2", symmetries));
+                expandStatesStmt.execute();
+                resultIds = (Long[]) expandStatesStmt.getArray(1).getArray();
+            } catch (SQLException sqle) {
+                LOGGER.severe("error while expanding " + states.size() + " states starting with " +
+                              states.get(0).getDesc());
+                commitTran = false;
+                throw sqle;
+            } finally {
+                endTransaction(commitTran);
+            }
+            countCommit(states.size());
+
+            for (int cnt = 0; cnt < order.length; cnt++) {
+                entries.get(order[cnt]).getValue().setId(resultIds[cnt]);
+                if (stateFilter != null && !known[cnt]) {
+                    // A state searched in vain is inserted with the id passed for it. The filter is not consulted for
+                    // the states the caller knew to be absent.
+                    boolean filtered = order[cnt] < numNewStates;
+                    if (filtered && absent[cnt]) {
+                        numFilterNegatives.increment();
+                    } else if (filtered && resultIds[cnt].equals(ids[cnt])) {
+                        numFilterFalsePositives.increment();
+                    }
+                    stateFilter.add(childKeys[cnt]);
+                }
+            }
+        }
+
+        protected void endTransaction(boolean commit) throws SQLException {
             if (commit) {
                 conn.commit();
             } else {
@@ -263,18 +1454,38 @@ public class BoardSolverDB {
             }
 
         }
-        // Fetch new states. Mark those states are queued in the database.
+        // Fetch new states and the states whose lease expired, from the home partition first and then from the other
+        // partitions in turn. Mark those states as queued in the database, leased to this owner.
+        @Override
         public LinkedList<BoardState> readUnprocessedStates(BoardState sampleState)
                 throws IllegalStateException, SQLException {
+            recordHeldStates();
             boolean commitTran = true;
             LinkedList<BoardState> states = new LinkedList<>();
 
-            fetchNewStateStmt.setInt(1, MAX_STATES_TO_FETCH);
-            fetchNewStateStmt.setFetchSize(MAX_STATES_TO_FETCH);
-            try(ResultSet rs = fetchNewStateStmt.executeQuery()) {
-                while (rs.next()) {
-                    BoardState state = sampleState.newState(rs.getLong(1), rs.getString(2));
-                    states.add(state);
+            try {
+                for (int cnt = 0; cnt < fetchNewStateStmts.length && states.size() < MAX_STATES_TO_FETCH; cnt++) {
+                    PreparedStatement fetchNewStateStmt =
+                            fetchNewStateStmts[(homePartition + cnt) % fetchNewStateStmts.length];
+                    fetchNewStateStmt.setString(1, ownerId);
+                    fetchNewStateStmt.setLong(2, leaseMillis);
+                    fetchNewStateStmt.setInt(3, MAX_STATES_TO_FETCH - states.size());
+                    fetchNewStateStmt.setFetchSize(MAX_STATES_TO_FETCH);
+                    try (ResultSet rs = fetchNewStateStmt.executeQuery()) {
+                        while (rs.next()) {
+                            BoardState state = sampleState.newStateFromKey(rs.getLong(1), rs.getLong(2));
+                            states.add(state);
+                            // The state may have been inserted by another run or merged from the staging tables.
+                            if (stateFilter != null) {
+                                stateFilter.add(rs.getLong(2));
+                            }
+                        }
+                    }
+                }
+                // The states produced since the last fetch are in the table by now. Wake up the runs waiting for those;
+                // once per fetch is far cheaper than once per state processed.
+                if (!states.isEmpty()) {
+                    notifyOtherRuns();
                 }
             } catch (SQLException sqe) {
                 commitTran = false;
@@ -288,6 +1499,56 @@ public class BoardSolverDB {
             return states;
         }
 
+        /**
+         * The runs sharing the tables signal each other using LISTEN/NOTIFY: a run notifies after fetching states, see
+         * readUnprocessedStates(), and when it finds all the states processed. The state of the table is checked after
+         * starting to listen, so that a notification sent after the check is not missed. The wait is cut short by the
+         * given timeout, after which the states leased by the runs which died meanwhile may be fetched again.
+         */
+        @Override
+        public boolean awaitUnprocessedStates(long timeoutMillis) throws SQLException {
+            recordHeldStates();
+            boolean commitTran = true;
+            try (Statement stmt = conn.createStatement()) {
+                // LISTEN takes effect when the transaction commits.
+                stmt.execute("LISTEN " + quoteIdent(channelName));
+                conn.commit();
+
+                boolean anyFetchable;
+                boolean anyUnprocessed;
+                try (ResultSet rs = stmt.executeQuery("SELECT coalesce(bool_or(state_proc = " +
+                        quoteString(BoardProcState.NEW.toString()) + " OR lease_expiry < now()), false), count(*) > 0" +
+                        " FROM " + statesTableName + " WHERE state_proc <> " +
+                        quoteString(BoardProcState.PROCESSED.toString()))) {
+                    rs.next();
+                    anyFetchable = rs.getBoolean(1);
+                    anyUnprocessed = rs.getBoolean(2);
+                }
+
+                if (!anyUnprocessed) {
+                    // Let the runs waiting for the states know that there are none left.
+                    LOGGER.info("no state left to process by any run.");
+                    notifyOtherRuns();
+                } else if (!anyFetchable) {
+                    LOGGER.info("waiting for the states being processed by the other runs.");
+                    conn.unwrap(PGConnection.class).getNotifications((int) Math.min(timeoutMillis, Integer.MAX_VALUE));
+                }
+                stmt.execute("UNLISTEN " + quoteIdent(channelName));
+                return anyUnprocessed;
+            } catch (SQLException sqe) {
+                commitTran = false;
+                throw sqe;
+            } finally {
+                endTransaction(commitTran);
+            }
+        }
+
+        private void notifyOtherRuns() throws SQLException {
+            notifyStmt.setString(1, channelName);
+            notifyStmt.setString(2, ownerId);
+            notifyStmt.executeQuery().close();
+        }
+
         /**
          * Check if the given moves the given starting state are recorded in the database.
          * @param startingState, starting board state on which the moves i applied
@@ -315,19 +1576,188 @@ public class BoardSolverDB {
             }
         }
 
+        /**
+         * Record the results held back for a group commit, if any.
+         */
+        @Override
+        public void flush() throws SQLException {
+            recordHeldStates();
+        }
+
+        /**
+         * Return the connection to the pool. The prepared statements stay with the connection for the next user.
+         */
         @Override
         public void close() throws SQLException {
             try {
-                searchStateStmt.close();
-                insertStateStmt.close();
-                fetchNewStateStmt.close();
-                fetchQueuedStateStmt.close();
-                updateStateProcStmt.close();
-                insertMoveStmt.close();
+                recordHeldStates();
             } finally {
-                conn.close();
+                pooledConn.close();
             }
         }
     }
-}
 
+    /**
+     * Connection which buffers the results of processing states, as passed to expandStates(), in CSV form and writes
+     * those using COPY into temporary staging tables. From there the states and the moves are merged into the states
+     * and moves tables using set based statements. All the buffered states are written in a single transaction, so
+     * either all the moves of a state are recorded and it's marked processed or none of it happens.
+     *
+     * The resultant states are assigned ids only when the buffer is flushed, hence expandStates() does not update the
+     * ids of the resultant states. The buffer is flushed before any other operation, so that the operation sees
+     * everything written using this connection.
+     */
+    public class BSDCCopyConn extends BSDCConn {
+        private final int flushSize;
+        private final CopyManager copyManager;
+        private final String stagedStatesTableName = "staged_states";
+        private final String stagedMovesTableName = "staged_moves";
+        private final String stagedParentsTableName = "staged_parents";
+        private StringBuilder stagedStates = new StringBuilder();
+        private StringBuilder stagedMoves = new StringBuilder();
+        private StringBuilder stagedParents = new StringBuilder();
+        private int numStaged = 0;
+
+        public BSDCCopyConn(int flushSize) throws SQLException {
+            // The states are grouped by flushSize instead.
+            super(1, 0);
+            this.flushSize = flushSize;
+            this.copyManager = conn.unwrap(PGConnection.class).getCopyAPI();
+            try (Statement createStmt = conn.createStatement()) {
+                // The staging tables are private to the connection and are emptied at the end of every transaction. Those
+                // are created by the first BSDCCopyConn using the pooled connection.
+                createStmt.executeUpdate("CREATE TEMPORARY TABLE IF NOT EXISTS " + stagedStatesTableName +
+                        "(id BIGINT, state_key BIGINT, state_desc VARCHAR, is_final BOOLEAN) ON COMMIT DELETE ROWS");
+                createStmt.executeUpdate("CREATE TEMPORARY TABLE IF NOT EXISTS " + stagedMovesTableName +
+                        "(start_state BIGINT, move_desc VARCHAR, end_key BIGINT, symmetry SMALLINT) ON COMMIT DELETE ROWS");
+                createStmt.executeUpdate("CREATE TEMPORARY TABLE IF NOT EXISTS " + stagedParentsTableName +
+                        "(id BIGINT) ON COMMIT DELETE ROWS");
+                conn.commit();
+            }
+        }
+
+        // COPY inserts the new and the absent states alike, without searching those. The states are staged one by
+        // one, and written together when the buffer is flushed.
+        @Override
+        public void expandStates(List<BoardState> states, List<Map<BoardMove, BoardState>> allNewStates,
+                                 List<Map<BoardMove, BoardState>> allAbsentStates,
+                                 List<Map<BoardMove, BoardState>> allKnownStates, long firstId) throws SQLException {
+            allNewStates = perState(allNewStates, states.size());
+            allAbsentStates = perState(allAbsentStates, states.size());
+            allKnownStates = perState(allKnownStates, states.size());
+            long id = firstId;
+            for (int cnt = 0; cnt < states.size(); cnt++) {
+                BoardState state = states.get(cnt);
+                for (Map<BoardMove, BoardState> unknownStates : Arrays.asList(allNewStates.get(cnt),
+                                                                              allAbsentStates.get(cnt))) {
+                    for (Map.Entry<BoardMove, BoardState> entry : unknownStates.entrySet()) {
+                        BoardState newState = entry.getValue();
+                        stagedStates.append(id++).append(',').append(newState.getKey()).append(',')
+                                .append(quoteCSV(newState.getDesc())).append(',').append(newState.isFinalState())
+                                .append('\n');
+                        stageMove(state, entry.getKey(), newState);
+                    }
+                }
+                // The known states are in the states table already, only the moves leading to those are staged.
+                for (Map.Entry<BoardMove, BoardState> entry : allKnownStates.get(cnt).entrySet()) {
+                    stageMove(state, entry.getKey(), entry.getValue());
+                }
+                stagedParents.append(state.getId()).append('\n');
+
+                if (++numStaged >= flushSize) {
+                    flush();
+                }
+            }
+        }
+
+        private void stageMove(BoardState state, BoardMove move, BoardState newState) {
+            stagedMoves.append(state.getId()).append(',').append(quoteCSV(move.getDesc())).append(',')
+                    .append(newState.getKey()).append(',').append(newState.getSymmetry()).append('\n');
+        }
+
+        @Override
+        public void flush() throws SQLException {
+            if (numStaged == 0) {
+                return;
+            }
+
+            int numStates = numStaged;
+            boolean commitTran = true;
+            try (Statement mergeStmt = conn.createStatement()) {
+                copyManager.copyIn("COPY " + stagedStatesTableName + " FROM STDIN WITH (FORMAT csv)",
+                                    new StringReader(stagedStates.toString()));
+                copyManager.copyIn("COPY " + stagedMovesTableName + " FROM STDIN WITH (FORMAT csv)",
+                                    new StringReader(stagedMoves.toString()));
+                copyManager.copyIn("COPY " + stagedParentsTableName + " FROM STDIN WITH (FORMAT csv)",
+                                    new StringReader(stagedParents.toString()));
+
+                // Insert the states in the order of their keys so that the concurrent transactions inserting overlapping
+                // sets of states wait for each other in the same order and do not deadlock.
+                mergeStmt.executeUpdate("INSERT INTO " + statesTableName + "(id, state_key, state_desc, state_proc, is_final)" +
+                        " SELECT DISTINCT ON (state_key) id, state_key, state_desc, " + quoteString(BoardProcState.NEW.toString()) + ", is_final" +
+                        " FROM " + stagedStatesTableName + " ORDER BY state_key ON CONFLICT DO NOTHING");
+                // A new statement sees the states inserted by the concurrent transactions which we skipped above.
+                mergeStmt.executeUpdate("INSERT INTO " + movesTableName + "(start_state, move_desc, end_state, symmetry)" +
+                        " SELECT m.start_state, m.move_desc, s.id, m.symmetry FROM " + stagedMovesTableName + " m JOIN " +
+                        statesTableName + " s ON s.state_key = m.end_key ON CONFLICT DO NOTHING");
+                mergeStmt.executeUpdate("UPDATE " + statesTableName + " SET state_proc = " +
+                        quoteString(BoardProcState.PROCESSED.toString()) +
+                        " WHERE id IN (SELECT id FROM " + stagedParentsTableName + ")");
+            } catch (SQLException | IOException e) {
+                LOGGER.severe("error while writing " + numStaged + " processed states: " + e.getMessage());
+                commitTran = false;
+                throw e instanceof SQLException ? (SQLException) e : new SQLException(e);
+            } finally {
+                endTransaction(commitTran);
+                stagedStates = new StringBuilder();
+                stagedMoves = new StringBuilder();
+                stagedParents = new StringBuilder();
+                numStaged = 0;
+            }
+            countCommit(numStates);
+        }
+
+        @Override
+        public void searchAndInsertState(BoardState state, long id) throws SQLException {
+            flush();
+            super.searchAndInsertState(state, id);
+        }
+
+        @Override
+        public void searchAndInsertStates(List<BoardState> states, long[] ids) throws SQLException {
+            flush();
+            super.searchAndInsertStates(states, ids);
+        }
+
+        @Override
+        public void addMoves(BoardState state, Map<BoardMove, BoardState> newStates) throws SQLException {
+            flush();
+            super.addMoves(state, newStates);
+        }
+
+        @Override
+        public LinkedList<BoardState> readUnprocessedStates(BoardState sampleState) throws SQLException {
+            flush();
+            return super.readUnprocessedStates(sampleState);
+        }
+
+        @Override
+        public boolean awaitUnprocessedStates(long timeoutMillis) throws SQLException {
+            flush();
+            return super.awaitUnprocessedStates(timeoutMillis);
+        }
+
+        @Override
+        public void close() throws SQLException {
+            try {
+                flush();
+            } finally {
+                super.close();
+            }
+        }
+
+        private String quoteCSV(String str) {
+            return '"' + str.replace("\"", "\"\"") + '"';
+        }
+    }
+}
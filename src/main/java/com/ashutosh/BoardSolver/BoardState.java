@@ -20,6 +20,110 @@ public interface BoardState {
      */
     long getId();
 
+    /**
+     * Record the identifier assigned to this state by the store holding it.
+     * @param id identifier of the state
+     */
+    void setId(long id);
+
+    /**
+     * @return a 64 bit value which identifies the state of the board uniquely, irrespective of the id assigned to it.
+     * Two states are equal if and only if their keys are equal.
+     */
+    long getKey();
+
+    /**
+     * States which are symmetric to each other, e.g. rotations or reflections of the board, have the same canonical key.
+     * The solver records only the canonical state of every set of symmetric states. Games without symmetries need not
+     * override this.
+     * @return key of the canonical state, see canonicalize()
+     */
+    default long canonicalKey() {
+        return getKey();
+    }
+
+    /**
+     * @return the canonical state among the states symmetric to this state. Its getSymmetry() returns the symmetry
+     * which transforms it back to this state.
+     */
+    default BoardState canonicalize() {
+        return this;
+    }
+
+    /**
+     * @return for a state returned by canonicalize(), the symmetry which transforms it to the state it was
+     * canonicalized from. 0, the identity, for any other state.
+     */
+    default int getSymmetry() {
+        return 0;
+    }
+
+    /**
+     * @return the state resulting from transforming this state by the given symmetry
+     */
+    default BoardState transform(int symmetry) {
+        checkIdentity(symmetry);
+        return this;
+    }
+
+    /**
+     * If a move leads from state s1 to state s2, the transformed move leads from s1 transformed by the given symmetry to
+     * s2 transformed by it.
+     * @return description of the given move transformed by the given symmetry
+     */
+    default String transformMove(String moveDesc, int symmetry) {
+        checkIdentity(symmetry);
+        return moveDesc;
+    }
+
+    /**
+     * @return the symmetry equivalent to transforming by the inner symmetry followed by the outer symmetry
+     */
+    default int composeSymmetries(int outer, int inner) {
+        checkIdentity(outer);
+        checkIdentity(inner);
+        return 0;
+    }
+
+    /**
+     * Games whose states have levels, see getLevel(), should override this.
+     * @return true if the states have levels
+     */
+    default boolean hasLevels() {
+        return false;
+    }
+
+    /**
+     * Games in which every move leads to a state at a lower level, e.g. BrainVitae where every move removes a peg, can
+     * be solved level by level, see BoardSolver.solveByLevels(). Other games need not override this.
+     * @return level of the state, higher than the level of every state resulting from a move on it
+     */
+    default int getLevel() {
+        throw new UnsupportedOperationException("states of " + getClass().getSimpleName() + " do not have levels");
+    }
+
+    /**
+     * Games which can be explored backwards from the final states, and whose every move leads to the next lower level,
+     * can be solved by BidirectionalBoardSolver. Other games need not override this.
+     * @return all the states from which a move leads to this state
+     */
+    default List<BoardState> getPreviousStates() {
+        throw new UnsupportedOperationException("states of " + getClass().getSimpleName() + " can not be reversed");
+    }
+
+    /**
+     * @return all the final states of the board this state is on, see getPreviousStates()
+     */
+    default List<BoardState> getFinalStates() {
+        throw new UnsupportedOperationException("final states of " + getClass().getSimpleName() + " are not known");
+    }
+
+    private static void checkIdentity(int symmetry) {
+        if (symmetry != 0) {
+            throw new IllegalArgumentException("state does not have symmetry " + symmetry);
+        }
+    }
+
     /**
      * @return string description of the state.
      */
@@ -33,6 +137,14 @@ public interface BoardState {
      */
     BoardState newState(long id, String stateDesc);
 
+    /**
+     * Construct an object of a derived BoardState class from the given key. This is inverse of getKey().
+     * @param id, id of the state
+     * @param key, key of the state
+     * @return BoardState with the given key
+     */
+    BoardState newStateFromKey(long id, long key);
+
     /**
      * Is the given state the final board state indicating a successful game?
      * @return
@@ -0,0 +1,328 @@
+package com.ashutosh.BoardSolver;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Pool of JDBC connections to a database. Every connection caches the statements prepared on it, so that those are
+ * prepared only once in the lifetime of the connection and not every time it's leased.
+ *
+ * At most maxSize connections are open at a time. A connection which is idle for longer than maxIdleMillis is closed
+ * when the pool is used next. A connection which is idle for longer than VALIDATION_INTERVAL_MILLIS is validated before
+ * it's leased. A connection is returned to the pool by closing it; any transaction left open is rolled back and the
+ * connection is put back in auto commit mode.
+ */
+class DBConnPool implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(DBConnPool.class.getName());
+    private static final long VALIDATION_INTERVAL_MILLIS = 5000;
+    private static final int VALIDATION_TIMEOUT_SECS = 5;
+    private static final long LEASE_TIMEOUT_MILLIS = 60000;
+
+    private final String dbUrl;
+    private final String dbUser;
+    private final String dbPassword;
+    private final int maxSize;
+    private final long maxIdleMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    // Most recently released connection first, so that the connections at the end are the ones idle for the longest.
+    private final ArrayDeque<PooledConn> idleConns = new ArrayDeque<>();
+    // Number of connections open or being opened, including the idle ones.
+    private int numConns = 0;
+    private boolean closed = false;
+
+    DBConnPool(String dbUrl, String dbUser, String dbPassword, int maxSize, long maxIdleMillis) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("expected positive pool size, but got " + maxSize);
+        }
+        this.dbUrl = dbUrl;
+        this.dbUser = dbUser;
+        this.dbPassword = dbPassword;
+        this.maxSize = maxSize;
+        this.maxIdleMillis = maxIdleMillis;
+    }
+
+    /**
+     * Lease a connection, opening one if none is idle and the pool is not full. Otherwise wait till a connection is
+     * returned.
+     * @return connection to be returned by closing it
+     * @throws SQLException if a connection can not be opened or none is returned for LEASE_TIMEOUT_MILLIS
+     */
+    PooledConn lease() throws SQLException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LEASE_TIMEOUT_MILLIS);
+        while (true) {
+            PooledConn idleConn = null;
+            List<PooledConn> expiredConns = null;
+            lock.lock();
+            try {
+                if (closed) {
+                    throw new IllegalStateException("connection pool is closed.");
+                }
+                expiredConns = removeExpiredConns();
+                while (idleConns.isEmpty() && numConns >= maxSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        throw new SQLException("timed out waiting for one of the " + maxSize + " connections.");
+                    }
+                    try {
+                        released.awaitNanos(remaining);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("interrupted while waiting for a connection.", ie);
+                    }
+                    if (closed) {
+                        throw new IllegalStateException("connection pool is closed.");
+                    }
+                }
+
+                if (!idleConns.isEmpty()) {
+                    idleConn = idleConns.pop();
+                } else {
+                    // Reserve a slot for the connection and open it outside the lock.
+                    numConns++;
+                }
+            } finally {
+                lock.unlock();
+                // Closing a connection takes a trip to the database, do not hold up the others meanwhile.
+                if (expiredConns != null) {
+                    for (PooledConn expiredConn : expiredConns) {
+                        closeQuietly(expiredConn);
+                    }
+                }
+            }
+
+            if (idleConn == null) {
+                PooledConn newConn = open();
+                newConn.leased = true;
+                return newConn;
+            }
+            if (System.currentTimeMillis() - idleConn.lastReleased < VALIDATION_INTERVAL_MILLIS ||
+                    isValid(idleConn)) {
+                idleConn.leased = true;
+                return idleConn;
+            }
+            LOGGER.info("discarding invalid connection.");
+            discard(idleConn);
+        }
+    }
+
+    private PooledConn open() throws SQLException {
+        try {
+            return new PooledConn(DriverManager.getConnection(dbUrl, dbUser, dbPassword));
+        } catch (SQLException | RuntimeException e) {
+            forget();
+            throw e;
+        }
+    }
+
+    private boolean isValid(PooledConn pooledConn) {
+        try {
+            return pooledConn.conn.isValid(VALIDATION_TIMEOUT_SECS);
+        } catch (SQLException sqle) {
+            return false;
+        }
+    }
+
+    private void release(PooledConn pooledConn) {
+        // Leave the connection in the state it was opened in.
+        try {
+            if (pooledConn.conn.isClosed()) {
+                forget();
+                return;
+            }
+            if (!pooledConn.conn.getAutoCommit()) {
+                pooledConn.conn.rollback();
+                pooledConn.conn.setAutoCommit(true);
+            }
+        } catch (SQLException sqle) {
+            LOGGER.warning("discarding connection which could not be reset: " + sqle.getMessage());
+            discard(pooledConn);
+            return;
+        }
+
+        boolean closeConn;
+        lock.lock();
+        try {
+            closeConn = closed;
+            if (!closed) {
+                pooledConn.lastReleased = System.currentTimeMillis();
+                idleConns.push(pooledConn);
+                released.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (closeConn) {
+            discard(pooledConn);
+        }
+    }
+
+    // Close the given connection, which is not idle, and free its slot.
+    private void discard(PooledConn pooledConn) {
+        closeQuietly(pooledConn);
+        forget();
+    }
+
+    private void forget() {
+        lock.lock();
+        try {
+            numConns--;
+            released.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Remove the connections idle for longer than maxIdleMillis from the pool and return those, to be closed by the
+    // caller after releasing the lock. Should be called with the lock held.
+    private List<PooledConn> removeExpiredConns() {
+        List<PooledConn> expiredConns = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        while (!idleConns.isEmpty() && now - idleConns.peekLast().lastReleased > maxIdleMillis) {
+            expiredConns.add(idleConns.removeLast());
+            numConns--;
+        }
+        if (!expiredConns.isEmpty()) {
+            released.signalAll();
+        }
+        return expiredConns;
+    }
+
+    /**
+     * Close all the idle connections, for example when the statements cached by those may not be valid anymore.
+     */
+    void clear() {
+        List<PooledConn> toClose;
+        lock.lock();
+        try {
+            toClose = new ArrayList<>(idleConns);
+            numConns = numConns - idleConns.size();
+            idleConns.clear();
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (PooledConn pooledConn : toClose) {
+            closeQuietly(pooledConn);
+        }
+    }
+
+    int getNumConns() {
+        lock.lock();
+        try {
+            return numConns;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getNumIdleConns() {
+        lock.lock();
+        try {
+            return idleConns.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Close all the idle connections. Connections leased at this time are closed when returned.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        clear();
+    }
+
+    private static void closeQuietly(PooledConn pooledConn) {
+        try {
+            pooledConn.closeConn();
+        } catch (SQLException sqle) {
+            LOGGER.warning("could not close connection: " + sqle.getMessage());
+        }
+    }
+
+    /**
+     * A connection leased from the pool along with the statements prepared on it.
+     */
+    class PooledConn implements AutoCloseable {
+        private final Connection conn;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+        private long lastReleased;
+        private boolean leased = false;
+
+        private PooledConn(Connection conn) {
+            this.conn = conn;
+        }
+
+        Connection getConnection() {
+            return conn;
+        }
+
+        /**
+         * @return statement prepared for the given SQL on this connection, prepared only if not already cached.
+         */
+        PreparedStatement prepareStatement(String sql) throws SQLException {
+            PreparedStatement stmt = statements.get(sql);
+            if (stmt == null) {
+                stmt = conn.prepareStatement(sql);
+                statements.put(sql, stmt);
+            }
+            return stmt;
+        }
+
+        /**
+         * @return callable statement prepared for the given SQL on this connection, prepared only if not already cached.
+         */
+        CallableStatement prepareCall(String sql) throws SQLException {
+            PreparedStatement stmt = statements.get(sql);
+            if (stmt == null) {
+                stmt = conn.prepareCall(sql);
+                statements.put(sql, stmt);
+            }
+            return (CallableStatement) stmt;
+        }
+
+        /**
+         * Return the connection to the pool. Closing a connection which is already returned does nothing.
+         */
+        @Override
+        public void close() {
+            if (leased) {
+                leased = false;
+                release(this);
+            }
+        }
+
+        private void closeConn() throws SQLException {
+            try {
+                for (Iterator<PreparedStatement> it = statements.values().iterator(); it.hasNext(); ) {
+                    it.next().close();
+                    it.remove();
+                }
+            } finally {
+                conn.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.ashutosh.BoardSolver;
+
+import com.ashutosh.utils.LongLongHashMap;
+
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Solver which finds a single solution, exploring the states depth first in memory and stopping at the first final state
+ * reached. Unlike BoardSolver, which explores all the states reachable from the initial state before finding the
+ * solutions, it explores only the states needed to find one solution. No store is used.
+ *
+ * The canonical keys of the states proven dead, i.e. the states from which no final state can be reached, are
+ * remembered, so that a dead state reached again through another sequence of moves, or a state symmetric to it, is not
+ * explored again. Since the search stops at the first final state, every state explored and left is dead.
+ */
+public class DepthFirstBoardSolver {
+    private static final Logger LOGGER = Logger.getLogger(DepthFirstBoardSolver.class.getName());
+    private static final String MOVES_SEP = "->";
+
+    private final BoardState initialState;
+    private final LongLongHashMap deadKeys;
+    private long numStates = 0;
+
+    /**
+     * @param initialState the state to find a solution for
+     * @param expectedDeadStates expected number of dead states explored, used to size the table of dead states
+     */
+    public DepthFirstBoardSolver(BoardState initialState, int expectedDeadStates) {
+        this.initialState = initialState;
+        this.deadKeys = new LongLongHashMap(expectedDeadStates);
+    }
+
+    /**
+     * @return the moves, separated by "->", leading from the initial state to a final state and the final state those
+     * lead to, in the same form as SolutionStore.findSolutions() returns solutions. null if there is no solution.
+     */
+    public Map.Entry<String, BoardState> findAnySolution() {
+        Deque<String> movesPath = new ArrayDeque<>();
+        BoardState finalState = null;
+        numStates = 0;
+        for (BoardMove move : initialState.getPossibleMoves()) {
+            movesPath.addLast(move.getDesc());
+            finalState = findFinalState(initialState.apply(move), movesPath);
+            if (finalState != null) {
+                break;
+            }
+            movesPath.removeLast();
+        }
+        LOGGER.info("Explored " + numStates + " states, " + deadKeys.size() + " of those dead.");
+
+        if (finalState == null) {
+            return null;
+        }
+        return new AbstractMap.SimpleImmutableEntry<>(String.join(MOVES_SEP, movesPath), finalState);
+    }
+
+    /**
+     * @return number of states explored by the last findAnySolution(), counting a state every time it's reached
+     */
+    public long getNumStates() {
+        return numStates;
+    }
+
+    // Returns the first final state reachable from the given state, leaving the moves leading to it in the given path.
+    // Returns null, leaving the path as it was, if the state is dead. The recursion is as deep as the longest game.
+    private BoardState findFinalState(BoardState state, Deque<String> movesPath) {
+        numStates++;
+        if (state.isFinalState()) {
+            return state;
+        }
+
+        long key = state.canonicalKey();
+        if (deadKeys.containsKey(key)) {
+            return null;
+        }
+
+        for (BoardMove move : state.getPossibleMoves()) {
+            movesPath.addLast(move.getDesc());
+            BoardState finalState = findFinalState(state.apply(move), movesPath);
+            if (finalState != null) {
+                return finalState;
+            }
+            movesPath.removeLast();
+        }
+        deadKeys.put(key, 0);
+        return null;
+    }
+}
@@ -0,0 +1,725 @@
+package com.ashutosh.BoardSolver;
+
+import com.ashutosh.utils.LongLongHashMap;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Store keeping the states and the moves in files in a directory, for the runs which need those to be durable on the
+ * local disk but not a database server. The store outlives a run: a store opened on the directory of an earlier run
+ * has the states and the moves recorded by that run, see BoardSolver.resume().
+ *
+ * The states are kept in a log-structured store. The states inserted, as well as those marked processed, go to a table
+ * in memory, the memtable, which is written to a segment sorted by the keys of the states, see StateSegment, once it's
+ * full. A state is looked up in the memtable first and then in the segments, newest first, so that a newer version of
+ * a state overrides the older ones. When there are more than MAX_SEGMENTS segments, a background thread merges those
+ * into one, so that a lookup visits only a few segments. Every state inserted is also appended to the frontier, a
+ * persistent queue of the states in the order those are inserted, see StateQueueFile, from which the states are fetched
+ * for processing. All the moves from a state are appended to the move file of its level, if the states have levels,
+ * as a single record, see MoveLog.
+ *
+ * Every state is saved as its key and a value which packs its id, whether it's final and whether it's processed as
+ * id << ID_SHIFT | FINAL_BIT | PROCESSED_BIT. A state not processed is queued if it's before the next state to fetch in
+ * the frontier.
+ *
+ * The writes go through FileChannel and are synced in batches, once every few states processed, see
+ * setSyncBatchSize(), before the memtable is written to a segment and when the store is closed. The frontier and the
+ * move files double as the log of the memtable: the manifest records how much of those the segments cover, and the rest
+ * is replayed into the memtable when the store is opened. The records of the moves are written only after the frontier
+ * is synced, so a move never survives a crash without the states it refers to, and a state is marked processed in a
+ * segment only after its moves are synced. Thus after a crash, every state is recorded either with all its moves or as
+ * not processed, and those not processed are fetched again.
+ *
+ * Only one run at a time may use the store. Every operation takes the lock on the store; the connections only forward
+ * the operations to the store.
+ */
+public class FileStateStore implements SolutionStore, AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(FileStateStore.class.getName());
+    private static final int MAX_STATES_TO_FETCH = 10000;
+    private static final int DEFAULT_MEMTABLE_SIZE = 1 << 20;
+    private static final int DEFAULT_SYNC_BATCH_SIZE = 10000;
+    private static final int MAX_SEGMENTS = 4;
+    // The moves buffered by a move file are synced once those take this many bytes, irrespective of the batch size.
+    private static final int MAX_BUFFERED_MOVE_BYTES = 1 << 24;
+    private static final long PROCESSED_BIT = 0x1;
+    private static final long FINAL_BIT = 0x2;
+    private static final int ID_SHIFT = 2;
+    private static final long MAX_ID = Long.MAX_VALUE >>> ID_SHIFT;
+    private static final String MOVES_SEP = "->";
+    private static final String MANIFEST_FILE_NAME = "MANIFEST";
+    private static final String FRONTIER_FILE_NAME = "frontier.q";
+    private static final String SEGMENT_FILE_PREFIX = "states-";
+    private static final String SEGMENT_FILE_SUFFIX = ".seg";
+    private static final String MOVES_FILE_PREFIX = "moves";
+    private static final String MOVES_FILE_SUFFIX = ".log";
+
+    private final Path dir;
+    private final StateQueueFile frontier;
+    // The keys in the memtable are also kept in the order those were added, so that those can be sorted when the
+    // memtable is written to a segment.
+    private final LongLongHashMap memtable = new LongLongHashMap();
+    private long[] memtableKeys = new long[1024];
+    // Segments, newest first. The list is replaced, never modified, so that the segments being merged can be read
+    // without the lock.
+    private List<StateSegment> segments = Collections.emptyList();
+    private int nextSegmentNum = 0;
+    // Move files by their names, and whether the states have levels, null till the first state is processed.
+    private final Map<String, MoveLog> moveLogs = new HashMap<>();
+    private Boolean hasLevels = null;
+    private int memtableSize = DEFAULT_MEMTABLE_SIZE;
+    private int syncBatchSize = DEFAULT_SYNC_BATCH_SIZE;
+    private long numUnsynced = 0;
+    private long numSyncs = 0;
+    // Position in the frontier of the next state to fetch. The states before recheckBefore may have been processed
+    // after being fetched earlier, e.g. by an earlier run, and are skipped if so. All the states before processedPrefix
+    // are processed.
+    private long nextToQueue;
+    private long recheckBefore;
+    private long processedPrefix;
+    private long maxId = -1;
+    // What the manifest records: the parts of the frontier and the move files which the segments cover, and the
+    // processed prefix and the largest id as of the last time everything was synced.
+    private long coveredFrontier = 0;
+    private final Map<String, Long> coveredMoves = new HashMap<>();
+    private long durableProcessedPrefix = 0;
+    private long durableMaxId = -1;
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "State segment compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private boolean compacting = false;
+    private boolean closed = false;
+
+    /**
+     * Open the store in the given directory, creating the directory and the store if those do not exist.
+     */
+    public FileStateStore(Path dir) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        this.frontier = new StateQueueFile(dir.resolve(FRONTIER_FILE_NAME));
+        try {
+            recover();
+        } catch (IOException | RuntimeException e) {
+            closeFiles();
+            throw e;
+        }
+    }
+
+    /**
+     * Write the memtable to a segment once it has the given number of states. A larger memtable takes more memory but
+     * writes fewer segments, and leaves more to replay when the store is opened again.
+     */
+    public synchronized void setMemtableSize(int memtableSize) {
+        if (memtableSize < 1) {
+            throw new IllegalArgumentException("invalid memtable size " + memtableSize);
+        }
+        this.memtableSize = memtableSize;
+    }
+
+    /**
+     * Sync the files once the given number of states are processed since the last sync, so that a crash loses at most
+     * that many processed states, which are processed again.
+     */
+    public synchronized void setSyncBatchSize(int syncBatchSize) {
+        if (syncBatchSize < 1) {
+            throw new IllegalArgumentException("invalid sync batch size " + syncBatchSize);
+        }
+        this.syncBatchSize = syncBatchSize;
+    }
+
+    @Override
+    public FSSConn getConnection() {
+        return new FSSConn();
+    }
+
+    /**
+     * @return number of states in the store
+     */
+    public synchronized long getNumStates() {
+        return frontier.size();
+    }
+
+    /**
+     * @return number of times the files were synced
+     */
+    public synchronized long getNumSyncs() {
+        return numSyncs;
+    }
+
+    synchronized int getNumSegments() {
+        return segments.size();
+    }
+
+    // Waits till the segments being merged, if any, are merged.
+    synchronized void awaitCompaction() throws InterruptedException {
+        while (compacting) {
+            wait();
+        }
+    }
+
+    @Override
+    public synchronized long getNextId() {
+        return maxId + 1;
+    }
+
+    /**
+     * Make the states fetched for processing earlier, but not processed, available for fetching again. The states are
+     * fetched again in the order those were inserted.
+     */
+    @Override
+    public synchronized long reclaimQueuedStates() throws SQLException {
+        try {
+            checkOpen();
+            advanceProcessedPrefix();
+            long numReclaimed = 0;
+            long[] keys = new long[MAX_STATES_TO_FETCH];
+            long[] values = new long[MAX_STATES_TO_FETCH];
+            for (long pos = processedPrefix; pos < nextToQueue; pos = pos + MAX_STATES_TO_FETCH) {
+                int count = (int) Math.min(MAX_STATES_TO_FETCH, nextToQueue - pos);
+                frontier.read(pos, count, keys, values);
+                for (int cnt = 0; cnt < count; cnt++) {
+                    if ((getValue(keys[cnt]) & PROCESSED_BIT) == 0) {
+                        numReclaimed++;
+                    }
+                }
+            }
+            recheckBefore = Math.max(recheckBefore, nextToQueue);
+            nextToQueue = processedPrefix;
+            LOGGER.info("reclaimed " + numReclaimed + " states queued earlier.");
+            return numReclaimed;
+        } catch (IOException ioe) {
+            throw new SQLException("could not reclaim the queued states", ioe);
+        }
+    }
+
+    /**
+     * Make all the states and the moves recorded so far durable.
+     */
+    public synchronized void sync() throws IOException {
+        checkOpen();
+        // The frontier goes first, so that the states the moves refer to are durable before the moves.
+        frontier.sync();
+        for (MoveLog moveLog : moveLogs.values()) {
+            moveLog.sync();
+        }
+        numUnsynced = 0;
+        numSyncs++;
+    }
+
+    // Replay the frontier and the move files beyond what the segments listed in the manifest cover into the memtable.
+    private void recover() throws IOException {
+        List<StateSegment> recoveredSegments = new ArrayList<>();
+        segments = Collections.unmodifiableList(recoveredSegments);
+        Path manifestFile = dir.resolve(MANIFEST_FILE_NAME);
+        if (Files.exists(manifestFile)) {
+            for (String line : Files.readAllLines(manifestFile, StandardCharsets.UTF_8)) {
+                String[] fields = line.split(" ");
+                switch (fields[0]) {
+                    case "nextSegment":
+                        nextSegmentNum = Integer.parseInt(fields[1]);
+                        break;
+                    case "frontier":
+                        coveredFrontier = Long.parseLong(fields[1]);
+                        break;
+                    case "processedPrefix":
+                        processedPrefix = Long.parseLong(fields[1]);
+                        break;
+                    case "maxId":
+                        maxId = Long.parseLong(fields[1]);
+                        break;
+                    case "segment":
+                        recoveredSegments.add(new StateSegment(dir.resolve(fields[1])));
+                        break;
+                    case "moves":
+                        coveredMoves.put(fields[1], Long.parseLong(fields[2]));
+                        break;
+                    default:
+                        throw new IllegalStateException("invalid line in " + manifestFile + ": " + line);
+                }
+            }
+        }
+
+        // The segments not in the manifest were being written or merged, or were merged already, when the store
+        // was closed.
+        try (DirectoryStream<Path> segmentFiles = Files.newDirectoryStream(dir, SEGMENT_FILE_PREFIX + "*")) {
+            for (Path segmentFile : segmentFiles) {
+                if (recoveredSegments.stream().noneMatch(segment -> segment.getFile().equals(segmentFile))) {
+                    Files.delete(segmentFile);
+                }
+            }
+        }
+
+        long[] keys = new long[MAX_STATES_TO_FETCH];
+        long[] values = new long[MAX_STATES_TO_FETCH];
+        for (long pos = coveredFrontier; pos < frontier.size(); pos = pos + MAX_STATES_TO_FETCH) {
+            int count = (int) Math.min(MAX_STATES_TO_FETCH, frontier.size() - pos);
+            frontier.read(pos, count, keys, values);
+            for (int cnt = 0; cnt < count; cnt++) {
+                putMemtable(keys[cnt], values[cnt]);
+                maxId = Math.max(maxId, values[cnt] >>> ID_SHIFT);
+            }
+        }
+
+        try (DirectoryStream<Path> moveFiles = Files.newDirectoryStream(dir,
+                                                    MOVES_FILE_PREFIX + "*" + MOVES_FILE_SUFFIX)) {
+            for (Path moveFile : moveFiles) {
+                String fileName = moveFile.getFileName().toString();
+                MoveLog moveLog = new MoveLog(moveFile);
+                moveLogs.put(fileName, moveLog);
+                hasLevels = !fileName.equals(MOVES_FILE_PREFIX + MOVES_FILE_SUFFIX);
+                moveLog.recover(coveredMoves.getOrDefault(fileName, 0L),
+                                (startId, startKey, endIds, endKeys, symmetries, moveDescs) -> {
+                    long value = getValue(startKey);
+                    if (value == StateSegment.NOT_FOUND) {
+                        throw new IllegalStateException("state with key " + startKey + " in " + moveFile +
+                                                        " is not in the store.");
+                    }
+                    putMemtable(startKey, value | PROCESSED_BIT);
+                });
+            }
+        }
+
+        durableProcessedPrefix = processedPrefix;
+        durableMaxId = maxId;
+        nextToQueue = processedPrefix;
+        recheckBefore = frontier.size();
+        LOGGER.info("opened store in " + dir + " with " + frontier.size() + " states, " + segments.size() +
+                    " segments and " + memtable.size() + " states replayed.");
+        maybeWriteMemtable();
+    }
+
+    // Returns the value of the state with the given key, NOT_FOUND if there's no such state.
+    private long getValue(long key) {
+        long value = memtable.getOrDefault(key, StateSegment.NOT_FOUND);
+        if (value != StateSegment.NOT_FOUND) {
+            return value;
+        }
+        for (StateSegment segment : segments) {
+            value = segment.get(key);
+            if (value != StateSegment.NOT_FOUND) {
+                return value;
+            }
+        }
+        return StateSegment.NOT_FOUND;
+    }
+
+    private void putMemtable(long key, long value) {
+        if (!memtable.containsKey(key)) {
+            if (memtable.size() == memtableKeys.length) {
+                memtableKeys = Arrays.copyOf(memtableKeys, memtableKeys.length * 2);
+            }
+            memtableKeys[memtable.size()] = key;
+        }
+        memtable.put(key, value);
+    }
+
+    // Write the memtable to a new segment if it's full.
+    private void maybeWriteMemtable() throws IOException {
+        if (memtable.size() < memtableSize) {
+            return;
+        }
+        // A segment should not have a state, or a state marked processed, which the frontier or the move files could
+        // lose in a crash.
+        sync();
+        long[] keys = Arrays.copyOf(memtableKeys, memtable.size());
+        Arrays.sort(keys);
+        StateSegment segment;
+        try (StateSegment.Writer writer = new StateSegment.Writer(dir.resolve(getSegmentFileName(nextSegmentNum++)))) {
+            for (long key : keys) {
+                writer.add(key, memtable.getOrDefault(key, StateSegment.NOT_FOUND));
+            }
+            segment = writer.finish();
+        }
+        List<StateSegment> newSegments = new ArrayList<>(segments.size() + 1);
+        newSegments.add(segment);
+        newSegments.addAll(segments);
+        segments = Collections.unmodifiableList(newSegments);
+        memtable.clear();
+        checkpoint();
+        coveredFrontier = frontier.size();
+        for (Map.Entry<String, MoveLog> moveLog : moveLogs.entrySet()) {
+            coveredMoves.put(moveLog.getKey(), moveLog.getValue().size());
+        }
+        writeManifest();
+        maybeCompact();
+    }
+
+    private static String getSegmentFileName(int segmentNum) {
+        return SEGMENT_FILE_PREFIX + segmentNum + SEGMENT_FILE_SUFFIX;
+    }
+
+    private void maybeCompact() {
+        if (compacting || segments.size() <= MAX_SEGMENTS) {
+            return;
+        }
+        try {
+            compactor.submit(this::compact);
+            compacting = true;
+        } catch (RejectedExecutionException ree) {
+            // The store is being closed.
+        }
+    }
+
+    // Merge all the segments into one. The segments are merged without the lock; the segments written meanwhile are
+    // newer than the merged segment.
+    private void compact() {
+        List<StateSegment> toMerge;
+        Path mergedFile;
+        synchronized (this) {
+            toMerge = segments;
+            mergedFile = dir.resolve(getSegmentFileName(nextSegmentNum++));
+        }
+
+        try {
+            StateSegment merged = merge(toMerge, mergedFile);
+            synchronized (this) {
+                List<StateSegment> newSegments = new ArrayList<>(segments.subList(0, segments.size() - toMerge.size()));
+                newSegments.add(merged);
+                segments = Collections.unmodifiableList(newSegments);
+                writeManifest();
+                for (StateSegment segment : toMerge) {
+                    segment.close();
+                    Files.delete(segment.getFile());
+                }
+                LOGGER.info("merged " + toMerge.size() + " segments into one with " + merged.size() + " states.");
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.severe("could not merge the segments: " + e);
+        } finally {
+            synchronized (this) {
+                compacting = false;
+                notifyAll();
+                maybeCompact();
+            }
+        }
+    }
+
+    // Write a segment with the states in the given segments, taking every state from the newest segment having it.
+    private static StateSegment merge(List<StateSegment> segments, Path file) throws IOException {
+        long[] positions = new long[segments.size()];
+        try (StateSegment.Writer writer = new StateSegment.Writer(file)) {
+            while (true) {
+                int minSegment = -1;
+                long minKey = 0;
+                for (int cnt = 0; cnt < segments.size(); cnt++) {
+                    if (positions[cnt] < segments.get(cnt).size()) {
+                        long key = segments.get(cnt).getKey(positions[cnt]);
+                        if (minSegment < 0 || key < minKey) {
+                            minSegment = cnt;
+                            minKey = key;
+                        }
+                    }
+                }
+                if (minSegment < 0) {
+                    return writer.finish();
+                }
+                writer.add(minKey, segments.get(minSegment).getValue(positions[minSegment]));
+                for (int cnt = 0; cnt < segments.size(); cnt++) {
+                    if (positions[cnt] < segments.get(cnt).size() && segments.get(cnt).getKey(positions[cnt]) == minKey) {
+                        positions[cnt]++;
+                    }
+                }
+            }
+        }
+    }
+
+    // Note the processed prefix and the largest id to be recorded by the manifest. Called only when everything is
+    // synced, since the states before the processed prefix are never fetched again.
+    private void checkpoint() throws IOException {
+        advanceProcessedPrefix();
+        durableProcessedPrefix = processedPrefix;
+        durableMaxId = maxId;
+    }
+
+    // Record the segments and how much of the frontier and the move files those cover.
+    private void writeManifest() throws IOException {
+        StringBuilder manifest = new StringBuilder();
+        manifest.append("nextSegment ").append(nextSegmentNum).append('\n');
+        manifest.append("frontier ").append(coveredFrontier).append('\n');
+        manifest.append("processedPrefix ").append(durableProcessedPrefix).append('\n');
+        manifest.append("maxId ").append(durableMaxId).append('\n');
+        for (StateSegment segment : segments) {
+            manifest.append("segment ").append(segment.getFile().getFileName()).append('\n');
+        }
+        for (Map.Entry<String, Long> moveLog : coveredMoves.entrySet()) {
+            manifest.append("moves ").append(moveLog.getKey()).append(' ').append(moveLog.getValue()).append('\n');
+        }
+
+        // Replace the manifest atomically.
+        Path tempFile = dir.resolve(MANIFEST_FILE_NAME + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(StandardCharsets.UTF_8.encode(manifest.toString()));
+            channel.force(true);
+        }
+        Files.move(tempFile, dir.resolve(MANIFEST_FILE_NAME), StandardCopyOption.ATOMIC_MOVE,
+                   StandardCopyOption.REPLACE_EXISTING);
+        try (FileChannel dirChannel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            dirChannel.force(true);
+        }
+    }
+
+    // Move processedPrefix past the processed states fetched already.
+    private void advanceProcessedPrefix() throws IOException {
+        long[] keys = new long[MAX_STATES_TO_FETCH];
+        long[] values = new long[MAX_STATES_TO_FETCH];
+        while (processedPrefix < nextToQueue) {
+            int count = (int) Math.min(MAX_STATES_TO_FETCH, nextToQueue - processedPrefix);
+            frontier.read(processedPrefix, count, keys, values);
+            for (int cnt = 0; cnt < count; cnt++) {
+                if ((getValue(keys[cnt]) & PROCESSED_BIT) == 0) {
+                    return;
+                }
+                processedPrefix++;
+            }
+        }
+    }
+
+    private synchronized void searchAndInsertState(BoardState state, long id) throws IOException {
+        checkOpen();
+        long key = state.getKey();
+        long value = getValue(key);
+        if (value != StateSegment.NOT_FOUND) {
+            state.setId(value >>> ID_SHIFT);
+            return;
+        }
+
+        if (id < 0 || id > MAX_ID) {
+            throw new IllegalArgumentException("id " + id + " can not be saved in the store.");
+        }
+        value = id << ID_SHIFT | (state.isFinalState() ? FINAL_BIT : 0);
+        frontier.append(key, value);
+        putMemtable(key, value);
+        maxId = Math.max(maxId, id);
+        state.setId(id);
+        maybeWriteMemtable();
+    }
+
+    // The resultant states are recorded with the ids those carry, without looking those up.
+    private synchronized void addMoves(BoardState state, Map<BoardMove, BoardState> newStates) throws IOException {
+        checkOpen();
+        long key = state.getKey();
+        long value = getValue(key);
+        if (value == StateSegment.NOT_FOUND) {
+            throw new IllegalStateException("state " + state.getDesc() + " is not in the store.");
+        }
+        if ((value & PROCESSED_BIT) != 0) {
+            throw new IllegalStateException("moves for state " + state.getDesc() + " are already recorded.");
+        }
+
+        MoveLog moveLog = getMoveLog(state);
+        moveLog.append(value >>> ID_SHIFT, key, newStates);
+        putMemtable(key, value | PROCESSED_BIT);
+        numUnsynced++;
+        if (numUnsynced >= syncBatchSize || moveLog.getBufferedBytes() >= MAX_BUFFERED_MOVE_BYTES) {
+            sync();
+        }
+        maybeWriteMemtable();
+    }
+
+    private MoveLog getMoveLog(BoardState state) throws IOException {
+        if (hasLevels == null) {
+            hasLevels = state.hasLevels();
+        }
+        String fileName = hasLevels ? MOVES_FILE_PREFIX + "-" + state.getLevel() + MOVES_FILE_SUFFIX :
+                                      MOVES_FILE_PREFIX + MOVES_FILE_SUFFIX;
+        MoveLog moveLog = moveLogs.get(fileName);
+        if (moveLog == null) {
+            moveLog = new MoveLog(dir.resolve(fileName));
+            moveLogs.put(fileName, moveLog);
+        }
+        return moveLog;
+    }
+
+    private synchronized LinkedList<BoardState> readUnprocessedStates(BoardState sampleState) throws IOException {
+        checkOpen();
+        LinkedList<BoardState> result = new LinkedList<>();
+        long[] keys = new long[MAX_STATES_TO_FETCH];
+        long[] values = new long[MAX_STATES_TO_FETCH];
+        while (result.size() < MAX_STATES_TO_FETCH && nextToQueue < frontier.size()) {
+            int count = (int) Math.min(MAX_STATES_TO_FETCH - result.size(), frontier.size() - nextToQueue);
+            frontier.read(nextToQueue, count, keys, values);
+            for (int cnt = 0; cnt < count; cnt++) {
+                if (nextToQueue + cnt < recheckBefore && (getValue(keys[cnt]) & PROCESSED_BIT) != 0) {
+                    continue;
+                }
+                result.add(sampleState.newStateFromKey(values[cnt] >>> ID_SHIFT, keys[cnt]));
+            }
+            nextToQueue = nextToQueue + count;
+        }
+
+        LOGGER.info("fetched " + result.size() + " states.");
+        return result;
+    }
+
+    // All the moves from a state.
+    private static final class StateMoves {
+        private final long[] endIds;
+        private final long[] endKeys;
+        private final int[] symmetries;
+        private final String[] moveDescs;
+
+        StateMoves(long[] endIds, long[] endKeys, int[] symmetries, String[] moveDescs) {
+            this.endIds = endIds;
+            this.endKeys = endKeys;
+            this.symmetries = symmetries;
+            this.moveDescs = moveDescs;
+        }
+    }
+
+    /**
+     * Find the solutions by reading all the moves recorded into memory, hence meant for the graphs whose moves fit in
+     * memory.
+     */
+    @Override
+    public synchronized Map<String, BoardState> findSolutions(BoardState initialState) throws SQLException {
+        Map<Long, StateMoves> allMoves = new HashMap<>();
+        try {
+            // The move files have only the moves synced.
+            sync();
+            for (MoveLog moveLog : moveLogs.values()) {
+                moveLog.scan((startId, startKey, endIds, endKeys, symmetries, moveDescs) ->
+                        allMoves.put(startId, new StateMoves(endIds, endKeys, symmetries, moveDescs)));
+            }
+        } catch (IOException ioe) {
+            throw new SQLException("could not read the moves", ioe);
+        }
+
+        Map<String, BoardState> solutions = new HashMap<>();
+        BoardState canonicalState = initialState.canonicalize();
+        long value = getValue(canonicalState.getKey());
+        if (value == StateSegment.NOT_FOUND) {
+            throw new IllegalStateException("state " + canonicalState.getDesc() + " is not in the store.");
+        }
+        StateMoves stateMoves = allMoves.get(value >>> ID_SHIFT);
+        if (stateMoves == null) {
+            return solutions;
+        }
+        for (int cnt = 0; cnt < stateMoves.endIds.length; cnt++) {
+            collectSolutions(initialState.transformMove(stateMoves.moveDescs[cnt], canonicalState.getSymmetry()),
+                             initialState.newStateFromKey(stateMoves.endIds[cnt], stateMoves.endKeys[cnt]),
+                             initialState.composeSymmetries(canonicalState.getSymmetry(), stateMoves.symmetries[cnt]),
+                             allMoves, solutions);
+        }
+        return solutions;
+    }
+
+    // Add all the paths from the given state to final states to the given solutions. Every path is prefixed by the moves
+    // which lead to the given state. The moves are recorded for the canonical states, so those are transformed by the
+    // given symmetry, which transforms the given state to the actual state reached by the moves.
+    private static void collectSolutions(String movesPath, BoardState state, int symmetry,
+                                         Map<Long, StateMoves> allMoves, Map<String, BoardState> solutions) {
+        if (state.isFinalState()) {
+            solutions.put(movesPath, state.transform(symmetry));
+        }
+
+        StateMoves stateMoves = allMoves.get(state.getId());
+        if (stateMoves == null) {
+            return;
+        }
+        for (int cnt = 0; cnt < stateMoves.endIds.length; cnt++) {
+            collectSolutions(movesPath + MOVES_SEP + state.transformMove(stateMoves.moveDescs[cnt], symmetry),
+                             state.newStateFromKey(stateMoves.endIds[cnt], stateMoves.endKeys[cnt]),
+                             state.composeSymmetries(symmetry, stateMoves.symmetries[cnt]), allMoves, solutions);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("the store in " + dir + " is closed.");
+        }
+    }
+
+    /**
+     * Sync everything recorded and close the files. Waits for the segments being merged, if any.
+     */
+    @Override
+    public void close() throws IOException {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            try {
+                sync();
+                checkpoint();
+                writeManifest();
+            } finally {
+                closed = true;
+                closeFiles();
+            }
+        }
+    }
+
+    private void closeFiles() throws IOException {
+        try {
+            frontier.close();
+            for (MoveLog moveLog : moveLogs.values()) {
+                moveLog.close();
+            }
+        } finally {
+            for (StateSegment segment : segments) {
+                segment.close();
+            }
+        }
+    }
+
+    public class FSSConn implements StateStore.Conn {
+        @Override
+        public void searchAndInsertState(BoardState state, long id) throws SQLException {
+            try {
+                FileStateStore.this.searchAndInsertState(state, id);
+            } catch (IOException ioe) {
+                throw new SQLException("could not insert state " + state.getDesc(), ioe);
+            }
+        }
+
+        @Override
+        public void addMoves(BoardState state, Map<BoardMove, BoardState> newStates) throws SQLException {
+            try {
+                FileStateStore.this.addMoves(state, newStates);
+            } catch (IOException ioe) {
+                throw new SQLException("could not record the moves for state " + state.getDesc(), ioe);
+            }
+        }
+
+        @Override
+        public LinkedList<BoardState> readUnprocessedStates(BoardState sampleState) throws SQLException {
+            try {
+                return FileStateStore.this.readUnprocessedStates(sampleState);
+            } catch (IOException ioe) {
+                throw new SQLException("could not fetch the states", ioe);
+            }
+        }
+
+        @Override
+        public void close() {
+            // Nothing to release.
+        }
+    }
+}
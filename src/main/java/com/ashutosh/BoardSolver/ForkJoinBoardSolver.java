@@ -0,0 +1,110 @@
+package com.ashutosh.BoardSolver;
+
+import com.ashutosh.utils.ConcurrentLongHashSet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Solver which explores all the states reachable from the initial state in memory using a ForkJoinPool. Every worker
+ * expands states from its own deque and pushes the new resultant states back on it, stealing from the other workers
+ * when its deque runs dry. Thus there is no shared queue or feeder thread which every state has to pass through, as in
+ * BoardSolver. The states are deduplicated against a concurrent set of the canonical keys of the visited states, so
+ * states symmetric to each other are counted once. The set holds the keys as primitive longs, see ConcurrentLongHashSet,
+ * since it grows as large as the number of states reachable.
+ *
+ * Only the number of states, final states and moves are recorded. Use BoardSolver with a StateStore to record the
+ * moves and find the solutions.
+ */
+public class ForkJoinBoardSolver {
+    private static final Logger LOGGER = Logger.getLogger(ForkJoinBoardSolver.class.getName());
+
+    private final BoardState initialState;
+    private final int numThreads;
+    private final ConcurrentLongHashSet visitedKeys;
+    private final LongAdder numStates = new LongAdder();
+    private final LongAdder numFinalStates = new LongAdder();
+    private final LongAdder numMoves = new LongAdder();
+
+    /**
+     * @param numThreads parallelism of the pool used
+     * @param initialState the state to start exploring from
+     * @param expectedStates expected number of states reachable from the initial state, used to size the visited set
+     */
+    public ForkJoinBoardSolver(int numThreads, BoardState initialState, int expectedStates) {
+        if (numThreads <= 0) {
+            throw new IllegalArgumentException("expected positive number of threads, but got " + numThreads);
+        }
+        this.initialState = initialState;
+        this.numThreads = numThreads;
+        this.visitedKeys = new ConcurrentLongHashSet(expectedStates);
+    }
+
+    public void solve() {
+        if (!visit(initialState)) {
+            throw new IllegalStateException("the board is already solved.");
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            pool.invoke(new ExpandStateTask(initialState));
+        } finally {
+            pool.shutdown();
+        }
+        LOGGER.info("Board solved. Found " + getNumStates() + " states and " + getNumMoves() + " moves.");
+    }
+
+    public long getNumStates() {
+        return numStates.sum();
+    }
+
+    public long getNumFinalStates() {
+        return numFinalStates.sum();
+    }
+
+    public long getNumMoves() {
+        return numMoves.sum();
+    }
+
+    // Returns true if the given state is visited for the first time.
+    private boolean visit(BoardState state) {
+        if (!visitedKeys.add(state.canonicalKey())) {
+            return false;
+        }
+
+        numStates.increment();
+        if (state.isFinalState()) {
+            numFinalStates.increment();
+        }
+        return true;
+    }
+
+    // Expands a state and forks a task for every resultant state visited for the first time. The depth of the tasks
+    // waiting to join is bounded by the length of the longest game.
+    private class ExpandStateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final BoardState state;
+
+        ExpandStateTask(BoardState state) {
+            this.state = state;
+        }
+
+        @Override
+        protected void compute() {
+            List<BoardMove> moves = state.getPossibleMoves();
+            List<ExpandStateTask> newTasks = new ArrayList<>(moves.size());
+            for (BoardMove move : moves) {
+                BoardState newState = state.apply(move);
+                if (visit(newState)) {
+                    newTasks.add(new ExpandStateTask(newState));
+                }
+            }
+            numMoves.add(moves.size());
+            invokeAll(newTasks);
+        }
+    }
+}
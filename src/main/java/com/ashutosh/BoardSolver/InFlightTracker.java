@@ -0,0 +1,148 @@
+package com.ashutosh.BoardSolver;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Tracks the states handed over to the state processors through the states queue, which are not yet processed. The
+ * feeder uses it to wait till the state processors need more states and to detect that all the states are processed.
+ *
+ * A state is in flight from the time the feeder queues it till the state processor which processed it has made all
+ * the resultant states visible in the store (see StateStore.Conn.flush()). Thus when no state is in flight, the store
+ * has all the states produced so far.
+ */
+class InFlightTracker {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final BlockingQueue<BoardState> statesQ;
+    private final int lowWaterMark;
+    private long numInFlight = 0;
+    // Incremented every time the state processors report completion of in-flight states.
+    private long numCompletions = 0;
+    // Set when a state processor fails. The states it had taken will never complete.
+    private Exception failure = null;
+
+    /**
+     * @param statesQ the queue the states are handed over through
+     * @param lowWaterMark the feeder is woken up when the queue has these many states or fewer
+     */
+    InFlightTracker(BlockingQueue<BoardState> statesQ, int lowWaterMark) {
+        this.statesQ = statesQ;
+        this.lowWaterMark = lowWaterMark;
+    }
+
+    /**
+     * Called by the feeder before queueing the given number of states.
+     */
+    void queued(int numStates) {
+        lock.lock();
+        try {
+            numInFlight = numInFlight + numStates;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called by a state processor after the given number of states have been processed and the resultant states are
+     * visible in the store.
+     */
+    void completed(long numStates) {
+        lock.lock();
+        try {
+            numInFlight = numInFlight - numStates;
+            numCompletions++;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called by a state processor after taking states from the queue. Wakes up the feeder if the queue needs to be
+     * refilled.
+     */
+    void dequeued() {
+        if (statesQ.size() > lowWaterMark) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called by a state processor which fails to process states. Whoever is waiting on the tracker gets an exception.
+     */
+    void failed(Exception e) {
+        lock.lock();
+        try {
+            failure = e;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new IllegalStateException("state processor failed: " + failure.getMessage(), failure);
+        }
+    }
+
+    long getNumCompletions() {
+        lock.lock();
+        try {
+            return numCompletions;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isIdle() {
+        lock.lock();
+        try {
+            return numInFlight == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait till the queue drops to the low water mark or nothing is in flight.
+     */
+    void awaitDemand() throws InterruptedException {
+        lock.lock();
+        try {
+            while (statesQ.size() > lowWaterMark && numInFlight > 0) {
+                checkFailure();
+                changed.await();
+            }
+            checkFailure();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait till the state processors report a completion after the given one, returned by getNumCompletions(), or
+     * nothing is in flight.
+     */
+    void awaitCompletionAfter(long completions) throws InterruptedException {
+        lock.lock();
+        try {
+            while (numCompletions == completions && numInFlight > 0) {
+                checkFailure();
+                changed.await();
+            }
+            checkFailure();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.ashutosh.BoardSolver;
+
+import com.ashutosh.utils.LongLongHashMap;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Store keeping the states and moves in memory, thus avoiding a database trip for every state explored. States are
+ * deduplicated using their keys. If required, the graph can be persisted in a database once the board is solved.
+ */
+public class InMemoryStateStore implements SolutionStore {
+    private static final Logger LOGGER = Logger.getLogger(InMemoryStateStore.class.getName());
+    private static final int MAX_STATES_TO_FETCH = 10000;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int PERSIST_CHUNK_SIZE = 1000;
+    private static final String MOVES_SEP = "->";
+
+    // Whether to retain the states and the moves after the states are queued for processing. Those are required to find
+    // solutions or to persist the graph. Otherwise only the keys of the visited states are retained.
+    private final boolean retainGraph;
+
+    // Every state is assigned a position in the order in which it is inserted. Per state information is saved in the
+    // arrays below at that position. Since the states are processed in the same order, all the states before
+    // nextToQueue have been queued for processing.
+    private final LongLongHashMap keyToPos = new LongLongHashMap(INITIAL_CAPACITY);
+    private final ArrayList<BoardState> states = new ArrayList<>(INITIAL_CAPACITY);
+    private final BitSet finalStates = new BitSet();
+    private final BitSet processedStates = new BitSet();
+    private long[] ids = new long[INITIAL_CAPACITY];
+    private int numStates = 0;
+    private int nextToQueue = 0;
+
+    // Moves from the state at position pos are saved at [movesStart[pos], movesStart[pos] + movesCount[pos]) in
+    // moveEnds, which records the position of resultant state, moveSymmetries, which records the symmetry transforming
+    // the resultant state to the actual state the move leads to, and moveDescs.
+    private int[] movesStart = new int[INITIAL_CAPACITY];
+    private int[] movesCount = new int[INITIAL_CAPACITY];
+    private int[] moveEnds = new int[INITIAL_CAPACITY];
+    private int[] moveSymmetries = new int[INITIAL_CAPACITY];
+    private final ArrayList<String> moveDescs = new ArrayList<>();
+    private int numMoves = 0;
+
+    public InMemoryStateStore(boolean retainGraph) {
+        this.retainGraph = retainGraph;
+    }
+
+    @Override
+    public IMSSConn getConnection() {
+        return new IMSSConn();
+    }
+
+    public synchronized int getNumStates() {
+        return numStates;
+    }
+
+    public synchronized int getNumMoves() {
+        return numMoves;
+    }
+
+    private synchronized void searchAndInsertState(BoardState state, long id) {
+        long pos = keyToPos.getOrDefault(state.getKey(), -1);
+        if (pos >= 0) {
+            state.setId(ids[(int) pos]);
+            return;
+        }
+
+        if (numStates == ids.length) {
+            int newCapacity = ids.length * 2;
+            ids = Arrays.copyOf(ids, newCapacity);
+            if (retainGraph) {
+                movesStart = Arrays.copyOf(movesStart, newCapacity);
+                movesCount = Arrays.copyOf(movesCount, newCapacity);
+            }
+        }
+        keyToPos.put(state.getKey(), numStates);
+        ids[numStates] = id;
+        finalStates.set(numStates, state.isFinalState());
+        states.add(state);
+        numStates++;
+        state.setId(id);
+    }
+
+    private synchronized void addMoves(BoardState state, Map<BoardMove, BoardState> newStates) {
+        int pos = getPos(state);
+        if (processedStates.get(pos)) {
+            throw new IllegalStateException("moves for state " + state.getDesc() + " are already recorded.");
+        }
+
+        if (retainGraph) {
+            // Find all the resultant states before adding any move, so that either all or none of the moves are added.
+            int[] endPositions = new int[newStates.size()];
+            int[] symmetries = new int[newStates.size()];
+            int cnt = 0;
+            for (BoardState newState : newStates.values()) {
+                symmetries[cnt] = newState.getSymmetry();
+                endPositions[cnt++] = getPos(newState);
+            }
+
+            if (numMoves + newStates.size() > moveEnds.length) {
+                int newCapacity = Math.max(moveEnds.length * 2, numMoves + newStates.size());
+                moveEnds = Arrays.copyOf(moveEnds, newCapacity);
+                moveSymmetries = Arrays.copyOf(moveSymmetries, newCapacity);
+            }
+            movesStart[pos] = numMoves;
+            movesCount[pos] = newStates.size();
+            System.arraycopy(endPositions, 0, moveEnds, numMoves, endPositions.length);
+            System.arraycopy(symmetries, 0, moveSymmetries, numMoves, symmetries.length);
+            for (BoardMove move : newStates.keySet()) {
+                moveDescs.add(move.getDesc());
+            }
+            numMoves = numMoves + newStates.size();
+        }
+        processedStates.set(pos);
+    }
+
+    private synchronized LinkedList<BoardState> readUnprocessedStates() {
+        LinkedList<BoardState> result = new LinkedList<>();
+        while (nextToQueue < numStates && result.size() < MAX_STATES_TO_FETCH) {
+            result.add(states.get(nextToQueue));
+            if (!retainGraph) {
+                states.set(nextToQueue, null);
+            }
+            nextToQueue++;
+        }
+
+        LOGGER.info("fetched " + result.size() + " states.");
+        return result;
+    }
+
+    private int getPos(BoardState state) {
+        long pos = keyToPos.getOrDefault(state.getKey(), -1);
+        if (pos < 0) {
+            throw new IllegalStateException("state " + state.getDesc() + " is not in the store.");
+        }
+        return (int) pos;
+    }
+
+    private void checkGraphRetained() {
+        if (!retainGraph) {
+            throw new IllegalStateException("the store does not retain the states and the moves.");
+        }
+    }
+
+    @Override
+    public synchronized Map<String, BoardState> findSolutions(BoardState initialState) {
+        checkGraphRetained();
+        Map<String, BoardState> solutions = new HashMap<>();
+        BoardState canonicalState = initialState.canonicalize();
+        int initialPos = getPos(canonicalState);
+        for (int cnt = 0; cnt < movesCount[initialPos]; cnt++) {
+            int move = movesStart[initialPos] + cnt;
+            collectSolutions(initialState.transformMove(moveDescs.get(move), canonicalState.getSymmetry()),
+                                moveEnds[move],
+                                initialState.composeSymmetries(canonicalState.getSymmetry(), moveSymmetries[move]),
+                                solutions);
+        }
+        return solutions;
+    }
+
+    // Add all the paths from the state at the given position to final states to the given solutions. Every path is
+    // prefixed by the moves which lead to the given state. The moves are recorded for the canonical states, so those
+    // are transformed by the given symmetry, which transforms the state at the given position to the actual state
+    // reached by the moves.
+    private void collectSolutions(String movesPath, int pos, int symmetry, Map<String, BoardState> solutions) {
+        BoardState state = states.get(pos);
+        if (finalStates.get(pos)) {
+            solutions.put(movesPath, state.transform(symmetry));
+        }
+
+        for (int cnt = 0; cnt < movesCount[pos]; cnt++) {
+            int move = movesStart[pos] + cnt;
+            collectSolutions(movesPath + MOVES_SEP + state.transformMove(moveDescs.get(move), symmetry),
+                                moveEnds[move], state.composeSymmetries(symmetry, moveSymmetries[move]), solutions);
+        }
+    }
+
+    /**
+     * Write all the states and moves in this store to the given database. The database objects should have been created
+     * and should not have any of the states in this store. The states keep their ids in the database. The states and
+     * the moves are written PERSIST_CHUNK_SIZE states at a time, every chunk in a single trip to the database.
+     * @param db the database to write the graph to
+     * @throws SQLException
+     */
+    public synchronized void persist(BoardSolverDB db) throws SQLException {
+        checkGraphRetained();
+        try (BoardSolverDB.BSDCConn dbConn = db.getConnection()) {
+            // All the states need to be in the database before the moves refer to them.
+            for (int start = 0; start < numStates; start = start + PERSIST_CHUNK_SIZE) {
+                int end = Math.min(start + PERSIST_CHUNK_SIZE, numStates);
+                dbConn.searchAndInsertStates(states.subList(start, end), Arrays.copyOfRange(ids, start, end));
+            }
+
+            // The resultant states are known to be in the database, so only the moves are recorded and the states are
+            // marked processed.
+            List<BoardState> chunkStates = new ArrayList<>(PERSIST_CHUNK_SIZE);
+            List<Map<BoardMove, BoardState>> chunkMoves = new ArrayList<>(PERSIST_CHUNK_SIZE);
+            for (int pos = 0; pos < numStates; pos++) {
+                if (!processedStates.get(pos)) {
+                    continue;
+                }
+
+                Map<BoardMove, BoardState> newStates = new LinkedHashMap<>(movesCount[pos]);
+                for (int cnt = 0; cnt < movesCount[pos]; cnt++) {
+                    int move = movesStart[pos] + cnt;
+                    String moveDesc = moveDescs.get(move);
+                    // Pass the resultant state with the symmetry of the move.
+                    BoardState endState = states.get(moveEnds[move]);
+                    BoardState newState = endState.transform(moveSymmetries[move]).canonicalize();
+                    newState.setId(endState.getId());
+                    newStates.put(() -> moveDesc, newState);
+                }
+                chunkStates.add(states.get(pos));
+                chunkMoves.add(newStates);
+                if (chunkStates.size() == PERSIST_CHUNK_SIZE) {
+                    persistMoves(dbConn, chunkStates, chunkMoves);
+                }
+            }
+            persistMoves(dbConn, chunkStates, chunkMoves);
+        }
+        LOGGER.info("persisted " + numStates + " states and " + numMoves + " moves.");
+    }
+
+    // Record the moves from the given states, clearing the lists afterwards.
+    private static void persistMoves(BoardSolverDB.BSDCConn dbConn, List<BoardState> chunkStates,
+                                     List<Map<BoardMove, BoardState>> chunkMoves) throws SQLException {
+        if (chunkStates.isEmpty()) {
+            return;
+        }
+        dbConn.expandStates(chunkStates, Collections.emptyList(), Collections.emptyList(), chunkMoves, 0);
+        chunkStates.clear();
+        chunkMoves.clear();
+    }
+
+    public class IMSSConn implements StateStore.Conn {
+        @Override
+        public void searchAndInsertState(BoardState state, long id) {
+            InMemoryStateStore.this.searchAndInsertState(state, id);
+        }
+
+        @Override
+        public void addMoves(BoardState state, Map<BoardMove, BoardState> newStates) {
+            InMemoryStateStore.this.addMoves(state, newStates);
+        }
+
+        @Override
+        public LinkedList<BoardState> readUnprocessedStates(BoardState sampleState) {
+            return InMemoryStateStore.this.readUnprocessedStates();
+        }
+
+        @Override
+        public void close() {
+            // Nothing to release.
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.ashutosh.BoardSolver;
+
+import com.ashutosh.utils.MappedLongArray;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Store which deduplicates the states using a MappedStateTable and keeps the keys of the states yet to be processed in
+ * a MappedLongArray. Neither of those is on the Java heap, so the heap required does not grow with the number of states
+ * explored. The states are constructed from their keys when they are queued for processing.
+ *
+ * The store does not record the moves, hence can not find the solutions, see SolutionStore. It's meant for exploring
+ * all the states reachable from the initial state when those are too many to fit in the heap.
+ */
+public class MappedStateStore implements StateStore, AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(MappedStateStore.class.getName());
+    private static final int MAX_STATES_TO_FETCH = 10000;
+    private static final String TABLE_FILE_NAME = "states.tbl";
+    private static final String FRONTIER_FILE_NAME = "frontier.log";
+
+    private final MappedStateTable stateTable;
+    // Keys of the states in the order they are inserted. The states are processed in the same order, so all the states
+    // before nextToQueue have been queued for processing.
+    private final MappedLongArray frontier;
+    private long numStates = 0;
+    private long nextToQueue = 0;
+    private long numFinalStates = 0;
+
+    /**
+     * Create a store in direct byte buffers.
+     * @param maxStates maximum number of states the store can hold
+     */
+    public MappedStateStore(long maxStates) {
+        this.stateTable = new MappedStateTable(maxStates);
+        this.frontier = new MappedLongArray(maxStates);
+    }
+
+    /**
+     * Create a store in files mapped to memory. The files are created in the given directory, overwriting any existing
+     * files.
+     * @param dir directory to create the files in
+     * @param maxStates maximum number of states the store can hold
+     */
+    public MappedStateStore(Path dir, long maxStates) throws IOException {
+        this.stateTable = new MappedStateTable(dir.resolve(TABLE_FILE_NAME), maxStates);
+        this.frontier = new MappedLongArray(dir.resolve(FRONTIER_FILE_NAME), maxStates);
+    }
+
+    @Override
+    public MSSConn getConnection() {
+        return new MSSConn();
+    }
+
+    public synchronized long getNumStates() {
+        return numStates;
+    }
+
+    public synchronized long getNumFinalStates() {
+        return numFinalStates;
+    }
+
+    BoardSolverDB.BoardProcState getProcState(BoardState state) {
+        return stateTable.getProcState(state.getKey());
+    }
+
+    private synchronized void searchAndInsertState(BoardState state, long id) {
+        long key = state.getKey();
+        long existingId = stateTable.putIfAbsent(key, id, state.isFinalState());
+        if (existingId >= 0) {
+            state.setId(existingId);
+            return;
+        }
+
+        frontier.set(numStates, key);
+        numStates++;
+        if (state.isFinalState()) {
+            numFinalStates++;
+        }
+        state.setId(id);
+    }
+
+    private synchronized void addMoves(BoardState state, Map<BoardMove, BoardState> newStates) {
+        if (stateTable.getProcState(state.getKey()) == BoardSolverDB.BoardProcState.PROCESSED) {
+            throw new IllegalStateException("moves for state " + state.getDesc() + " are already recorded.");
+        }
+        for (BoardState newState : newStates.values()) {
+            if (stateTable.getId(newState.getKey()) < 0) {
+                throw new IllegalStateException("state " + newState.getDesc() + " is not in the store.");
+            }
+        }
+        stateTable.setProcState(state.getKey(), BoardSolverDB.BoardProcState.PROCESSED);
+    }
+
+    private synchronized LinkedList<BoardState> readUnprocessedStates(BoardState sampleState) {
+        LinkedList<BoardState> result = new LinkedList<>();
+        while (nextToQueue < numStates && result.size() < MAX_STATES_TO_FETCH) {
+            long key = frontier.get(nextToQueue);
+            stateTable.setProcState(key, BoardSolverDB.BoardProcState.QUEUED);
+            result.add(sampleState.newStateFromKey(stateTable.getId(key), key));
+            nextToQueue++;
+        }
+
+        LOGGER.info("fetched " + result.size() + " states.");
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            stateTable.close();
+        } finally {
+            frontier.close();
+        }
+    }
+
+    public class MSSConn implements StateStore.Conn {
+        @Override
+        public void searchAndInsertState(BoardState state, long id) {
+            MappedStateStore.this.searchAndInsertState(state, id);
+        }
+
+        @Override
+        public void addMoves(BoardState state, Map<BoardMove, BoardState> newStates) {
+            MappedStateStore.this.addMoves(state, newStates);
+        }
+
+        @Override
+        public LinkedList<BoardState> readUnprocessedStates(BoardState sampleState) {
+            return MappedStateStore.this.readUnprocessedStates(sampleState);
+        }
+
+        @Override
+        public void close() {
+            // Nothing to release.
+        }
+    }
+}
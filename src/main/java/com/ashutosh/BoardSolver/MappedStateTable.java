@@ -0,0 +1,139 @@
+package com.ashutosh.BoardSolver;
+
+import com.ashutosh.utils.LongLongHashMap;
+import com.ashutosh.utils.MappedLongArray;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Table of visited states keyed by the key of the state. The table is stored outside the Java heap, in a memory mapped
+ * file or in direct byte buffers, so that it can hold many more states than what the heap can accommodate.
+ *
+ * The table uses open addressing with linear probing. Every slot is a pair of longs: the key and the value. The value
+ * packs the id of the state, whether it's a final state and its processing state as
+ * id << ID_SHIFT | OCCUPIED_BIT | FINAL_BIT | processing state. The table can not grow beyond the number of states it's
+ * created for.
+ */
+class MappedStateTable implements AutoCloseable {
+    private static final long PROC_STATE_MASK = 0x3;
+    private static final long FINAL_BIT = 0x4;
+    // Distinguishes an occupied slot from a free one since any long, including 0, is a valid key.
+    private static final long OCCUPIED_BIT = 0x8;
+    private static final int ID_SHIFT = 4;
+    private static final long MAX_ID = Long.MAX_VALUE >>> ID_SHIFT;
+    private static final float MAX_LOAD_FACTOR = 0.7f;
+    private static final BoardSolverDB.BoardProcState[] PROC_STATES = BoardSolverDB.BoardProcState.values();
+
+    private final MappedLongArray slots;
+    private final long mask;
+    private final long maxStates;
+    private long size = 0;
+
+    /**
+     * Create a table in direct byte buffers.
+     * @param maxStates maximum number of states the table can hold
+     */
+    MappedStateTable(long maxStates) {
+        this.maxStates = maxStates;
+        long numSlots = numSlots(maxStates);
+        this.mask = numSlots - 1;
+        this.slots = new MappedLongArray(2 * numSlots);
+    }
+
+    /**
+     * Create a table mapped to the given file.
+     * @param file file to store the table in, existing contents are discarded
+     * @param maxStates maximum number of states the table can hold
+     */
+    MappedStateTable(Path file, long maxStates) throws IOException {
+        this.maxStates = maxStates;
+        long numSlots = numSlots(maxStates);
+        this.mask = numSlots - 1;
+        this.slots = new MappedLongArray(file, 2 * numSlots);
+    }
+
+    private static long numSlots(long maxStates) {
+        return Long.highestOneBit(Math.max(2, (long) Math.ceil(maxStates / MAX_LOAD_FACTOR)) * 2 - 1);
+    }
+
+    synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Insert a state with the given key and id as a NEW state, if a state with the given key is not in the table.
+     * @return -1 if the state is inserted, otherwise the id of the state with given key.
+     */
+    synchronized long putIfAbsent(long key, long id, boolean isFinal) {
+        if (id < 0 || id > MAX_ID) {
+            throw new IllegalArgumentException("id " + id + " can not be saved in the table.");
+        }
+
+        long slot = findSlot(key);
+        long value = slots.get(2 * slot + 1);
+        if (value != 0) {
+            return value >>> ID_SHIFT;
+        }
+
+        if (size >= maxStates) {
+            throw new IllegalStateException("table can not hold more than " + maxStates + " states.");
+        }
+        slots.set(2 * slot, key);
+        slots.set(2 * slot + 1, id << ID_SHIFT | OCCUPIED_BIT | (isFinal ? FINAL_BIT : 0) |
+                                BoardSolverDB.BoardProcState.NEW.ordinal());
+        size++;
+        return -1;
+    }
+
+    /**
+     * @return id of the state with the given key, -1 if there's no such state.
+     */
+    synchronized long getId(long key) {
+        long value = getValue(key);
+        return value == 0 ? -1 : value >>> ID_SHIFT;
+    }
+
+    synchronized boolean isFinal(long key) {
+        return (getExistingValue(key) & FINAL_BIT) != 0;
+    }
+
+    synchronized BoardSolverDB.BoardProcState getProcState(long key) {
+        return PROC_STATES[(int) (getExistingValue(key) & PROC_STATE_MASK)];
+    }
+
+    synchronized void setProcState(long key, BoardSolverDB.BoardProcState procState) {
+        long slot = findSlot(key);
+        long value = slots.get(2 * slot + 1);
+        if (value == 0) {
+            throw new IllegalStateException("state with key " + key + " is not in the table.");
+        }
+        slots.set(2 * slot + 1, (value & ~PROC_STATE_MASK) | procState.ordinal());
+    }
+
+    private long getValue(long key) {
+        return slots.get(2 * findSlot(key) + 1);
+    }
+
+    private long getExistingValue(long key) {
+        long value = getValue(key);
+        if (value == 0) {
+            throw new IllegalStateException("state with key " + key + " is not in the table.");
+        }
+        return value;
+    }
+
+    // Returns the slot holding the given key or the free slot where the key should be inserted.
+    private long findSlot(long key) {
+        long slot = LongLongHashMap.mix(key) & mask;
+        while (slots.get(2 * slot + 1) != 0 && slots.get(2 * slot) != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    @Override
+    public void close() throws IOException {
+        slots.close();
+    }
+}
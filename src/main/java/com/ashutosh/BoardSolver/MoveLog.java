@@ -0,0 +1,213 @@
+package com.ashutosh.BoardSolver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file of the moves from the states processed, a move file of FileStateStore. Every record holds all the
+ * moves from a state, so that those are recorded all together or not at all. A record is
+ *   length of the body (int), CRC32 of the body (int), body
+ * where the body is the id and the key of the state (long each), the number of moves (int), and for every move the id
+ * and the key of the resultant state (long each), the symmetry of the move (int) and the length (unsigned short) and
+ * the UTF-8 bytes of its description. A crash may leave a partially written record at the end of the file, which is
+ * truncated by recover().
+ *
+ * The records appended are buffered in memory and written only by sync(), so that the store can sync whatever they
+ * refer to before those reach the file. The records are read through windows of the file mapped to memory.
+ */
+class MoveLog implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(MoveLog.class.getName());
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+    private static final int MIN_BODY_BYTES = 2 * Long.BYTES + Integer.BYTES;
+    private static final int MAX_BODY_BYTES = 1 << 24;
+    private static final long MAX_WINDOW_BYTES = 1 << 30;
+    private static final int INITIAL_BUFFER_BYTES = 1 << 16;
+
+    private final Path file;
+    private final FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+    // Number of bytes written to the file, not counting those buffered.
+    private long size;
+
+    /**
+     * Consumer of the records read from the file.
+     */
+    interface RecordConsumer {
+        void accept(long startId, long startKey, long[] endIds, long[] endKeys, int[] symmetries, String[] moveDescs);
+    }
+
+    /**
+     * Open the move file, creating it if it does not exist. recover() should be called before appending to an existing
+     * file.
+     */
+    MoveLog(Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                        StandardOpenOption.WRITE);
+        this.size = channel.size();
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return number of bytes written to the file, not counting those buffered.
+     */
+    long size() {
+        return size;
+    }
+
+    int getBufferedBytes() {
+        return buffer.position();
+    }
+
+    /**
+     * Append a record of the given moves from the state with the given id and key.
+     */
+    void append(long startId, long startKey, Map<BoardMove, BoardState> newStates) {
+        byte[][] moveDescs = new byte[newStates.size()][];
+        int bodyBytes = MIN_BODY_BYTES;
+        int cnt = 0;
+        for (BoardMove move : newStates.keySet()) {
+            moveDescs[cnt] = move.getDesc().getBytes(StandardCharsets.UTF_8);
+            if (moveDescs[cnt].length > 0xffff) {
+                throw new IllegalArgumentException("description of move " + move.getDesc() + " is too long.");
+            }
+            bodyBytes = bodyBytes + 2 * Long.BYTES + Integer.BYTES + Short.BYTES + moveDescs[cnt].length;
+            cnt++;
+        }
+        if (bodyBytes > MAX_BODY_BYTES) {
+            throw new IllegalArgumentException("too many moves from the state with key " + startKey);
+        }
+
+        if (buffer.remaining() < HEADER_BYTES + bodyBytes) {
+            ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(buffer.capacity() * 2,
+                                                                buffer.position() + HEADER_BYTES + bodyBytes));
+            buffer.flip();
+            newBuffer.put(buffer);
+            buffer = newBuffer;
+        }
+        int start = buffer.position();
+        buffer.putInt(bodyBytes);
+        // The checksum is filled once the body is in place.
+        buffer.putInt(0);
+        buffer.putLong(startId);
+        buffer.putLong(startKey);
+        buffer.putInt(newStates.size());
+        cnt = 0;
+        for (BoardState newState : newStates.values()) {
+            buffer.putLong(newState.getId());
+            buffer.putLong(newState.getKey());
+            buffer.putInt(newState.getSymmetry());
+            buffer.putShort((short) moveDescs[cnt].length);
+            buffer.put(moveDescs[cnt]);
+            cnt++;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), start + HEADER_BYTES, bodyBytes);
+        buffer.putInt(start + Integer.BYTES, (int) crc.getValue());
+    }
+
+    /**
+     * Write the records buffered and make all the records durable.
+     */
+    void sync() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            size = size + channel.write(buffer, size);
+        }
+        buffer.clear();
+        channel.force(false);
+    }
+
+    /**
+     * Read the records starting at the given offset till the end of the file, truncating the file at the first record
+     * which is incomplete or corrupt, if any.
+     */
+    void recover(long from, RecordConsumer consumer) throws IOException {
+        long fileSize = channel.size();
+        long end = scan(from, fileSize, consumer);
+        if (end < fileSize) {
+            LOGGER.warning("truncating " + (fileSize - end) + " bytes of incomplete records at the end of " + file);
+            channel.truncate(end);
+            channel.force(false);
+        }
+        size = end;
+    }
+
+    /**
+     * Read the records written to the file, not counting those buffered.
+     */
+    void scan(RecordConsumer consumer) throws IOException {
+        scan(0, size, consumer);
+    }
+
+    // Read the records in [from, to) of the file. Returns the offset of the first record which is incomplete or corrupt,
+    // to if there's none.
+    private long scan(long from, long to, RecordConsumer consumer) throws IOException {
+        long offset = from;
+        while (offset < to) {
+            long windowBytes = Math.min(to - offset, MAX_WINDOW_BYTES);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, offset, windowBytes);
+            int pos = 0;
+            while (windowBytes - pos >= HEADER_BYTES) {
+                int bodyBytes = window.getInt(pos);
+                if (bodyBytes < MIN_BODY_BYTES || bodyBytes > MAX_BODY_BYTES) {
+                    return offset + pos;
+                }
+                if (pos + HEADER_BYTES + bodyBytes > windowBytes) {
+                    break;
+                }
+                ByteBuffer body = window.duplicate();
+                body.limit(pos + HEADER_BYTES + bodyBytes);
+                body.position(pos + HEADER_BYTES);
+                CRC32 crc = new CRC32();
+                crc.update(body.duplicate());
+                if ((int) crc.getValue() != window.getInt(pos + Integer.BYTES)) {
+                    return offset + pos;
+                }
+                decode(body, consumer);
+                pos = pos + HEADER_BYTES + bodyBytes;
+            }
+            // A record not fitting in a window of the largest size can only be an incomplete one at the end.
+            if (pos == 0) {
+                return offset;
+            }
+            offset = offset + pos;
+        }
+        return offset;
+    }
+
+    private static void decode(ByteBuffer body, RecordConsumer consumer) {
+        long startId = body.getLong();
+        long startKey = body.getLong();
+        int numMoves = body.getInt();
+        long[] endIds = new long[numMoves];
+        long[] endKeys = new long[numMoves];
+        int[] symmetries = new int[numMoves];
+        String[] moveDescs = new String[numMoves];
+        for (int cnt = 0; cnt < numMoves; cnt++) {
+            endIds[cnt] = body.getLong();
+            endKeys[cnt] = body.getLong();
+            symmetries[cnt] = body.getInt();
+            byte[] moveDesc = new byte[body.getShort() & 0xffff];
+            body.get(moveDesc);
+            moveDescs[cnt] = new String(moveDesc, StandardCharsets.UTF_8);
+        }
+        consumer.accept(startId, startKey, endIds, endKeys, symmetries, moveDescs);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,19 @@
+package com.ashutosh.BoardSolver;
+
+import java.sql.SQLException;
+import java.util.Map;
+
+/**
+ * Store which records the moves along with the states, hence can find the solutions once the solver is done. Stores
+ * which only deduplicate the states, e.g. MappedStateStore, implement just StateStore.
+ */
+public interface SolutionStore extends StateStore {
+
+    /**
+     * Given the starting state of the board, find the solution i.e. the sets of moves which when applied leads to the
+     * final state/s. Return all the solutions.
+     * @param initialState the state for which to find the solution.
+     * @return map of the moves, separated by "->", to the final state those lead to.
+     */
+    Map<String, BoardState> findSolutions(BoardState initialState) throws SQLException;
+}
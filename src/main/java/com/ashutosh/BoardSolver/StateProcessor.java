@@ -1,93 +1,195 @@
 package com.ashutosh.BoardSolver;
 
+import com.ashutosh.utils.LongLongCache;
+
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 public class StateProcessor extends Thread {
     private static final Logger LOGGER = Logger.getLogger(StateProcessor.class.getName());
     private BlockingQueue<BoardState> statesQ;
-    private BoardSolverDB db;
+    private StateStore store;
     private AtomicLong idCounter;
-    private AtomicBoolean waitingForNextState = new AtomicBoolean();
+    // Tracker to report the processed states to, if any.
+    private InFlightTracker tracker;
+    // Number of states processed but not yet reported to the tracker.
+    private long numUnreported = 0;
+    // Cache of the keys of the states known to be in the store mapped to their ids, shared by the state processors, if
+    // any.
+    private LongLongCache knownStates;
+    // Number of states processed together, see process(List<BoardState>, StateStore.Conn).
+    static final int NUM_STATES_PER_CHUNK = 100;
 
-    public StateProcessor(BoardSolverDB db, BlockingQueue<BoardState> statesQ, String name, AtomicLong idCounter) {
+    public StateProcessor(StateStore store, BlockingQueue<BoardState> statesQ, String name, AtomicLong idCounter) {
         super(name);
-        this.db = db;
+        this.store = store;
         this.statesQ = statesQ;
         this.idCounter = idCounter;
     }
 
-    public StateProcessor(BoardSolverDB db, AtomicLong idCounter) {
-        this.db = db;
+    public StateProcessor(StateStore store, BlockingQueue<BoardState> statesQ, String name, AtomicLong idCounter,
+                          InFlightTracker tracker) {
+        this(store, statesQ, name, idCounter);
+        this.tracker = tracker;
+    }
+
+    /**
+     * @param knownStates cache of the states known to be in the store, see expandStates(), null for none
+     */
+    public StateProcessor(StateStore store, BlockingQueue<BoardState> statesQ, String name, AtomicLong idCounter,
+                          InFlightTracker tracker, LongLongCache knownStates) {
+        this(store, statesQ, name, idCounter, tracker);
+        this.knownStates = knownStates;
+    }
+
+    public StateProcessor(StateStore store, AtomicLong idCounter) {
+        this.store = store;
         this.idCounter = idCounter;
     }
 
-    boolean isWaitingForNextState() {
-        // There is a small time window when thread is not waiting waitingForNextState is true. So check the actual
-        // state of thread as well.
-        return waitingForNextState.get() && !getState().equals(State.RUNNABLE);
+    public StateProcessor(StateStore store, AtomicLong idCounter, LongLongCache knownStates) {
+        this(store, idCounter);
+        this.knownStates = knownStates;
     }
 
     /**
      * Get moves possible on the given state of board and apply them to produce resultant state. The moves and the
-     * resultant states added to the database using the given connection.
-     * @param state the state to process, should be added to the database already. Otherwise, throws fk violation
-     * @param dbConn the database connection to use
+     * resultant states added to the store using the given connection.
+     * @param state the state to process, should be added to the store already. Otherwise, throws fk violation
+     * @param dbConn the store connection to use
      * @throws SQLException
      */
-    public void process(BoardState state, BoardSolverDB.BSDCConn dbConn) throws SQLException {
-        List<BoardMove> moves = state.getPossibleMoves();
-        Map<BoardMove, BoardState> newStates = new HashMap<>();
-        long id = idCounter.getAndIncrement();
+    public void process(BoardState state, StateStore.Conn dbConn) throws SQLException {
+        process(Collections.singletonList(state), dbConn);
+    }
 
-        for (BoardMove move : moves) {
-           BoardState newState = state.apply(move);
-           dbConn.searchAndInsertState(newState, id);
+    /**
+     * Same as process() above but for a chunk of states. The resultant states and the moves of all the states are
+     * recorded using a single call to StateStore.Conn.expandStates(), which takes a single trip to the database.
+     * @param states the states to process, should be added to the store already.
+     * @param dbConn the store connection to use
+     * @throws SQLException
+     */
+    public void process(List<BoardState> states, StateStore.Conn dbConn) throws SQLException {
+        List<Map<BoardMove, BoardState>> allNewStates = new ArrayList<>(states.size());
+        for (BoardState state : states) {
+            allNewStates.add(getNewStates(state));
+        }
+        expandStates(states, allNewStates, dbConn, idCounter, knownStates);
+    }
 
-           // Update state id counter if current id is used.
-           if (newState.getId() == id) {
-               id = idCounter.getAndIncrement();
-           }
-           newStates.put(move, newState);
+    /**
+     * Record the given resultant states of the given states and the moves leading to those using the given connection,
+     * all together using StateStore.Conn.expandStates(). The same states are reached over and over from different
+     * states. Hence the resultant states found in the given cache of the states known to be in the store are not
+     * searched in the store, and the others are added to the cache once the store assigns ids to those.
+     * @param allNewStates the resultant states of every given state, in the same order as the states
+     * @param idCounter counter to reserve an id for every resultant state not known to be in the store. The ids of the
+     *                  states which are already in the store are not used.
+     * @param knownStates cache of the keys of the states known to be in the store mapped to their ids, null for none
+     */
+    static void expandStates(List<BoardState> states, List<Map<BoardMove, BoardState>> allNewStates,
+                             StateStore.Conn dbConn, AtomicLong idCounter, LongLongCache knownStates)
+            throws SQLException {
+        List<Map<BoardMove, BoardState>> allUnknownStates = new ArrayList<>(states.size());
+        List<Map<BoardMove, BoardState>> allKnownStates = new ArrayList<>(states.size());
+        int numUnknown = 0;
+        for (Map<BoardMove, BoardState> newStates : allNewStates) {
+            if (knownStates == null) {
+                allUnknownStates.add(newStates);
+                allKnownStates.add(Collections.emptyMap());
+                numUnknown = numUnknown + newStates.size();
+                continue;
+            }
+
+            Map<BoardMove, BoardState> unknownStates = new HashMap<>();
+            Map<BoardMove, BoardState> knownNewStates = new HashMap<>();
+            for (Map.Entry<BoardMove, BoardState> entry : newStates.entrySet()) {
+                long id = knownStates.getOrDefault(entry.getValue().getKey(), -1);
+                // Ids are never negative, so that a state not assigned an id by the store, as BSDCCopyConn does not,
+                // is not cached.
+                entry.getValue().setId(id);
+                (id >= 0 ? knownNewStates : unknownStates).put(entry.getKey(), entry.getValue());
+            }
+            allUnknownStates.add(unknownStates);
+            allKnownStates.add(knownNewStates);
+            numUnknown = numUnknown + unknownStates.size();
+        }
+
+        dbConn.expandStates(states, allUnknownStates, Collections.emptyList(), allKnownStates,
+                            idCounter.getAndAdd(numUnknown));
+        if (knownStates != null) {
+            for (Map<BoardMove, BoardState> unknownStates : allUnknownStates) {
+                for (BoardState newState : unknownStates.values()) {
+                    if (newState.getId() >= 0) {
+                        knownStates.put(newState.getKey(), newState.getId());
+                    }
+                }
+            }
         }
+    }
 
-        dbConn.addMoves(state, newStates);
+    /**
+     * @return the moves possible on the given state mapped to the canonical forms of the states resulting from those.
+     * The symmetry of every canonical state transforms it to the actual resultant state.
+     */
+    static Map<BoardMove, BoardState> getNewStates(BoardState state) {
+        Map<BoardMove, BoardState> newStates = new HashMap<>();
+        for (BoardMove move : state.getPossibleMoves()) {
+            newStates.put(move, state.apply(move).canonicalize());
+        }
+        return newStates;
     }
 
-    private BoardState getNextState() throws InterruptedException {
-        waitingForNextState.set(true);
-        BoardState state = statesQ.take();
-        waitingForNextState.set(false);
-        return state;
+    // Get the next chunk of states to process. Waits till at least one state is available. Before waiting, flush the
+    // given connection so that whoever is feeding the states sees all the states produced by this thread, and report
+    // the states processed so far to the tracker.
+    private List<BoardState> getNextStates(StateStore.Conn dbConn) throws InterruptedException, SQLException {
+        List<BoardState> states = new ArrayList<>(NUM_STATES_PER_CHUNK);
+        if (statesQ.isEmpty()) {
+            dbConn.flush();
+            if (tracker != null && numUnreported > 0) {
+                tracker.completed(numUnreported);
+                numUnreported = 0;
+            }
+        }
+        states.add(statesQ.take());
+        statesQ.drainTo(states, NUM_STATES_PER_CHUNK - 1);
+        if (tracker != null) {
+            tracker.dequeued();
+        }
+        return states;
     }
 
-    // Each state processor thread pulls one state at a time and processes it till it gets a "last" state indicating
-    // that there are no more states available for processing. The "last" state is indicated by an invalid state.
+    // Each state processor thread pulls a chunk of states at a time and processes those till it's interrupted,
+    // indicating that there are no more states available for processing.
     public void run()
     {
-        BoardState curState;
         long nprocessed = 0;
         final long REPORTING_PERIOD = 100000;
         Exception e = null;
-        waitingForNextState.set(false);
 
         LOGGER.info("Started thread " + super.getName());
-        try (BoardSolverDB.BSDCConn dbConn = db.getConnection())
+        try (StateStore.Conn dbConn = store.getConnection())
         {
-            while ((curState = getNextState()) != null)
+            while (true)
             {
-                nprocessed++;
-                process(curState, dbConn);
+                List<BoardState> curStates = getNextStates(dbConn);
+                process(curStates, dbConn);
+                numUnreported = numUnreported + curStates.size();
 
-                if (nprocessed % REPORTING_PERIOD == 0) {
-                    LOGGER.info("completed processing " + nprocessed + " states.");
+                // Report whenever we cross a multiple of REPORTING_PERIOD.
+                if ((nprocessed + curStates.size()) / REPORTING_PERIOD > nprocessed / REPORTING_PERIOD) {
+                    LOGGER.info("completed processing " + (nprocessed + curStates.size()) + " states.");
                 }
+                nprocessed = nprocessed + curStates.size();
             }
         } catch (InterruptedException ie) {
             LOGGER.info("got interrupted with message " + ie.getMessage() + ". Exiting.");
@@ -96,6 +198,15 @@ public class StateProcessor extends Thread {
         } catch (SQLException sqle) {
             LOGGER.severe("received SQL exception " + sqle.getMessage() + ". Exiting.");
             e = sqle;
+            if (tracker != null) {
+                tracker.failed(sqle);
+            }
+        } catch (RuntimeException re) {
+            LOGGER.severe("received exception " + re + ". Exiting.");
+            if (tracker != null) {
+                tracker.failed(re);
+            }
+            throw re;
         }
     }
 };
@@ -0,0 +1,98 @@
+package com.ashutosh.BoardSolver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Persistent queue of the states in the order those are inserted in FileStateStore, the frontier of the search. Every
+ * entry is a pair of longs: the key of the state and its value, see FileStateStore. The entries are only appended; the
+ * store tracks the position of the next entry to fetch for processing.
+ *
+ * The entries appended are buffered and written to the file when the buffer fills up or by sync(). The entries are read
+ * by mapping the part of the file holding those to memory.
+ */
+class StateQueueFile implements AutoCloseable {
+    private static final int ENTRY_BYTES = 2 * Long.BYTES;
+    private static final int BUFFER_ENTRIES = 1 << 12;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_ENTRIES * ENTRY_BYTES);
+    // Number of entries written to the file, not counting those buffered.
+    private long numWritten;
+
+    /**
+     * Open the queue in the given file, creating the file if it does not exist.
+     */
+    StateQueueFile(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                        StandardOpenOption.WRITE);
+        // A crash may leave a partially written entry at the end.
+        long fileSize = channel.size();
+        this.numWritten = fileSize / ENTRY_BYTES;
+        if (fileSize % ENTRY_BYTES != 0) {
+            channel.truncate(numWritten * ENTRY_BYTES);
+        }
+    }
+
+    /**
+     * @return number of entries in the queue, including those not written yet
+     */
+    long size() {
+        return numWritten + buffer.position() / ENTRY_BYTES;
+    }
+
+    void append(long key, long value) throws IOException {
+        if (!buffer.hasRemaining()) {
+            write();
+        }
+        buffer.putLong(key);
+        buffer.putLong(value);
+    }
+
+    /**
+     * Read the given number of entries starting at the given position into the given arrays.
+     */
+    void read(long from, int count, long[] keys, long[] values) throws IOException {
+        if (from < 0 || count < 0 || from + count > size()) {
+            throw new IndexOutOfBoundsException("can not read " + count + " entries at " + from + " from a queue of " +
+                                                size() + " entries");
+        }
+        if (from + count > numWritten) {
+            write();
+        }
+        MappedByteBuffer entries = channel.map(FileChannel.MapMode.READ_ONLY, from * ENTRY_BYTES,
+                                               (long) count * ENTRY_BYTES);
+        for (int cnt = 0; cnt < count; cnt++) {
+            keys[cnt] = entries.getLong(cnt * ENTRY_BYTES);
+            values[cnt] = entries.getLong(cnt * ENTRY_BYTES + Long.BYTES);
+        }
+    }
+
+    /**
+     * Write the entries buffered and make all the entries durable.
+     */
+    void sync() throws IOException {
+        write();
+        channel.force(false);
+    }
+
+    private void write() throws IOException {
+        buffer.flip();
+        long numEntries = buffer.remaining() / ENTRY_BYTES;
+        long position = numWritten * ENTRY_BYTES;
+        while (buffer.hasRemaining()) {
+            position = position + channel.write(buffer, position);
+        }
+        numWritten = numWritten + numEntries;
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,160 @@
+package com.ashutosh.BoardSolver;
+
+import com.ashutosh.utils.MappedLongArray;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Immutable file of states sorted by their keys, a segment of FileStateStore. Every state is a pair of longs: the key
+ * and the value, which packs the id of the state and its flags, see FileStateStore. The file is mapped to memory read
+ * only and every SPARSE_INTERVAL-th key is kept in the heap, the sparse index, so that a state is looked up by a binary
+ * search over the sparse index followed by one over at most SPARSE_INTERVAL states in the mapped file.
+ *
+ * A segment is written by a Writer to a temporary file, which is synced and renamed once it's complete, so a segment
+ * file is never partially written.
+ */
+class StateSegment implements AutoCloseable {
+    static final long NOT_FOUND = -1;
+    private static final int SPARSE_INTERVAL = 64;
+    private static final int WRITE_BUFFER_BYTES = 1 << 16;
+
+    private final Path file;
+    private final MappedLongArray entries;
+    private final long size;
+    private final long[] sparseKeys;
+
+    StateSegment(Path file) throws IOException {
+        this.file = file;
+        this.entries = MappedLongArray.openReadOnly(file);
+        this.size = entries.length() / 2;
+        this.sparseKeys = new long[(int) ((size + SPARSE_INTERVAL - 1) / SPARSE_INTERVAL)];
+        for (int cnt = 0; cnt < sparseKeys.length; cnt++) {
+            sparseKeys[cnt] = getKey((long) cnt * SPARSE_INTERVAL);
+        }
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return number of states in the segment
+     */
+    long size() {
+        return size;
+    }
+
+    long getKey(long pos) {
+        return entries.get(2 * pos);
+    }
+
+    long getValue(long pos) {
+        return entries.get(2 * pos + 1);
+    }
+
+    /**
+     * @return value of the state with the given key, NOT_FOUND if the segment does not have it.
+     */
+    long get(long key) {
+        int block = Arrays.binarySearch(sparseKeys, key);
+        if (block >= 0) {
+            return getValue((long) block * SPARSE_INTERVAL);
+        }
+        // The key, if present, is in the block starting with the largest key smaller than it.
+        block = -block - 2;
+        if (block < 0) {
+            return NOT_FOUND;
+        }
+        long low = (long) block * SPARSE_INTERVAL + 1;
+        long high = Math.min((long) (block + 1) * SPARSE_INTERVAL, size) - 1;
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            long midKey = getKey(mid);
+            if (midKey < key) {
+                low = mid + 1;
+            } else if (midKey > key) {
+                high = mid - 1;
+            } else {
+                return getValue(mid);
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    @Override
+    public void close() throws IOException {
+        entries.close();
+    }
+
+    /**
+     * Writes a segment, the states being added in the increasing order of their keys.
+     */
+    static final class Writer implements AutoCloseable {
+        private final Path file;
+        private final Path tempFile;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+        private long numStates = 0;
+        private long lastKey;
+
+        Writer(Path file) throws IOException {
+            this.file = file;
+            this.tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+            this.channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                            StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        void add(long key, long value) throws IOException {
+            if (numStates > 0 && key <= lastKey) {
+                throw new IllegalArgumentException("key " + key + " is not larger than the previous key " + lastKey);
+            }
+            if (buffer.remaining() < 2 * Long.BYTES) {
+                writeBuffer();
+            }
+            buffer.putLong(key);
+            buffer.putLong(value);
+            lastKey = key;
+            numStates++;
+        }
+
+        /**
+         * Sync the states added and rename the file to the name of the segment.
+         * @return the segment written
+         */
+        StateSegment finish() throws IOException {
+            writeBuffer();
+            channel.force(true);
+            channel.close();
+            Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+            // The rename is durable only once the directory is synced.
+            try (FileChannel dirChannel = FileChannel.open(file.getParent(), StandardOpenOption.READ)) {
+                dirChannel.force(true);
+            }
+            return new StateSegment(file);
+        }
+
+        private void writeBuffer() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        // Discards the file unless the segment is finished.
+        @Override
+        public void close() throws IOException {
+            if (channel.isOpen()) {
+                channel.close();
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+}
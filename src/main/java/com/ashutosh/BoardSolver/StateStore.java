@@ -0,0 +1,138 @@
+package com.ashutosh.BoardSolver;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Store of the states and moves discovered by the solver. The solver and the state processors use a connection to the
+ * store per thread. Stores which can find the solutions once the solver is done implement SolutionStore.
+ */
+public interface StateStore {
+
+    /**
+     * @return a new connection to the store, to be closed by the caller.
+     * @throws SQLException
+     */
+    Conn getConnection() throws SQLException;
+
+    /**
+     * Make the states queued for processing by an earlier run, which did not process those, e.g. because it died, available
+     * for fetching again. See BoardSolver.resume(). Stores which do not outlive a run need not override this.
+     * @return number of states reclaimed
+     */
+    default long reclaimQueuedStates() throws SQLException {
+        return 0;
+    }
+
+    /**
+     * @return the first of a range of ids not assigned to any state in the store and not handed out to any other run, so
+     * that a run does not assign the ids used by the earlier runs or by the other runs sharing the store. Stores which
+     * are used by a single run need not override this.
+     */
+    default long getNextId() throws SQLException {
+        return 0;
+    }
+
+    interface Conn extends AutoCloseable {
+        /**
+         * Insert the given state in the store if it's already not recorded. If the state is inserted anew the given id
+         * is used for insertion. In either case, given state is updated with it's identifier in the store.
+         */
+        void searchAndInsertState(BoardState state, long id) throws SQLException;
+
+        /**
+         * Search and insert all the given states. A state which is inserted anew is assigned firstId + its position in
+         * the list, thus the caller should reserve states.size() ids starting at firstId. Every given state is updated
+         * with its identifier in the store. Stores which can do this more efficiently than one state at a time should
+         * override this method.
+         */
+        default void searchAndInsertStates(List<BoardState> states, long firstId) throws SQLException {
+            for (int cnt = 0; cnt < states.size(); cnt++) {
+                searchAndInsertState(states.get(cnt), firstId + cnt);
+            }
+        }
+
+        /**
+         * Record all the moves possible from the given state and mark the state as processed. Either all the moves are
+         * recorded and the state is marked as processed or none of it happens.
+         * @param state the starting state, should be in the store already
+         * @param newStates the moves and the states resulting from those, should be in the store already
+         */
+        void addMoves(BoardState state, Map<BoardMove, BoardState> newStates) throws SQLException;
+
+        /**
+         * Record the results of processing the given states: search and insert the resultant states, as
+         * searchAndInsertStates() does, and add the moves, as addMoves() does, for every state. The lists of maps are
+         * parallel to the states: the i-th maps hold the moves and the resultant states of the i-th state. A list may
+         * be empty if none of the states has resultant states of that kind. Stores which can record the results more
+         * efficiently, e.g. all together in a single trip, should override this method.
+         * @param states the starting states, should be in the store already
+         * @param allNewStates the moves and the resultant states not known to be in the store, per starting state
+         * @param allAbsentStates the moves and the resultant states known not to be in the store, e.g. since the caller
+         *                        saw every state which could lead to those, hence inserted without searching, per
+         *                        starting state
+         * @param allKnownStates the moves and the resultant states known to be in the store already with the ids
+         *                       those carry, e.g. from a cache of the states recorded earlier, hence not searched, per
+         *                       starting state
+         * @param firstId first of the ids reserved for the new and the absent states, as many as those are in all the
+         *                maps together. Those of every state are assigned the ids in turn, the new ones first.
+         */
+        default void expandStates(List<BoardState> states, List<Map<BoardMove, BoardState>> allNewStates,
+                                  List<Map<BoardMove, BoardState>> allAbsentStates,
+                                  List<Map<BoardMove, BoardState>> allKnownStates, long firstId) throws SQLException {
+            long nextId = firstId;
+            for (int cnt = 0; cnt < states.size(); cnt++) {
+                Map<BoardMove, BoardState> allMoves = new HashMap<>();
+                List<BoardState> unknownStates = new ArrayList<>();
+                if (!allNewStates.isEmpty()) {
+                    allMoves.putAll(allNewStates.get(cnt));
+                    unknownStates.addAll(allNewStates.get(cnt).values());
+                }
+                if (!allAbsentStates.isEmpty()) {
+                    allMoves.putAll(allAbsentStates.get(cnt));
+                    unknownStates.addAll(allAbsentStates.get(cnt).values());
+                }
+                if (!allKnownStates.isEmpty()) {
+                    allMoves.putAll(allKnownStates.get(cnt));
+                }
+                searchAndInsertStates(unknownStates, nextId);
+                nextId = nextId + unknownStates.size();
+                addMoves(states.get(cnt), allMoves);
+            }
+        }
+
+        /**
+         * Fetch states which are yet to be processed. The states are marked as queued, so that they are not fetched
+         * again.
+         * @param sampleState a state used to construct the states fetched
+         * @return states to be processed, empty if there are none.
+         */
+        LinkedList<BoardState> readUnprocessedStates(BoardState sampleState) throws SQLException;
+
+        /**
+         * Called when readUnprocessedStates() returned no state and none of the states fetched from the store by this
+         * run is being processed. The other runs sharing the store may still be processing the states they fetched,
+         * which may lead to new states. Stores which are used by a single run need not override this.
+         * @param timeoutMillis the longest to wait for the other runs
+         * @return false if no state in the store is left to process. Otherwise true, after waiting till another run
+         * signals new states or the given time elapses, so that the caller fetches the states again.
+         */
+        default boolean awaitUnprocessedStates(long timeoutMillis) throws SQLException {
+            return false;
+        }
+
+        /**
+         * Make everything written using this connection visible to the other connections. Connections which buffer the
+         * writes should override this method.
+         */
+        default void flush() throws SQLException {
+        }
+
+        @Override
+        void close() throws SQLException;
+    }
+}
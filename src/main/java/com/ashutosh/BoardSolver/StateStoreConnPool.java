@@ -0,0 +1,94 @@
+package com.ashutosh.BoardSolver;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Logger;
+
+/**
+ * Bounded pool of connections to a StateStore shared by many threads, each of which needs a connection only for a
+ * short while. Connections are opened lazily, at most maxSize of those are leased at a time and those returned are kept
+ * open for reuse till the pool is closed.
+ */
+class StateStoreConnPool implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(StateStoreConnPool.class.getName());
+    private final StateStore store;
+    private final Semaphore permits;
+    private final ArrayDeque<StateStore.Conn> idleConns = new ArrayDeque<>();
+    private boolean closed = false;
+
+    StateStoreConnPool(StateStore store, int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("expected positive pool size, but got " + maxSize);
+        }
+        this.store = store;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Lease a connection, waiting till one is available. The connection should be returned using release() or, if it
+     * may not be usable anymore, using discard().
+     */
+    StateStore.Conn lease() throws InterruptedException, SQLException {
+        permits.acquire();
+        try {
+            synchronized (this) {
+                if (closed) {
+                    throw new IllegalStateException("connection pool is closed.");
+                }
+                if (!idleConns.isEmpty()) {
+                    return idleConns.pop();
+                }
+            }
+            return store.getConnection();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    void release(StateStore.Conn conn) throws SQLException {
+        boolean closeConn;
+        synchronized (this) {
+            closeConn = closed;
+            if (!closed) {
+                idleConns.push(conn);
+            }
+        }
+        permits.release();
+        if (closeConn) {
+            conn.close();
+        }
+    }
+
+    void discard(StateStore.Conn conn) {
+        permits.release();
+        try {
+            conn.close();
+        } catch (SQLException sqle) {
+            LOGGER.warning("could not close discarded connection: " + sqle.getMessage());
+        }
+    }
+
+    /**
+     * Close all the idle connections. Connections leased at this time are closed when returned.
+     */
+    @Override
+    public void close() throws SQLException {
+        SQLException error = null;
+        synchronized (this) {
+            closed = true;
+            for (StateStore.Conn conn : idleConns) {
+                try {
+                    conn.close();
+                } catch (SQLException sqle) {
+                    error = sqle;
+                }
+            }
+            idleConns.clear();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+}
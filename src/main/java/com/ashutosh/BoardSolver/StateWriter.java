@@ -0,0 +1,96 @@
+package com.ashutosh.BoardSolver;
+
+import com.ashutosh.utils.LongLongCache;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Writer of the write-behind pipeline, see BoardSolver.setNumWriters(). The threads expanding the states hand over every
+ * state along with its resultant states through a bounded queue and move on to the next state instead of waiting for
+ * the store. A writer takes those from the queue in batches and records a whole batch using a single call to
+ * StateStore.Conn.expandStates(), with a connection of its own.
+ *
+ * A state is marked processed in the same transaction which records its moves, and it's reported to the tracker as
+ * completed only after the batch is flushed. Thus when no state is in flight, the store has all the states and the moves
+ * produced so far, as InFlightTracker requires.
+ */
+class StateWriter extends Thread {
+    private static final Logger LOGGER = Logger.getLogger(StateWriter.class.getName());
+    // Largest number of expanded states recorded in a single trip to the store.
+    static final int MAX_BATCH_SIZE = 1000;
+
+    private final StateStore store;
+    private final BlockingQueue<ExpandedState> expandedStatesQ;
+    private final AtomicLong idCounter;
+    private final InFlightTracker tracker;
+    // Cache of the keys of the states known to be in the store mapped to their ids, null for none.
+    private final LongLongCache knownStates;
+
+    /**
+     * A state and the canonical states resulting from the moves possible on it, see StateProcessor.getNewStates().
+     */
+    static final class ExpandedState {
+        private final BoardState state;
+        private final Map<BoardMove, BoardState> newStates;
+
+        ExpandedState(BoardState state, Map<BoardMove, BoardState> newStates) {
+            this.state = state;
+            this.newStates = newStates;
+        }
+    }
+
+    StateWriter(StateStore store, BlockingQueue<ExpandedState> expandedStatesQ, String name, AtomicLong idCounter,
+                InFlightTracker tracker, LongLongCache knownStates) {
+        super(name);
+        this.store = store;
+        this.expandedStatesQ = expandedStatesQ;
+        this.idCounter = idCounter;
+        this.tracker = tracker;
+        this.knownStates = knownStates;
+    }
+
+    // Each writer takes a batch of expanded states at a time and records it till it's interrupted, indicating that there
+    // are no more states to record.
+    @Override
+    public void run() {
+        long numWritten = 0;
+        List<ExpandedState> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        List<BoardState> states = new ArrayList<>(MAX_BATCH_SIZE);
+        List<Map<BoardMove, BoardState>> allNewStates = new ArrayList<>(MAX_BATCH_SIZE);
+
+        LOGGER.info("Started thread " + getName());
+        try (StateStore.Conn dbConn = store.getConnection()) {
+            while (true) {
+                batch.clear();
+                batch.add(expandedStatesQ.take());
+                expandedStatesQ.drainTo(batch, MAX_BATCH_SIZE - 1);
+
+                states.clear();
+                allNewStates.clear();
+                for (ExpandedState expandedState : batch) {
+                    states.add(expandedState.state);
+                    allNewStates.add(expandedState.newStates);
+                }
+                StateProcessor.expandStates(states, allNewStates, dbConn, idCounter, knownStates);
+                dbConn.flush();
+                tracker.completed(batch.size());
+                numWritten = numWritten + batch.size();
+            }
+        } catch (InterruptedException ie) {
+            LOGGER.info("finished after writing " + numWritten + " states.");
+        } catch (SQLException sqle) {
+            LOGGER.severe("received SQL exception " + sqle.getMessage() + ". Exiting.");
+            tracker.failed(sqle);
+        } catch (RuntimeException re) {
+            LOGGER.severe("received exception " + re + ". Exiting.");
+            tracker.failed(re);
+            throw re;
+        }
+    }
+}
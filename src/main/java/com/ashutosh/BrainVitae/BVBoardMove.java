@@ -2,10 +2,15 @@ package com.ashutosh.BrainVitae;
 
 import com.ashutosh.BoardSolver.BoardMove;
 
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 /**
  * A move defines in which direction a peg at starting position moves. A move takes the board from one state to the other.
  */
 public class BVBoardMove implements BoardMove {
+    // Matches the description produced by getDesc().
+    private static final Pattern DESC_PATTERN = Pattern.compile("\\((-?\\d+), (-?\\d+)\\) (\\w+)");
     private BVCell startBVCell;
     private BVDirection dir;
 
@@ -27,4 +32,36 @@ public class BVBoardMove implements BoardMove {
     BVDirection getDirection() {
         return dir;
     }
+
+    /**
+     * This is inverse of getDesc().
+     * @param desc description of a move as returned by getDesc()
+     * @return move with the given description
+     */
+    static BVBoardMove fromDesc(String desc) {
+        Matcher matcher = DESC_PATTERN.matcher(desc);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("invalid move description " + desc);
+        }
+        BVCell startCell = new BVCell(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+        return new BVBoardMove(startCell, new BVDirection(BVDirLabel.valueOf(matcher.group(3))));
+    }
+
+    /**
+     * @return the move which moves the transformed peg over the transformed cells, when the board is transformed by the
+     * given symmetry.
+     */
+    BVBoardMove transform(BrainVitaeBoard board, int symmetry) {
+        BVCell startCell = board.transformCell(startBVCell, symmetry);
+        BVCell jumpCell = board.transformCell(new BVCell(startBVCell, dir.getJumpOffset()), symmetry);
+        BVOffset jumpOffset = new BVOffset(jumpCell.getRow() - startCell.getRow(),
+                                            jumpCell.getCol() - startCell.getCol());
+        for (BVDirLabel label : BVDirLabel.values()) {
+            BVDirection newDir = new BVDirection(label);
+            if (newDir.getJumpOffset().equals(jumpOffset)) {
+                return new BVBoardMove(startCell, newDir);
+            }
+        }
+        throw new IllegalStateException("no direction to move from " + startCell + " to " + jumpCell);
+    }
 }
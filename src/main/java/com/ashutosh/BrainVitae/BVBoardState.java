@@ -3,7 +3,6 @@ package com.ashutosh.BrainVitae;
 import com.ashutosh.BoardSolver.BoardMove;
 import com.ashutosh.BoardSolver.BoardState;
 
-import java.math.BigInteger;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
@@ -37,6 +36,9 @@ public class BVBoardState implements BoardState {
 
     private Long id = null;
 
+    // Symmetry which transforms this state to the state it was canonicalized from, see canonicalize().
+    private int symmetry = 0;
+
     int getNumEmpty() {
         return numEmpty;
     }
@@ -109,6 +111,9 @@ public class BVBoardState implements BoardState {
         for (int row = 0; row < board.getBoardSize(); row++) {
             for (int col = 0; col < board.getBoardSize(); col++) {
                 BVCell cell = new BVCell(row, col);
+                if (!board.isUsed(cell))
+                    continue;
+
                 switch (other.getCellState(cell)) {
                     case EMPTY:
                         emptyCell(cell, false);
@@ -126,24 +131,25 @@ public class BVBoardState implements BoardState {
     }
 
     /**
-     * Construct board state for the given Id.
+     * Construct board state for the given key.
      *
-     * This is inverse of getId() i.e. BVBoardState(board, otherBoardState.getId()) == otherBoardState.
+     * This is inverse of getKey() i.e. BVBoardState(board, otherBoardState.getKey()) == otherBoardState.
      * @param board
-     * @param id
+     * @param key
      */
-    BVBoardState(BrainVitaeBoard board, long id)
+    BVBoardState(BrainVitaeBoard board, long key)
     {
-        this.id = id;
         this.board = board;
-        BigInteger idBitSet = BigInteger.valueOf(id);
         boardState = new CellState[board.getBoardSize()][board.getBoardSize()];
         for (int crow = 0; crow < board.getBoardSize(); crow++)
         {
             for (int ccol = 0; ccol < board.getBoardSize(); ccol++)
             {
                 BVCell cell = new BVCell(crow, ccol);
-                if (idBitSet.testBit(board.getIndex(cell)))
+                if (!board.isUsed(cell))
+                    continue;
+
+                if ((key & (1L << board.getIndex(cell))) != 0)
                 {
                     fillCell(new BVCell(crow, ccol), false);
                 }
@@ -156,31 +162,91 @@ public class BVBoardState implements BoardState {
     }
 
     /**
-     * @return id of the state
+     * @return id of the state, if one is assigned. Otherwise the key of the state.
      */
     @Override
     public long getId() {
         if (id != null)
             return id;
 
-        BigInteger idBitSet = BigInteger.valueOf(0);
+        return getKey();
+    }
+
+    @Override
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    /**
+     * Every used cell has a bit in the key, at the index assigned to it by the board. The bit is set if the cell is
+     * filled.
+     * @return key of the state
+     */
+    @Override
+    public long getKey() {
+        long key = 0;
 
         for (int row = 0; row < board.getBoardSize(); row++) {
             for (int col = 0; col < board.getBoardSize(); col++) {
                 BVCell cell = new BVCell(row, col);
-                int cellIndex = board.getIndex(cell);
-                switch (getCellState(cell))
-                {
-                    case EMPTY:
-                        idBitSet.clearBit(cellIndex);
-                        break;
-                    case FILLED:
-                        idBitSet.setBit(cellIndex);
+                if (isFilledCell(cell)) {
+                    key |= 1L << board.getIndex(cell);
                 }
             }
         }
-        id = idBitSet.longValue();
-        return id;
+        return key;
+    }
+
+    /**
+     * The canonical state is the one with the smallest key among the states symmetric to this state.
+     * @return key of the canonical state
+     */
+    @Override
+    public long canonicalKey() {
+        long key = getKey();
+        long minKey = key;
+        for (int cnt = 1; cnt < BrainVitaeBoard.NUM_SYMMETRIES; cnt++) {
+            minKey = Math.min(minKey, board.transformKey(key, cnt));
+        }
+        return minKey;
+    }
+
+    @Override
+    public BoardState canonicalize() {
+        long key = getKey();
+        long minKey = key;
+        int canonicalSymmetry = 0;
+        for (int cnt = 1; cnt < BrainVitaeBoard.NUM_SYMMETRIES; cnt++) {
+            long transformedKey = board.transformKey(key, cnt);
+            if (transformedKey < minKey) {
+                minKey = transformedKey;
+                canonicalSymmetry = cnt;
+            }
+        }
+
+        BVBoardState result = new BVBoardState(board, minKey);
+        result.symmetry = board.invertSymmetry(canonicalSymmetry);
+        return result;
+    }
+
+    @Override
+    public int getSymmetry() {
+        return symmetry;
+    }
+
+    @Override
+    public BoardState transform(int symmetry) {
+        return new BVBoardState(board, board.transformKey(getKey(), symmetry));
+    }
+
+    @Override
+    public String transformMove(String moveDesc, int symmetry) {
+        return BVBoardMove.fromDesc(moveDesc).transform(board, symmetry).getDesc();
+    }
+
+    @Override
+    public int composeSymmetries(int outer, int inner) {
+        return board.composeSymmetries(outer, inner);
     }
 
     // Apply the given move to the given board state and return the resultant
@@ -230,6 +296,55 @@ public class BVBoardState implements BoardState {
         return possMoves;
     }
 
+    /**
+     * @return all the states from which a move leads to this state
+     */
+    @Override
+    public List<BoardState> getPreviousStates() {
+        List<BoardState> prevStates = new LinkedList<>();
+
+        // Every move can be undone by an un-jump. A peg in a filled cell jumps back over an empty cell to the empty cell
+        // next to it in the same direction, filling both those cells and emptying the cell it started from.
+        for (int row = 0; row < board.getBoardSize(); row++) {
+            for (int col = 0; col < board.getBoardSize(); col++) {
+                BVCell curcell = new BVCell(row, col);
+                if (!isFilledCell(curcell)) {
+                    continue;
+                }
+
+                for (BVDirection dir : BVDIRECTIONS) {
+                    BVCell nextBVCell = new BVCell(curcell, dir.getNextOffset());
+                    BVCell jumpBVCell = new BVCell(curcell, dir.getJumpOffset());
+                    if (isEmptyCell(nextBVCell) && isEmptyCell(jumpBVCell)) {
+                        BVBoardState prevState = new BVBoardState(this);
+                        prevState.emptyCell(curcell, true);
+                        prevState.fillCell(nextBVCell, true);
+                        prevState.fillCell(jumpBVCell, true);
+                        prevStates.add(prevState);
+                    }
+                }
+            }
+        }
+        return prevStates;
+    }
+
+    /**
+     * @return the states with a single peg, in any of the used cells of the board
+     */
+    @Override
+    public List<BoardState> getFinalStates() {
+        List<BoardState> finalStates = new LinkedList<>();
+        for (int row = 0; row < board.getBoardSize(); row++) {
+            for (int col = 0; col < board.getBoardSize(); col++) {
+                BVCell cell = new BVCell(row, col);
+                if (board.isUsed(cell)) {
+                    finalStates.add(new BVBoardState(board, 1L << board.getIndex(cell)));
+                }
+            }
+        }
+        return finalStates;
+    }
+
     /**
      * @return string description of the state.
      */
@@ -246,7 +361,7 @@ public class BVBoardState implements BoardState {
             sep = sep + "[";
             for (col = 0; col < board.getBoardSize(); col++)
             {
-                out = out + sep + getCellState(new BVCell(row, col)).toString();
+                out = out + sep + getCellState(new BVCell(row, col));
                 sep = ", ";
             }
             sep = "], ";
@@ -265,7 +380,33 @@ public class BVBoardState implements BoardState {
      */
     @Override
     public BoardState newState(long id, String stateDesc) {
-        return new BVBoardState(board, id);
+        // The description lists the state of every cell, row by row, as produced by getDesc().
+        String[] cellStates = stateDesc.replace("[", "").replace("]", "").split(", ");
+        if (cellStates.length != board.getBoardSize() * board.getBoardSize()) {
+            throw new IllegalArgumentException("invalid state description " + stateDesc);
+        }
+
+        BVBoardState result = new BVBoardState(board, 0L);
+        for (int row = 0; row < board.getBoardSize(); row++) {
+            for (int col = 0; col < board.getBoardSize(); col++) {
+                BVCell cell = new BVCell(row, col);
+                if (!board.isUsed(cell))
+                    continue;
+
+                if (CellState.valueOf(cellStates[row * board.getBoardSize() + col]) == CellState.FILLED) {
+                    result.fillCell(cell, false);
+                }
+            }
+        }
+        result.setId(id);
+        return result;
+    }
+
+    @Override
+    public BoardState newStateFromKey(long id, long key) {
+        BVBoardState result = new BVBoardState(board, key);
+        result.setId(id);
+        return result;
     }
 
     /**
@@ -331,7 +472,7 @@ public class BVBoardState implements BoardState {
         int			col = cell.getCol();
         if (row >= 0 && row < board.getBoardSize() && col >= 0 && col < board.getBoardSize())
             return boardState[row][col];
-        throw new IllegalArgumentException("invalid cell " + cell);
+        return null;
     }
 
     boolean isEmptyCell(BVCell BVCell)
@@ -399,9 +540,6 @@ public class BVBoardState implements BoardState {
             return false;
         }
 
-        if (this.id != null && other.id != null && this.id != other.id)
-            return false;
-
         for (int cnt = 0; cnt < boardState.length; cnt++) {
             if (!Arrays.equals(boardState[cnt], other.boardState[cnt])) {
                 return false;
@@ -415,4 +553,15 @@ public class BVBoardState implements BoardState {
     public boolean isFinalState() {
         return numFilled == 1;
     }
+
+    @Override
+    public boolean hasLevels() {
+        return true;
+    }
+
+    // Every move removes exactly one peg.
+    @Override
+    public int getLevel() {
+        return numFilled;
+    }
 }
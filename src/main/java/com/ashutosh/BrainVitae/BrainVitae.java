@@ -1,10 +1,18 @@
 package com.ashutosh.BrainVitae;
 
+import com.ashutosh.BoardSolver.BidirectionalBoardSolver;
 import com.ashutosh.BoardSolver.BoardSolver;
 import com.ashutosh.BoardSolver.BoardSolverDB;
 import com.ashutosh.BoardSolver.BoardState;
+import com.ashutosh.BoardSolver.DepthFirstBoardSolver;
+import com.ashutosh.BoardSolver.FileStateStore;
+import com.ashutosh.BoardSolver.ForkJoinBoardSolver;
+import com.ashutosh.BoardSolver.InMemoryStateStore;
+import com.ashutosh.BoardSolver.MappedStateStore;
 
+import java.io.IOException;
 import java.lang.IllegalArgumentException;
+import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.util.Map;
 
@@ -16,25 +24,177 @@ class BrainVitae
 	private final static String statesTableName = "states";
 	private final static String movesTableName = "moves";
 	private final static String dbSchema = "brainvitae";
+	// Number of states reachable from the initial state of 7 X 7 board is about 23 million. Only the states canonical under
+	// the symmetries of the board are recorded, which are far fewer.
+	private final static long maxStates = 30000000L;
+	private final static int copyFlushSize = 1000;
+	private final static int numSolutionsToPrint = 10;
+	// The depth first search explores a small fraction of the states before finding a solution.
+	private final static int expectedDeadStates = 1 << 20;
+	// Ids of the states cached by the solvers recording the states in the database, a few tens of MB.
+	private final static int knownStatesCacheSize = 1 << 21;
+	// False positive rate of the filter over the keys of the states in the database, about 10 bits per state.
+	private final static double stateFilterFalsePositiveRate = 0.01;
+	// Longest time the results of a state are held back when those of several states are recorded together.
+	private final static long groupCommitMillis = 100;
+	// Parallel workers the database may use to build the index on the moves at the end of a bulk build.
+	private final static int bulkBuildWorkers = 4;
 
 	public static void main(String args[])
 		throws SQLException,
 			   IllegalArgumentException,
-			   InterruptedException
+			   InterruptedException,
+			   IOException
 	{
 		if (args.length <= 0) {
 			throw new IllegalArgumentException("expected non-zero arguments, but got " + args.length);
 		}
 
 		int	numThreads = Integer.parseInt(args[0]);
-		BoardSolverDB bvBoardSolverDb = new BoardSolverDB(dbUrl, dbUser, dbPassword, statesTableName, movesTableName,
-															dbSchema);
 		final BrainVitaeBoard board = new BrainVitaeBoard(7);
 		BVBoardState initialState =  new BVBoardState(board);
-		bvBoardSolverDb.createObjects();
-		BoardSolver bvBoardSolver = new BoardSolver(numThreads, initialState, bvBoardSolverDb);
-		bvBoardSolver.solve();
-		Map<String, BoardState> solutions = bvBoardSolverDb.findSolutions(initialState);
+
+		// Optional second argument "mapped" followed by a directory only explores the states reachable from the
+		// initial state, keeping those in memory mapped files in that directory. No moves are recorded.
+		if (args.length > 2 && args[1].equals("mapped")) {
+			try (MappedStateStore bvStateStore = new MappedStateStore(Paths.get(args[2]), maxStates)) {
+				BoardSolver bvBoardSolver = new BoardSolver(numThreads, initialState, bvStateStore);
+				bvBoardSolver.solve();
+				System.out.println("Found " + bvStateStore.getNumStates() + " states including " +
+									bvStateStore.getNumFinalStates() + " final states.");
+			}
+			return;
+		}
+
+		// Optional second argument "file" followed by a directory records the states and the moves in files in that
+		// directory instead of the database, continuing the run which left those there, if any.
+		if (args.length > 2 && args[1].equals("file")) {
+			try (FileStateStore bvStateStore = new FileStateStore(Paths.get(args[2]))) {
+				BoardSolver bvBoardSolver = new BoardSolver(numThreads, initialState, bvStateStore);
+				bvBoardSolver.resume();
+				System.out.println("Found " + bvStateStore.getNumStates() + " states.");
+			}
+			return;
+		}
+
+		// Optional second argument "forkjoin" only explores the states reachable from the initial state in memory using
+		// a work stealing pool of numThreads workers. No moves are recorded.
+		if (args.length > 1 && args[1].equals("forkjoin")) {
+			ForkJoinBoardSolver bvBoardSolver = new ForkJoinBoardSolver(numThreads, initialState, (int) maxStates);
+			bvBoardSolver.solve();
+			System.out.println("Found " + bvBoardSolver.getNumStates() + " states including " +
+								bvBoardSolver.getNumFinalStates() + " final states.");
+			return;
+		}
+
+		// Optional second argument "any" finds a single solution exploring the states depth first in memory. Nothing is
+		// recorded.
+		if (args.length > 1 && args[1].equals("any")) {
+			DepthFirstBoardSolver bvBoardSolver = new DepthFirstBoardSolver(initialState, expectedDeadStates);
+			long startMillis = System.currentTimeMillis();
+			Map.Entry<String, BoardState> solution = bvBoardSolver.findAnySolution();
+			System.out.println("Explored " + bvBoardSolver.getNumStates() + " states in " +
+								(System.currentTimeMillis() - startMillis) + " ms.");
+			if (solution == null) {
+				System.out.println("No solution found.");
+			} else {
+				System.out.println("Moves " + solution.getKey() + " lead to final state " + solution.getValue().getDesc());
+			}
+			return;
+		}
+
+		// Optional second argument "memory" explores the states in memory and writes the graph to the database at the
+		// end.
+		boolean inMemory = args.length > 1 && args[1].equals("memory");
+		BoardSolverDB bvBoardSolverDb = new BoardSolverDB(dbUrl, dbUser, dbPassword, statesTableName, movesTableName,
+															dbSchema);
+		// Optional second argument "resume" continues solving the board in the tables left by an earlier run, instead of
+		// creating those anew.
+		boolean resume = args.length > 1 && args[1].equals("resume");
+		// Optional second argument "create" only creates the tables, so that several runs with the second argument
+		// "worker", possibly on different machines, solve the board in those together. A worker finishes when no state
+		// is left to process by any of them.
+		boolean worker = args.length > 1 && args[1].equals("worker");
+		// Optional second argument "partitioned" followed by a number creates the tables hash partitioned into those many
+		// partitions.
+		if (args.length > 2 && args[1].equals("partitioned")) {
+			bvBoardSolverDb.setNumPartitions(Integer.parseInt(args[2]));
+		}
+		// Optional second argument "bulk" creates the tables without the constraints on the moves and without logging
+		// those, and adds the constraints after solving the board.
+		boolean bulk = args.length > 1 && args[1].equals("bulk");
+		bvBoardSolverDb.setBulkBuild(bulk);
+		bvBoardSolverDb.setStateFilterFalsePositiveRate(stateFilterFalsePositiveRate);
+		if (!resume && !worker) {
+			bvBoardSolverDb.createObjects();
+		}
+		if (args.length > 1 && args[1].equals("create")) {
+			bvBoardSolverDb.close();
+			return;
+		}
+		// Optional second argument "copy" writes the states and moves to the database using COPY.
+		if (args.length > 1 && args[1].equals("copy")) {
+			bvBoardSolverDb.setCopyFlushSize(copyFlushSize);
+		}
+		// Optional second argument "grouped" followed by a number records the results of processing those many states in
+		// a single transaction.
+		if (args.length > 2 && args[1].equals("grouped")) {
+			bvBoardSolverDb.setGroupCommit(Integer.parseInt(args[2]), groupCommitMillis);
+		}
+		// Optional second argument "pooled" followed by a number shares those many connections to the database among
+		// numThreads threads.
+		int numConnections = 0;
+		if (args.length > 2 && args[1].equals("pooled")) {
+			numConnections = Integer.parseInt(args[2]);
+		}
+		// Optional second argument "pipelined" followed by a number records the states expanded by numThreads threads
+		// using those many writer threads.
+		int numWriters = 0;
+		if (args.length > 2 && args[1].equals("pipelined")) {
+			numWriters = Integer.parseInt(args[2]);
+		}
+		// Optional second argument "levels" expands the states level by level, i.e. by the number of pegs left, keeping
+		// only the levels yet to be expanded in memory.
+		boolean byLevels = args.length > 1 && args[1].equals("levels");
+		// Optional second argument "bidirectional" records only the states and the moves on the paths to the final
+		// states, found by exploring from both the ends.
+		boolean bidirectional = args.length > 1 && args[1].equals("bidirectional");
+		if (inMemory) {
+			InMemoryStateStore bvStateStore = new InMemoryStateStore(true);
+			BoardSolver bvBoardSolver = new BoardSolver(numThreads, initialState, bvStateStore);
+			bvBoardSolver.solve();
+			bvStateStore.persist(bvBoardSolverDb);
+		} else if (bidirectional) {
+			BidirectionalBoardSolver bvBoardSolver = new BidirectionalBoardSolver(numThreads, initialState,
+																					bvBoardSolverDb);
+			bvBoardSolver.solve();
+		} else if (resume) {
+			BoardSolver bvBoardSolver = new BoardSolver(numThreads, initialState, bvBoardSolverDb);
+			bvBoardSolver.setKnownStatesCacheSize(knownStatesCacheSize);
+			bvBoardSolver.resume();
+		} else if (worker) {
+			BoardSolver bvBoardSolver = new BoardSolver(numThreads, initialState, bvBoardSolverDb);
+			bvBoardSolver.setKnownStatesCacheSize(knownStatesCacheSize);
+			bvBoardSolver.solve();
+			// Counting the solutions writes to the tables, leave it to a run after all the workers are done.
+			bvBoardSolverDb.close();
+			return;
+		} else if (byLevels) {
+			BoardSolver bvBoardSolver = new BoardSolver(numThreads, initialState, bvBoardSolverDb);
+			bvBoardSolver.solveByLevels();
+		} else {
+			BoardSolver bvBoardSolver = new BoardSolver(numThreads, initialState, bvBoardSolverDb, numConnections);
+			bvBoardSolver.setKnownStatesCacheSize(knownStatesCacheSize);
+			bvBoardSolver.setNumWriters(numWriters);
+			bvBoardSolver.solve();
+		}
+		if (bulk) {
+			bvBoardSolverDb.finishBulkBuild(bulkBuildWorkers);
+		}
+		// There are far too many solutions to enumerate, so count those and print a few drawn at random.
+		System.out.println("Found " + bvBoardSolverDb.countSolutions(initialState) + " solutions.");
+		Map<String, BoardState> solutions = bvBoardSolverDb.sampleSolutions(initialState, numSolutionsToPrint);
 		solutions.entrySet().stream().forEach(solution -> System.out.println("Moves " + solution.getKey() + " lead to final state " + solution.getValue().getDesc()));
+		bvBoardSolverDb.close();
 	}
 }
@@ -10,6 +10,21 @@ public class BrainVitaeBoard {
     static final int MAX_CELLS = 64;
     static final int UNUSED_CELL_INDEX = -1;
 
+    // The board looks the same when rotated by a multiple of 90 degrees or reflected. Symmetry number s reflects the
+    // board about the vertical axis if s >= NUM_ROTATIONS and then rotates it clockwise by 90 * (s % NUM_ROTATIONS)
+    // degrees. Symmetry 0 is identity.
+    static final int NUM_ROTATIONS = 4;
+    static final int NUM_SYMMETRIES = 2 * NUM_ROTATIONS;
+    private static final int BITS_PER_CHUNK = 8;
+    private static final int CHUNK_MASK = (1 << BITS_PER_CHUNK) - 1;
+    // symmetryIndexMap[s][i] is the index of the cell which the cell at index i moves to under symmetry s.
+    private final int symmetryIndexMap[][];
+    // Key of a state transformed by symmetry s is the OR of keyPermutations[s][chunk][bits in the chunk of the key] over
+    // all the BITS_PER_CHUNK bit chunks of the key.
+    private final long keyPermutations[][][];
+    // composedSymmetries[outer][inner] is the symmetry equivalent to applying inner followed by outer.
+    private final int composedSymmetries[][];
+
     public int getBoardSize() {
         return boardSize;
     }
@@ -53,6 +68,115 @@ public class BrainVitaeBoard {
             }
         }
         numUsedCells = index;
+
+        symmetryIndexMap = new int[NUM_SYMMETRIES][numUsedCells];
+        for (int symmetry = 0; symmetry < NUM_SYMMETRIES; symmetry++) {
+            for (int row = 0; row < size; row++) {
+                for (int col = 0; col < size; col++) {
+                    BVCell cell = new BVCell(row, col);
+                    if (isUsed(cell)) {
+                        symmetryIndexMap[symmetry][getIndex(cell)] = getIndex(transformCell(cell, symmetry));
+                    }
+                }
+            }
+        }
+
+        int numChunks = (numUsedCells + BITS_PER_CHUNK - 1) / BITS_PER_CHUNK;
+        keyPermutations = new long[NUM_SYMMETRIES][numChunks][1 << BITS_PER_CHUNK];
+        for (int symmetry = 0; symmetry < NUM_SYMMETRIES; symmetry++) {
+            for (int chunk = 0; chunk < numChunks; chunk++) {
+                for (int bits = 0; bits <= CHUNK_MASK; bits++) {
+                    long permuted = 0;
+                    for (int bit = 0; bit < BITS_PER_CHUNK; bit++) {
+                        int cellIndex = chunk * BITS_PER_CHUNK + bit;
+                        if ((bits & (1 << bit)) != 0 && cellIndex < numUsedCells) {
+                            permuted |= 1L << symmetryIndexMap[symmetry][cellIndex];
+                        }
+                    }
+                    keyPermutations[symmetry][chunk][bits] = permuted;
+                }
+            }
+        }
+
+        composedSymmetries = new int[NUM_SYMMETRIES][NUM_SYMMETRIES];
+        for (int outer = 0; outer < NUM_SYMMETRIES; outer++) {
+            for (int inner = 0; inner < NUM_SYMMETRIES; inner++) {
+                composedSymmetries[outer][inner] = findComposedSymmetry(outer, inner);
+            }
+        }
+    }
+
+    private int findComposedSymmetry(int outer, int inner) {
+        // Every symmetry moves the cells of the board differently, so exactly one of those matches.
+        for (int symmetry = 0; symmetry < NUM_SYMMETRIES; symmetry++) {
+            boolean matches = true;
+            for (int index = 0; index < numUsedCells && matches; index++) {
+                matches = symmetryIndexMap[symmetry][index] == symmetryIndexMap[outer][symmetryIndexMap[inner][index]];
+            }
+            if (matches) {
+                return symmetry;
+            }
+        }
+        throw new IllegalStateException("no symmetry equivalent to symmetry " + inner + " followed by " + outer);
+    }
+
+    /**
+     * @return the cell which the given cell moves to when the board is transformed by the given symmetry.
+     */
+    BVCell transformCell(BVCell cell, int symmetry) {
+        checkSymmetry(symmetry);
+        int row = cell.getRow();
+        int col = cell.getCol();
+        if (symmetry >= NUM_ROTATIONS) {
+            col = boardSize - 1 - col;
+        }
+        for (int cnt = 0; cnt < symmetry % NUM_ROTATIONS; cnt++) {
+            int rotatedCol = boardSize - 1 - row;
+            row = col;
+            col = rotatedCol;
+        }
+        return new BVCell(row, col);
+    }
+
+    /**
+     * @return the key of the state, with the given key, transformed by the given symmetry.
+     */
+    long transformKey(long key, int symmetry) {
+        checkSymmetry(symmetry);
+        long[][] chunkPermutations = keyPermutations[symmetry];
+        long result = 0;
+        for (int chunk = 0; chunk < chunkPermutations.length; chunk++) {
+            result |= chunkPermutations[chunk][(int) (key >>> (chunk * BITS_PER_CHUNK)) & CHUNK_MASK];
+        }
+        return result;
+    }
+
+    /**
+     * @return the symmetry equivalent to applying the inner symmetry followed by the outer symmetry.
+     */
+    int composeSymmetries(int outer, int inner) {
+        checkSymmetry(outer);
+        checkSymmetry(inner);
+        return composedSymmetries[outer][inner];
+    }
+
+    /**
+     * @return the symmetry which undoes the given symmetry.
+     */
+    int invertSymmetry(int symmetry) {
+        checkSymmetry(symmetry);
+        for (int inverse = 0; inverse < NUM_SYMMETRIES; inverse++) {
+            if (composedSymmetries[inverse][symmetry] == 0) {
+                return inverse;
+            }
+        }
+        throw new IllegalStateException("symmetry " + symmetry + " can not be undone.");
+    }
+
+    private void checkSymmetry(int symmetry) {
+        if (symmetry < 0 || symmetry >= NUM_SYMMETRIES) {
+            throw new IllegalArgumentException("invalid symmetry " + symmetry);
+        }
     }
 
     private boolean isValidCell(BVCell cell) {
@@ -0,0 +1,142 @@
+package com.ashutosh.utils;
+
+/**
+ * Set of primitive longs, safe for use by multiple threads. Keys can only be added, never removed.
+ *
+ * The keys are spread over a number of stripes by their hash, each stripe guarded by a lock of its own, so that the
+ * threads adding keys to different stripes do not contend, as in LongLongCache. Every stripe is an open addressing
+ * table with linear probing, as in LongLongHashMap, which grows as the keys are added. Thus the keys are never boxed:
+ * a key takes 14 to 27 bytes of the table, where a concurrent set of Longs takes a Long and a map node, over 50 bytes.
+ */
+public class ConcurrentLongHashSet {
+    private static final int NUM_STRIPES = 64;
+    // A slot in a stripe is free when it holds FREE_KEY. Since FREE_KEY is also a valid key, its presence is tracked
+    // outside the slots.
+    private static final long FREE_KEY = 0;
+    private static final float MAX_LOAD_FACTOR = 0.6f;
+    private static final int MIN_STRIPE_CAPACITY = 16;
+
+    private final Stripe[] stripes = new Stripe[NUM_STRIPES];
+    // The higher bits of the hash choose the stripe and the lower bits the slot within the stripe.
+    private final int stripeShift = 64 - Integer.numberOfTrailingZeros(NUM_STRIPES);
+
+    /**
+     * @param expectedSize expected number of keys, used to size the stripes so that those need not grow
+     */
+    public ConcurrentLongHashSet(long expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("expected non-negative size, but got " + expectedSize);
+        }
+        for (int cnt = 0; cnt < NUM_STRIPES; cnt++) {
+            stripes[cnt] = new Stripe(capacityFor((expectedSize + NUM_STRIPES - 1) / NUM_STRIPES));
+        }
+    }
+
+    /**
+     * Add the given key to the set.
+     * @return true if the key was not in the set already.
+     */
+    public boolean add(long key) {
+        long hash = LongLongHashMap.mix(key);
+        return stripes[(int) (hash >>> stripeShift)].add(key, hash);
+    }
+
+    public boolean contains(long key) {
+        long hash = LongLongHashMap.mix(key);
+        return stripes[(int) (hash >>> stripeShift)].contains(key, hash);
+    }
+
+    /**
+     * @return number of keys in the set
+     */
+    public long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            size = size + stripe.getSize();
+        }
+        return size;
+    }
+
+    private static int capacityFor(long expectedSize) {
+        long capacity = Long.highestOneBit(Math.max(MIN_STRIPE_CAPACITY,
+                                                    (long) Math.ceil(expectedSize / MAX_LOAD_FACTOR)) * 2 - 1);
+        if (capacity > (1 << 30)) {
+            throw new IllegalArgumentException("can not accommodate " + expectedSize + " keys in a stripe");
+        }
+        return (int) capacity;
+    }
+
+    // A part of the set with its own lock.
+    private static final class Stripe {
+        private long[] keys;
+        private int mask;
+        private int size = 0;
+        private int resizeThreshold;
+        private boolean hasFreeKey = false;
+
+        Stripe(int capacity) {
+            allocate(capacity);
+        }
+
+        synchronized boolean add(long key, long hash) {
+            if (key == FREE_KEY) {
+                if (hasFreeKey) {
+                    return false;
+                }
+                hasFreeKey = true;
+                size++;
+                return true;
+            }
+
+            int slot = findSlot(key, hash);
+            if (keys[slot] == key) {
+                return false;
+            }
+            keys[slot] = key;
+            if (++size > resizeThreshold) {
+                rehash(keys.length * 2);
+            }
+            return true;
+        }
+
+        synchronized boolean contains(long key, long hash) {
+            if (key == FREE_KEY) {
+                return hasFreeKey;
+            }
+            return keys[findSlot(key, hash)] == key;
+        }
+
+        synchronized int getSize() {
+            return size;
+        }
+
+        // Returns the slot holding the given key or the free slot where the key should be added.
+        private int findSlot(long key, long hash) {
+            int slot = (int) hash & mask;
+            while (keys[slot] != FREE_KEY && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void rehash(int newCapacity) {
+            // Doubling the largest capacity overflows.
+            if (newCapacity <= 0 || newCapacity > (1 << 30)) {
+                throw new IllegalStateException("stripe can not grow beyond " + keys.length + " slots");
+            }
+            long[] oldKeys = keys;
+            allocate(newCapacity);
+            for (long key : oldKeys) {
+                if (key != FREE_KEY) {
+                    keys[findSlot(key, LongLongHashMap.mix(key))] = key;
+                }
+            }
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            mask = capacity - 1;
+            resizeThreshold = (int) (capacity * MAX_LOAD_FACTOR);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.ashutosh.utils;
+
+/**
+ * Bounded map from a primitive long key to a primitive long value, safe for use by multiple threads.
+ *
+ * The keys are spread over a number of stripes by their hash, each stripe guarded by a lock of its own, so that the
+ * threads using different stripes do not contend. A stripe holds at most its share of the capacity. When it's full, an
+ * entry is evicted to make room using the CLOCK algorithm, which approximates LRU: an entry is marked referenced when
+ * it's read, and the clock hand sweeps over the entries unmarking those till it finds one not read since the last sweep.
+ * The hits and the misses are counted, so that the cache can be sized.
+ */
+public class LongLongCache {
+    private static final int MAX_STRIPES = 64;
+    // A stripe should hold enough keys for the eviction to find one not read lately.
+    private static final int MIN_STRIPE_CAPACITY = 16;
+
+    private final Stripe[] stripes;
+    private final int stripeShift;
+
+    /**
+     * @param capacity maximum number of keys in the cache
+     */
+    public LongLongCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("expected positive capacity, but got " + capacity);
+        }
+        int numStripes = Math.min(MAX_STRIPES, Integer.highestOneBit(Math.max(capacity / MIN_STRIPE_CAPACITY, 1)));
+        stripes = new Stripe[numStripes];
+        for (int cnt = 0; cnt < numStripes; cnt++) {
+            // The first capacity % numStripes stripes take one key more than the rest.
+            stripes[cnt] = new Stripe(capacity / numStripes + (cnt < capacity % numStripes ? 1 : 0));
+        }
+        // The higher bits of the hash choose the stripe and the lower bits the bucket within the stripe.
+        stripeShift = 64 - Integer.numberOfTrailingZeros(numStripes);
+    }
+
+    /**
+     * @return value associated with the given key, defaultValue if the key is not in the cache.
+     */
+    public long getOrDefault(long key, long defaultValue) {
+        long hash = LongLongHashMap.mix(key);
+        return getStripe(hash).getOrDefault(key, hash, defaultValue);
+    }
+
+    /**
+     * Associate given value with the given key, replacing the value associated with the key if any. Another key may be
+     * evicted to make room for the given key.
+     */
+    public void put(long key, long value) {
+        long hash = LongLongHashMap.mix(key);
+        getStripe(hash).put(key, hash, value);
+    }
+
+    /**
+     * @return number of keys in the cache
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size = size + stripe.getSize();
+        }
+        return size;
+    }
+
+    /**
+     * @return number of lookups which found the key
+     */
+    public long getNumHits() {
+        long numHits = 0;
+        for (Stripe stripe : stripes) {
+            numHits = numHits + stripe.getNumHits();
+        }
+        return numHits;
+    }
+
+    /**
+     * @return number of lookups which did not find the key
+     */
+    public long getNumMisses() {
+        long numMisses = 0;
+        for (Stripe stripe : stripes) {
+            numMisses = numMisses + stripe.getNumMisses();
+        }
+        return numMisses;
+    }
+
+    private Stripe getStripe(long hash) {
+        // A shift by 64 leaves the value unchanged, so a single stripe is special.
+        return stripes.length == 1 ? stripes[0] : stripes[(int) (hash >>> stripeShift)];
+    }
+
+    // A part of the cache with its own lock. The entries live at [0, size) in the entry arrays, and an open addressing
+    // index with linear probing maps a key to 1 + the position of its entry, 0 marking a free bucket. The index is at
+    // most half full.
+    private static final class Stripe {
+        private final long[] keys;
+        private final long[] values;
+        private final boolean[] referenced;
+        private final int[] index;
+        private final int mask;
+        private int size = 0;
+        private int hand = 0;
+        private long numHits = 0;
+        private long numMisses = 0;
+
+        Stripe(int capacity) {
+            keys = new long[capacity];
+            values = new long[capacity];
+            referenced = new boolean[capacity];
+            index = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+            mask = index.length - 1;
+        }
+
+        synchronized long getOrDefault(long key, long hash, long defaultValue) {
+            int entry = index[findBucket(key, hash)] - 1;
+            if (entry < 0) {
+                numMisses++;
+                return defaultValue;
+            }
+            numHits++;
+            referenced[entry] = true;
+            return values[entry];
+        }
+
+        synchronized void put(long key, long hash, long value) {
+            int bucket = findBucket(key, hash);
+            int entry = index[bucket] - 1;
+            if (entry < 0) {
+                if (size < keys.length) {
+                    entry = size++;
+                } else {
+                    entry = evict();
+                    // Removing the evicted key may have moved the free bucket.
+                    bucket = findBucket(key, hash);
+                }
+                keys[entry] = key;
+                referenced[entry] = false;
+                index[bucket] = entry + 1;
+            }
+            values[entry] = value;
+        }
+
+        synchronized int getSize() {
+            return size;
+        }
+
+        synchronized long getNumHits() {
+            return numHits;
+        }
+
+        synchronized long getNumMisses() {
+            return numMisses;
+        }
+
+        // Returns the bucket holding the given key or the free bucket where the key should be added.
+        private int findBucket(long key, long hash) {
+            int bucket = (int) hash & mask;
+            while (index[bucket] != 0 && keys[index[bucket] - 1] != key) {
+                bucket = (bucket + 1) & mask;
+            }
+            return bucket;
+        }
+
+        // Evict the entry at the first position, starting at the clock hand, not referenced since the last sweep and
+        // return that position.
+        private int evict() {
+            while (referenced[hand]) {
+                referenced[hand] = false;
+                hand = (hand + 1) % keys.length;
+            }
+            int entry = hand;
+            hand = (hand + 1) % keys.length;
+
+            // Remove the key from the index, shifting back the keys which follow it in the probe sequence, so that
+            // those can still be found without leaving tombstones behind.
+            int bucket = findBucket(keys[entry], LongLongHashMap.mix(keys[entry]));
+            int next = (bucket + 1) & mask;
+            while (index[next] != 0) {
+                int home = (int) LongLongHashMap.mix(keys[index[next] - 1]) & mask;
+                // The key in the next bucket can move to the free bucket if it's no closer to its home bucket.
+                if (((next - home) & mask) >= ((next - bucket) & mask)) {
+                    index[bucket] = index[next];
+                    bucket = next;
+                }
+                next = (next + 1) & mask;
+            }
+            index[bucket] = 0;
+            return entry;
+        }
+    }
+}
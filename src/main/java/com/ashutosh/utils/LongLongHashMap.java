@@ -0,0 +1,142 @@
+package com.ashutosh.utils;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from a primitive long key to a primitive long value.
+ *
+ * Keys and values live in two parallel arrays and collisions are resolved using open addressing with linear probing,
+ * so neither keys nor values are ever boxed. An entry can not be removed once added. The map is not thread safe.
+ */
+public class LongLongHashMap {
+    // A slot in the keys array is free when it holds FREE_KEY. Since FREE_KEY is also a valid key, its presence and
+    // value are tracked outside the arrays.
+    private static final long FREE_KEY = 0;
+    private static final float MAX_LOAD_FACTOR = 0.6f;
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private long[] values;
+    private int mask;
+    private int size;
+    private int resizeThreshold;
+    private boolean hasFreeKey = false;
+    private long freeKeyValue;
+
+    public LongLongHashMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    public LongLongHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @return number of keys in the map
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean containsKey(long key) {
+        if (key == FREE_KEY) {
+            return hasFreeKey;
+        }
+        return keys[findSlot(key)] == key;
+    }
+
+    /**
+     * @return value associated with the given key, defaultValue if the key is not in the map.
+     */
+    public long getOrDefault(long key, long defaultValue) {
+        if (key == FREE_KEY) {
+            return hasFreeKey ? freeKeyValue : defaultValue;
+        }
+        int slot = findSlot(key);
+        return keys[slot] == key ? values[slot] : defaultValue;
+    }
+
+    /**
+     * Associate given value with the given key, replacing the value associated with the key if any.
+     */
+    public void put(long key, long value) {
+        if (key == FREE_KEY) {
+            if (!hasFreeKey) {
+                hasFreeKey = true;
+                size++;
+            }
+            freeKeyValue = value;
+            return;
+        }
+
+        int slot = findSlot(key);
+        if (keys[slot] != key) {
+            keys[slot] = key;
+            if (++size > resizeThreshold) {
+                values[slot] = value;
+                rehash(keys.length * 2);
+                return;
+            }
+        }
+        values[slot] = value;
+    }
+
+    /**
+     * Remove all the keys, retaining the memory allocated for the map.
+     */
+    public void clear() {
+        Arrays.fill(keys, FREE_KEY);
+        hasFreeKey = false;
+        size = 0;
+    }
+
+    /**
+     * Spread the bits of the key so that keys differing only in the higher bits (e.g. bit encoded board states) do not
+     * cluster in the table. This is the finalizer of MurmurHash3.
+     */
+    public static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    // Returns the slot holding the given key or the free slot where the key should be inserted.
+    private int findSlot(long key) {
+        int slot = (int) mix(key) & mask;
+        while (keys[slot] != FREE_KEY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(newCapacity);
+        for (int cnt = 0; cnt < oldKeys.length; cnt++) {
+            if (oldKeys[cnt] != FREE_KEY) {
+                int slot = findSlot(oldKeys[cnt]);
+                keys[slot] = oldKeys[cnt];
+                values[slot] = oldValues[cnt];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+        resizeThreshold = (int) (capacity * MAX_LOAD_FACTOR);
+    }
+
+    private static int capacityFor(int expectedSize) {
+        long capacity = Long.highestOneBit(Math.max(MIN_CAPACITY, (long) Math.ceil(expectedSize / MAX_LOAD_FACTOR)) * 2 - 1);
+        if (capacity > (1 << 30)) {
+            throw new IllegalArgumentException("can not accommodate " + expectedSize + " keys");
+        }
+        return (int) capacity;
+    }
+}
@@ -0,0 +1,138 @@
+package com.ashutosh.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Fixed size array of longs stored outside the Java heap, either in a memory mapped file or in direct byte buffers.
+ *
+ * A single buffer can not be larger than 2GB, so the array is split into segments of equal size, each of which is
+ * mapped or allocated separately. Reads and writes of different elements are thread safe; the callers need to
+ * synchronize accesses to the same element.
+ */
+public class MappedLongArray implements AutoCloseable {
+    // Each segment holds 2^DEFAULT_SEGMENT_SHIFT longs i.e. 1GB.
+    private static final int DEFAULT_SEGMENT_SHIFT = 27;
+
+    private final long length;
+    private final int segmentShift;
+    private final long segmentMask;
+    private final ByteBuffer[] segments;
+    private final FileChannel channel;
+
+    /**
+     * Create an array of given length in direct byte buffers, initialized to zeroes.
+     */
+    public MappedLongArray(long length) {
+        this(length, DEFAULT_SEGMENT_SHIFT);
+    }
+
+    MappedLongArray(long length, int segmentShift) {
+        this.length = length;
+        this.segmentShift = segmentShift;
+        this.segmentMask = (1L << segmentShift) - 1;
+        this.channel = null;
+        this.segments = new ByteBuffer[numSegments()];
+        for (int cnt = 0; cnt < segments.length; cnt++) {
+            segments[cnt] = ByteBuffer.allocateDirect(segmentBytes(cnt));
+        }
+    }
+
+    /**
+     * Create an array of given length mapped to the given file. Any existing contents of the file are discarded and the
+     * array is initialized to zeroes.
+     */
+    public MappedLongArray(Path file, long length) throws IOException {
+        this(file, length, DEFAULT_SEGMENT_SHIFT);
+    }
+
+    MappedLongArray(Path file, long length, int segmentShift) throws IOException {
+        this(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                              StandardOpenOption.TRUNCATE_EXISTING),
+             FileChannel.MapMode.READ_WRITE, length, segmentShift);
+    }
+
+    private MappedLongArray(FileChannel channel, FileChannel.MapMode mode, long length, int segmentShift)
+            throws IOException {
+        this.length = length;
+        this.segmentShift = segmentShift;
+        this.segmentMask = (1L << segmentShift) - 1;
+        this.channel = channel;
+        this.segments = new ByteBuffer[numSegments()];
+        long position = 0;
+        try {
+            for (int cnt = 0; cnt < segments.length; cnt++) {
+                segments[cnt] = channel.map(mode, position, segmentBytes(cnt));
+                position = position + segmentBytes(cnt);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Map the given file, holding an array written earlier, read only. The array has as many elements as the file holds
+     * longs. Setting an element fails.
+     */
+    public static MappedLongArray openReadOnly(Path file) throws IOException {
+        return openReadOnly(file, DEFAULT_SEGMENT_SHIFT);
+    }
+
+    static MappedLongArray openReadOnly(Path file, int segmentShift) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new MappedLongArray(channel, FileChannel.MapMode.READ_ONLY, channel.size() / Long.BYTES,
+                                       segmentShift);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public long get(long index) {
+        return segments[segment(index)].getLong(offset(index));
+    }
+
+    public void set(long index, long value) {
+        segments[segment(index)].putLong(offset(index), value);
+    }
+
+    private int numSegments() {
+        return (int) ((length + segmentMask) >>> segmentShift);
+    }
+
+    // All the segments except the last one are full.
+    private int segmentBytes(int segment) {
+        long segmentLength = Math.min(length - ((long) segment << segmentShift), 1L << segmentShift);
+        return (int) (segmentLength * Long.BYTES);
+    }
+
+    private int segment(long index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index " + index + " out of bounds for length " + length);
+        }
+        return (int) (index >>> segmentShift);
+    }
+
+    private int offset(long index) {
+        return (int) (index & segmentMask) * Long.BYTES;
+    }
+
+    /**
+     * Release the file backing the array if any. The memory is released when the buffers are garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.ashutosh.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter over primitive long keys which grows with the number of keys added, safe for use by multiple threads.
+ *
+ * A Bloom filter tells whether a key might have been added. A "no" is definite, whereas a "maybe" is wrong for a
+ * fraction of the keys not added, the false positive rate. A filter of a fixed size gets more and more false positives
+ * as keys are added beyond its capacity. Hence, like a scalable Bloom filter, a new filter twice the size of the last
+ * one, with half its false positive rate, is added whenever the last one reaches its capacity. A key is looked up in all
+ * the filters, so the false positive rate stays below twice that of the first filter however many keys are added.
+ *
+ * The bits are set using compare and swap, so the threads adding keys do not block each other; only adding a filter
+ * takes a lock. Keys can not be removed.
+ */
+public class ScalableBloomFilter {
+    private static final long MIN_CAPACITY = 1024;
+
+    private final double falsePositiveRate;
+    // Filters added so far, the last one being the one the keys are added to. Replaced, never modified, when a filter is
+    // added.
+    private volatile Filter[] filters;
+
+    /**
+     * @param expectedKeys number of keys the first filter holds
+     * @param falsePositiveRate false positive rate of the first filter
+     */
+    public ScalableBloomFilter(long expectedKeys, double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("invalid false positive rate " + falsePositiveRate);
+        }
+        this.falsePositiveRate = falsePositiveRate;
+        this.filters = new Filter[]{new Filter(Math.max(expectedKeys, MIN_CAPACITY), falsePositiveRate / 2)};
+    }
+
+    /**
+     * @return false if the given key was definitely not added, true if it might have been.
+     */
+    public boolean mightContain(long key) {
+        long hash = LongLongHashMap.mix(key);
+        for (Filter filter : filters) {
+            if (filter.mightContain(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add the given key, unless it might have been added already.
+     */
+    public void add(long key) {
+        long hash = LongLongHashMap.mix(key);
+        Filter[] curFilters = filters;
+        for (Filter filter : curFilters) {
+            if (filter.mightContain(hash)) {
+                return;
+            }
+        }
+        Filter lastFilter = curFilters[curFilters.length - 1];
+        if (lastFilter.add(hash) >= lastFilter.capacity) {
+            grow(lastFilter);
+        }
+    }
+
+    /**
+     * @return number of keys added, not counting those which were reported as might have been added already.
+     */
+    public long getNumKeys() {
+        long numKeys = 0;
+        for (Filter filter : filters) {
+            numKeys = numKeys + filter.numKeys.get();
+        }
+        return numKeys;
+    }
+
+    /**
+     * @return number of bits used by the filters
+     */
+    public long getNumBits() {
+        long numBits = 0;
+        for (Filter filter : filters) {
+            numBits = numBits + filter.numBits;
+        }
+        return numBits;
+    }
+
+    /**
+     * @return false positive rate expected from the number of keys added to the filters so far
+     */
+    public double getExpectedFalsePositiveRate() {
+        // A key not added is reported as might have been added if any of the filters reports so.
+        double negativeRate = 1;
+        for (Filter filter : filters) {
+            negativeRate = negativeRate * (1 - filter.getExpectedFalsePositiveRate());
+        }
+        return 1 - negativeRate;
+    }
+
+    private synchronized void grow(Filter fullFilter) {
+        Filter[] curFilters = filters;
+        Filter lastFilter = curFilters[curFilters.length - 1];
+        // Another thread may have added a filter already.
+        if (lastFilter != fullFilter) {
+            return;
+        }
+        Filter[] newFilters = Arrays.copyOf(curFilters, curFilters.length + 1);
+        newFilters[curFilters.length] = new Filter(lastFilter.capacity * 2,
+                                                    falsePositiveRate / (2L << curFilters.length));
+        filters = newFilters;
+    }
+
+    // A Bloom filter of a fixed size. A key is hashed to numHashes bits by double hashing: the i-th bit is
+    // h1 + i * h2, where h1 and h2 are the two halves of the hash of the key.
+    private static final class Filter {
+        private final long capacity;
+        private final long numBits;
+        private final int numHashes;
+        private final long mask;
+        private final AtomicLongArray bits;
+        private final AtomicLong numKeys = new AtomicLong();
+
+        Filter(long capacity, double falsePositiveRate) {
+            // The optimal number of bits is -n ln(p) / (ln 2)^2, rounded up to a power of two here.
+            long optimalBits = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+            this.numBits = Math.max(Long.highestOneBit(optimalBits - 1) << 1, Long.SIZE);
+            if (numBits / Long.SIZE > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("can not accommodate " + capacity + " keys");
+            }
+            this.capacity = capacity;
+            this.numHashes = Math.max(1, (int) Math.round((double) numBits / capacity * Math.log(2)));
+            this.mask = numBits - 1;
+            this.bits = new AtomicLongArray((int) (numBits / Long.SIZE));
+        }
+
+        boolean mightContain(long hash) {
+            long h1 = hash;
+            long h2 = (hash >>> 32) | 1;
+            for (int cnt = 0; cnt < numHashes; cnt++) {
+                long bit = (h1 + cnt * h2) & mask;
+                if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Returns the number of keys added to this filter, including the given one.
+        long add(long hash) {
+            long h1 = hash;
+            long h2 = (hash >>> 32) | 1;
+            for (int cnt = 0; cnt < numHashes; cnt++) {
+                long bit = (h1 + cnt * h2) & mask;
+                int word = (int) (bit >>> 6);
+                long bitMask = 1L << bit;
+                long oldWord;
+                while (((oldWord = bits.get(word)) & bitMask) == 0 &&
+                       !bits.compareAndSet(word, oldWord, oldWord | bitMask)) {
+                    // Another thread changed the word meanwhile, try again.
+                }
+            }
+            return numKeys.incrementAndGet();
+        }
+
+        double getExpectedFalsePositiveRate() {
+            // Every bit is set with probability 1 - e^(-kn/m).
+            return Math.pow(1 - Math.exp(-(double) numHashes * numKeys.get() / numBits), numHashes);
+        }
+    }
+}
@@ -7,6 +7,8 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -29,6 +31,7 @@ public class BoardSolverDBTest {
     @AfterClass
     public static void tearDownClass() throws Exception {
         db.dropObjects();
+        db.close();
     }
 
     @After
@@ -80,4 +83,121 @@ public class BoardSolverDBTest {
             Assert.assertTrue(bsdbConn.hasMoves(initialSampleState, moves));
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSearchAndInsertStates() throws Exception {
+        long id = 1000;
+        try (BoardSolverDB.BSDCConn bsdbConn = db.getConnection()) {
+            SampleBoardState existingState = new SampleBoardState(5);
+            bsdbConn.searchAndInsertState(existingState, id);
+
+            // A batch with a state already in the database and a state repeated within the batch.
+            List<BoardState> states = new ArrayList<>();
+            states.add(new SampleBoardState(3));
+            states.add(new SampleBoardState(5));
+            states.add(new SampleBoardState(3));
+            states.add(new SampleBoardState(7));
+            long firstId = id + 100;
+            bsdbConn.searchAndInsertStates(states, firstId);
+
+            Assert.assertEquals(id, states.get(1).getId());
+            Assert.assertEquals(states.get(0).getId(), states.get(2).getId());
+            Assert.assertTrue(states.get(0).getId() == firstId || states.get(0).getId() == firstId + 2);
+            Assert.assertEquals(firstId + 3, states.get(3).getId());
+
+            // All the states are recorded as new states, but the existing one is not inserted again.
+            Assert.assertEquals(3, bsdbConn.readUnprocessedStates(existingState).size());
+        }
+    }
+
+    @Test
+    public void testExpandState() throws Exception {
+        long id = 1000;
+        try (BoardSolverDB.BSDCConn bsdbConn = db.getConnection()) {
+            SampleBoardState initialState = new SampleBoardState();
+            bsdbConn.searchAndInsertState(initialState, id);
+            // One of the resultant states is already in the database.
+            SampleBoardState existingState = new SampleBoardState(5);
+            bsdbConn.searchAndInsertState(existingState, id + 1);
+            bsdbConn.readUnprocessedStates(initialState);
+
+            List<BoardMove> moves = initialState.getPossibleMoves();
+            Map<BoardMove, BoardState> movesToStates = new HashMap<>(moves.size());
+            for (BoardMove move : moves) {
+                movesToStates.put(move, initialState.apply(move));
+            }
+            long firstId = id + 100;
+            bsdbConn.expandStates(Collections.singletonList(initialState), Collections.singletonList(movesToStates),
+                                  Collections.emptyList(), Collections.emptyList(), firstId);
+
+            for (BoardState result : movesToStates.values()) {
+                if (result.getDesc().equals(existingState.getDesc())) {
+                    Assert.assertEquals(existingState.getId(), result.getId());
+                } else {
+                    Assert.assertTrue(result.getId() >= firstId && result.getId() < firstId + moves.size());
+                }
+            }
+            Assert.assertTrue(bsdbConn.hasMoves(initialState, moves));
+
+            // The initial state is processed and the existing state was queued already. So only the rest of the
+            // resultant states are unprocessed.
+            Assert.assertEquals(moves.size() - 1, bsdbConn.readUnprocessedStates(initialState).size());
+        }
+    }
+
+    @Test
+    public void testExpandStatesWithAbsentStates() throws Exception {
+        long id = 1000;
+        try (BoardSolverDB.BSDCConn bsdbConn = db.getConnection()) {
+            SampleBoardState initialState = new SampleBoardState();
+            bsdbConn.searchAndInsertState(initialState, id);
+            SampleBoardState existingState = new SampleBoardState(5);
+            bsdbConn.searchAndInsertState(existingState, id + 1);
+            bsdbConn.readUnprocessedStates(initialState);
+
+            // The first resultant state is searched, the existing one is passed as known and the rest as absent.
+            List<BoardMove> moves = initialState.getPossibleMoves();
+            Map<BoardMove, BoardState> newStates = new HashMap<>();
+            Map<BoardMove, BoardState> absentStates = new HashMap<>();
+            Map<BoardMove, BoardState> knownStates = new HashMap<>();
+            for (BoardMove move : moves) {
+                BoardState result = initialState.apply(move);
+                if (result.getKey() == existingState.getKey()) {
+                    result.setId(existingState.getId());
+                    knownStates.put(move, result);
+                } else {
+                    (newStates.isEmpty() ? newStates : absentStates).put(move, result);
+                }
+            }
+            long firstId = id + 100;
+            bsdbConn.expandStates(Collections.singletonList(initialState), Collections.singletonList(newStates),
+                                  Collections.singletonList(absentStates), Collections.singletonList(knownStates),
+                                  firstId);
+
+            Assert.assertEquals(existingState.getId(), knownStates.values().iterator().next().getId());
+            for (BoardState result : newStates.values()) {
+                Assert.assertEquals(firstId, result.getId());
+            }
+            for (BoardState result : absentStates.values()) {
+                Assert.assertTrue(result.getId() > firstId && result.getId() < firstId + moves.size());
+            }
+            Assert.assertTrue(bsdbConn.hasMoves(initialState, moves));
+            Assert.assertEquals(moves.size() - 1, bsdbConn.readUnprocessedStates(initialState).size());
+
+            // A state wrongly passed as absent is not inserted again, it's found instead.
+            SampleBoardState nextState = new SampleBoardState(2);
+            bsdbConn.searchAndInsertState(nextState, id + 200);
+            List<BoardMove> nextMoves = nextState.getPossibleMoves();
+            Map<BoardMove, BoardState> nextAbsentStates = new HashMap<>();
+            for (BoardMove move : nextMoves) {
+                nextAbsentStates.put(move, nextState.apply(move));
+            }
+            bsdbConn.expandStates(Collections.singletonList(nextState), Collections.emptyList(),
+                                  Collections.singletonList(nextAbsentStates), Collections.emptyList(), id + 300);
+            for (BoardState result : nextAbsentStates.values()) {
+                Assert.assertTrue(result.getId() >= firstId && result.getId() < firstId + moves.size() ||
+                                  result.getId() == existingState.getId());
+            }
+        }
+    }
+}
@@ -5,9 +5,27 @@ import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.Assert.*;
 
@@ -21,6 +39,9 @@ public class BoardSolverTest {
     private final static BoardSolverDB db = new BoardSolverDB(dbUrl, dbUser, dbPassword, statesTableName, movesTableName,
             dbSchema);
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     @BeforeClass
     public static void setUpClass() throws Exception {
         db.createObjects();
@@ -29,6 +50,7 @@ public class BoardSolverTest {
     @AfterClass
     public static void tearDownClass() throws Exception {
         db.dropObjects();
+        db.close();
     }
 
     @After
@@ -36,13 +58,54 @@ public class BoardSolverTest {
         db.clearObjects();
     }
 
+    // Another instance on the tables of db, like another process would have.
+    private static BoardSolverDB newDb() {
+        return new BoardSolverDB(dbUrl, dbUser, dbPassword, statesTableName, movesTableName, dbSchema);
+    }
+
+    private List<BoardSolver> solveInAllModes(BoardSolverDB solverDb) throws Exception {
+        return solveInAllModes(solverDb, (solver, numThreads) -> { });
+    }
+
+    // Solve the board using the given instance with 1 to 3 threads, each with a connection per thread as well as with a
+    // pool of connections, after configuring the solver using the given function of the solver and its number of
+    // threads. Returns the solvers used.
+    private List<BoardSolver> solveInAllModes(BoardSolverDB solverDb, ObjIntConsumer<BoardSolver> configure)
+            throws Exception {
+        List<BoardSolver> solvers = new ArrayList<>();
+        for (int numConnections = 0; numConnections < 2; numConnections++) {
+            for (int numThreads = 1; numThreads < 4; numThreads++) {
+                SampleBoardState initialState = new SampleBoardState();
+                BoardSolver solver = new BoardSolver(numThreads, initialState, solverDb, numConnections);
+                configure.accept(solver, numThreads);
+                testBoardSolver(solver, initialState);
+                solvers.add(solver);
+                solverDb.clearObjects();
+            }
+        }
+        return solvers;
+    }
+
     private void testBoardSolver(BoardSolver solver, BoardState initialState) throws Exception {
         solver.solve();
+        checkSolutions(initialState);
+    }
+
+    private void checkSolutions(BoardState initialState) throws Exception {
         Map<String, BoardState>  solutions = db.findSolutions(initialState);
         Assert.assertEquals(SampleBoardState.numSolutions(), Long.valueOf(solutions.size()));
         for (BoardState finalState : solutions.values()) {
             Assert.assertTrue(finalState.isFinalState());
         }
+
+        // The solutions counted and sampled should be the ones found.
+        Assert.assertEquals(BigInteger.valueOf(solutions.size()), db.countSolutions(initialState));
+        Map<String, BoardState> samples = db.sampleSolutions(initialState, 5);
+        Assert.assertEquals(5, samples.size());
+        for (Map.Entry<String, BoardState> sample : samples.entrySet()) {
+            Assert.assertEquals(solutions.get(sample.getKey()).getKey(), sample.getValue().getKey());
+        }
+        Assert.assertEquals(solutions.keySet(), db.sampleSolutions(initialState, solutions.size()).keySet());
     }
 
     @Test
@@ -60,4 +123,410 @@ public class BoardSolverTest {
             testBoardSolver(solver, initialState);
         }
     }
+
+    @Test
+    public void testPooledBoardSolver() throws Exception {
+        // More threads than connections, as well as fewer.
+        for (int numThreads = 1; numThreads < 5; numThreads++) {
+            SampleBoardState initialState = new SampleBoardState();
+            BoardSolver solver = new BoardSolver(numThreads, initialState, db, 2);
+            testBoardSolver(solver, initialState);
+            db.clearObjects();
+        }
+    }
+
+    @Test
+    public void testCachedBoardSolver() throws Exception {
+        BoardSolverDB copyDb = newDb();
+        copyDb.setCopyFlushSize(3);
+        try {
+            // The state processors, the pooled solver, and COPY, which does not assign ids to cache right away. The
+            // cache is smaller than the number of states, so that some are evicted.
+            for (BoardSolverDB solverDb : new BoardSolverDB[]{db, copyDb}) {
+                List<BoardSolver> solvers = solveInAllModes(solverDb,
+                                                            (solver, numThreads) -> solver.setKnownStatesCacheSize(5));
+                if (solverDb == db) {
+                    for (BoardSolver solver : solvers) {
+                        Assert.assertTrue(solver.getKnownStates().getNumHits() > 0);
+                    }
+                }
+            }
+        } finally {
+            copyDb.close();
+        }
+    }
+
+    @Test
+    public void testPipelinedBoardSolver() throws Exception {
+        BoardSolverDB copyDb = newDb();
+        copyDb.setCopyFlushSize(3);
+        try {
+            for (BoardSolverDB solverDb : new BoardSolverDB[]{db, copyDb}) {
+                for (int numWriters = 1; numWriters < 3; numWriters++) {
+                    int writers = numWriters;
+                    solveInAllModes(solverDb, (solver, numThreads) -> {
+                        solver.setNumWriters(writers);
+                        solver.setKnownStatesCacheSize(numThreads > 2 ? 5 : 0);
+                    });
+                }
+            }
+        } finally {
+            copyDb.close();
+        }
+    }
+
+    @Test
+    public void testStateFilter() throws Exception {
+        BoardSolverDB filterDb = newDb();
+        filterDb.setStateFilterFalsePositiveRate(0.01);
+        try {
+            solveInAllModes(filterDb);
+            Assert.assertTrue(filterDb.getStateFilterFalsePositiveRate() < 0.1);
+
+            // A filter created on a table with states is loaded with those, so those are searched and found.
+            SampleBoardState initialState = new SampleBoardState();
+            testBoardSolver(new BoardSolver(1, initialState, filterDb), initialState);
+            BoardSolverDB loadedDb = newDb();
+            loadedDb.setStateFilterFalsePositiveRate(0.01);
+            try (StateStore.Conn dbConn = loadedDb.getConnection()) {
+                SampleBoardState searchedState = new SampleBoardState();
+                dbConn.searchAndInsertState(searchedState, -1);
+                Assert.assertEquals(initialState.getId(), searchedState.getId());
+                Assert.assertEquals(0, loadedDb.getStateFilterFalsePositiveRate(), 0);
+            } finally {
+                loadedDb.close();
+            }
+        } finally {
+            filterDb.close();
+        }
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        BoardSolverDB groupDb = newDb();
+        groupDb.setGroupCommit(5, 1000);
+        try {
+            solveInAllModes(groupDb);
+
+            // The ids of the resultant states are assigned when the results held are recorded.
+            SampleBoardState initialState = new SampleBoardState();
+            new BoardSolver(2, initialState, groupDb, 2).solveByLevels();
+            Map<String, BoardState> solutions = groupDb.findSolutions(initialState);
+            Assert.assertEquals(SampleBoardState.numSolutions(), Long.valueOf(solutions.size()));
+
+            Assert.assertTrue(groupDb.getNumCommits() > 0);
+            Assert.assertTrue(groupDb.getStatesPerCommit() > 1);
+            Assert.assertTrue(groupDb.getCommitsPerSecond() > 0);
+        } finally {
+            groupDb.close();
+        }
+    }
+
+    @Test
+    public void testBulkBuild() throws Exception {
+        for (int numPartitions = 0; numPartitions < 3; numPartitions = numPartitions + 2) {
+            BoardSolverDB bulkDb = new BoardSolverDB(dbUrl, dbUser, dbPassword, statesTableName, movesTableName,
+                                                     dbSchema + "_bulk");
+            bulkDb.setBulkBuild(true);
+            bulkDb.setNumPartitions(numPartitions);
+            bulkDb.createObjects();
+            try {
+                SampleBoardState initialState = new SampleBoardState();
+                new BoardSolver(3, initialState, bulkDb, 2).solve();
+
+                // Record the moves of the initial state again, as if it were processed again after its lease expired.
+                try (StateStore.Conn dbConn = bulkDb.getConnection()) {
+                    BoardState canonicalState = initialState.canonicalize();
+                    canonicalState.setId(initialState.getId());
+                    Map<BoardMove, BoardState> newStates = StateProcessor.getNewStates(canonicalState);
+                    for (BoardState newState : newStates.values()) {
+                        dbConn.searchAndInsertState(newState, -1);
+                    }
+                    dbConn.addMoves(canonicalState, newStates);
+                }
+                Assert.assertEquals(0, bulkDb.verifyBulkBuild());
+                bulkDb.finishBulkBuild(2);
+
+                Map<String, BoardState> solutions = bulkDb.findSolutions(initialState);
+                Assert.assertEquals(SampleBoardState.numSolutions(), Long.valueOf(solutions.size()));
+                Assert.assertEquals(BigInteger.valueOf(solutions.size()), bulkDb.countSolutions(initialState));
+            } finally {
+                bulkDb.dropObjects();
+                bulkDb.close();
+            }
+        }
+    }
+
+    @Test
+    public void testBulkBuildViolations() throws Exception {
+        BoardSolverDB bulkDb = new BoardSolverDB(dbUrl, dbUser, dbPassword, statesTableName, movesTableName,
+                                                 dbSchema + "_bulk");
+        bulkDb.setBulkBuild(true);
+        bulkDb.createObjects();
+        try {
+            SampleBoardState initialState = new SampleBoardState();
+            new BoardSolver(1, initialState, bulkDb).solve();
+
+            // A move to a state not in the states table.
+            try (StateStore.Conn dbConn = bulkDb.getConnection()) {
+                BoardState canonicalState = initialState.canonicalize();
+                canonicalState.setId(initialState.getId());
+                Map<BoardMove, BoardState> newStates = StateProcessor.getNewStates(canonicalState);
+                Map.Entry<BoardMove, BoardState> entry = newStates.entrySet().iterator().next();
+                entry.getValue().setId(Long.MAX_VALUE);
+                dbConn.addMoves(canonicalState, Collections.singletonMap(entry.getKey(), entry.getValue()));
+            }
+            // The move is recorded once again, but with a different end state.
+            Assert.assertEquals(2, bulkDb.verifyBulkBuild());
+            try {
+                bulkDb.finishBulkBuild(2);
+                Assert.fail("expected the bulk build to not finish");
+            } catch (IllegalStateException ise) {
+                // expected
+            }
+        } finally {
+            bulkDb.dropObjects();
+            bulkDb.close();
+        }
+    }
+
+    @Test
+    public void testLevelBoardSolver() throws Exception {
+        for (int numThreads = 1; numThreads < 4; numThreads++) {
+            SampleBoardState initialState = new SampleBoardState();
+            new BoardSolver(numThreads, initialState, db, 2).solveByLevels();
+            Map<String, BoardState> solutions = db.findSolutions(initialState);
+            Assert.assertEquals(SampleBoardState.numSolutions(), Long.valueOf(solutions.size()));
+            db.clearObjects();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testLevelBoardSolverNeedsIds() throws Exception {
+        // COPY assigns ids to the resultant states only when those are merged into the states table.
+        BoardSolverDB copyDb = newDb();
+        copyDb.setCopyFlushSize(3);
+        try {
+            new BoardSolver(2, new SampleBoardState(), copyDb).solveByLevels();
+        } finally {
+            copyDb.close();
+        }
+    }
+
+    @Test
+    public void testResumedBoardSolver() throws Exception {
+        for (int numThreads = 1; numThreads < 4; numThreads++) {
+            // A run which processed the initial state and queued the resultant states, but died before processing those.
+            SampleBoardState initialState = new SampleBoardState();
+            BoardSolverDB deadDb = newDb();
+            try (StateStore.Conn dbConn = deadDb.getConnection()) {
+                long firstId = deadDb.getNextId();
+                dbConn.searchAndInsertState(initialState, firstId);
+                Assert.assertEquals(1, dbConn.readUnprocessedStates(initialState).size());
+                dbConn.expandStates(Collections.singletonList(initialState),
+                                    Collections.singletonList(StateProcessor.getNewStates(initialState)),
+                                    Collections.emptyList(), Collections.emptyList(), firstId + 1);
+                Assert.assertFalse(dbConn.readUnprocessedStates(initialState).isEmpty());
+            } finally {
+                deadDb.close();
+            }
+
+            BoardSolver solver = new BoardSolver(numThreads, initialState, db);
+            solver.resume();
+            checkSolutions(initialState);
+            // Resuming a finished run has nothing to do.
+            solver.resume();
+            checkSolutions(initialState);
+            db.clearObjects();
+        }
+    }
+
+    @Test
+    public void testExpiredLease() throws Exception {
+        SampleBoardState initialState = new SampleBoardState();
+        BoardSolverDB otherDb = newDb();
+        otherDb.setLeaseMillis(0);
+        try (StateStore.Conn otherConn = otherDb.getConnection();
+             StateStore.Conn dbConn = db.getConnection()) {
+            otherConn.searchAndInsertState(initialState, 0);
+            Assert.assertEquals(1, otherConn.readUnprocessedStates(initialState).size());
+            // The lease has expired, so the state is fetched again, this time leased till it's processed.
+            Assert.assertEquals(1, dbConn.readUnprocessedStates(initialState).size());
+            Assert.assertTrue(otherConn.readUnprocessedStates(initialState).isEmpty());
+
+            // Both process the state, the second one finding the moves already recorded.
+            otherConn.expandStates(Collections.singletonList(initialState),
+                                   Collections.singletonList(StateProcessor.getNewStates(initialState)),
+                                   Collections.emptyList(), Collections.emptyList(), 1);
+            dbConn.expandStates(Collections.singletonList(initialState),
+                                Collections.singletonList(StateProcessor.getNewStates(initialState)),
+                                Collections.emptyList(), Collections.emptyList(), 100);
+        } finally {
+            otherDb.close();
+        }
+        Assert.assertEquals(0, db.reclaimQueuedStates());
+    }
+
+    @Test
+    public void testDeadEndState() throws Exception {
+        // A state without any moves is marked as processed too, with or without group commit.
+        BoardSolverDB groupDb = newDb();
+        groupDb.setGroupCommit(5, 1000);
+        try {
+            for (BoardSolverDB solverDb : new BoardSolverDB[]{db, groupDb}) {
+                try (StateStore.Conn dbConn = solverDb.getConnection()) {
+                    SampleBoardState initialState = new SampleBoardState();
+                    dbConn.searchAndInsertState(initialState, 0);
+                    Assert.assertEquals(1, dbConn.readUnprocessedStates(initialState).size());
+                    dbConn.addMoves(initialState, Collections.emptyMap());
+                    Assert.assertFalse(dbConn.awaitUnprocessedStates(1));
+                }
+                db.clearObjects();
+            }
+        } finally {
+            groupDb.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentRuns() throws Exception {
+        // Runs of every kind sharing the tables, each with its own BoardSolverDB like a separate process would.
+        SampleBoardState initialState = new SampleBoardState();
+        List<BoardSolverDB> workerDbs = new ArrayList<>();
+        List<BoardSolver> solvers = new ArrayList<>();
+        for (int numConnections = 0; numConnections < 2; numConnections++) {
+            for (int numThreads = 1; numThreads < 4; numThreads++) {
+                BoardSolverDB workerDb = newDb();
+                workerDbs.add(workerDb);
+                solvers.add(new BoardSolver(numThreads, new SampleBoardState(), workerDb, numConnections));
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(solvers.size());
+        try {
+            List<Future<?>> runs = new ArrayList<>();
+            for (BoardSolver solver : solvers) {
+                runs.add(executor.submit(() -> {
+                    solver.solve();
+                    return null;
+                }));
+            }
+            for (Future<?> run : runs) {
+                run.get();
+            }
+        } finally {
+            executor.shutdown();
+            for (BoardSolverDB workerDb : workerDbs) {
+                workerDb.close();
+            }
+        }
+        // Find the id the initial state was inserted with by one of the runs.
+        try (StateStore.Conn dbConn = db.getConnection()) {
+            dbConn.searchAndInsertState(initialState, -1);
+        }
+        checkSolutions(initialState);
+    }
+
+    @Test
+    public void testPartitionedTables() throws Exception {
+        BoardSolverDB partitionedDb = new BoardSolverDB(dbUrl, dbUser, dbPassword, statesTableName, movesTableName,
+                                                        dbSchema + "_partitioned");
+        partitionedDb.setNumPartitions(4);
+        partitionedDb.createObjects();
+        try {
+            // Two runs sharing the tables, with different home partitions.
+            for (int numConnections = 0; numConnections < 2; numConnections++) {
+                SampleBoardState initialState = new SampleBoardState();
+                BoardSolver solver = new BoardSolver(3, initialState, partitionedDb, numConnections);
+                BoardSolver otherSolver = new BoardSolver(2, new SampleBoardState(), partitionedDb, numConnections);
+                ExecutorService executor = Executors.newSingleThreadExecutor();
+                try {
+                    Future<?> otherRun = executor.submit(() -> {
+                        otherSolver.solve();
+                        return null;
+                    });
+                    solver.solve();
+                    otherRun.get();
+                } finally {
+                    executor.shutdown();
+                }
+
+                Map<String, BoardState> solutions = partitionedDb.findSolutions(initialState);
+                Assert.assertEquals(SampleBoardState.numSolutions(), Long.valueOf(solutions.size()));
+                Assert.assertEquals(BigInteger.valueOf(solutions.size()), partitionedDb.countSolutions(initialState));
+                partitionedDb.clearObjects();
+            }
+        } finally {
+            partitionedDb.dropObjects();
+            partitionedDb.close();
+        }
+    }
+
+    @Test
+    public void testStreamedSolutions() throws Exception {
+        SampleBoardState initialState = new SampleBoardState();
+        new BoardSolver(1, initialState, db).solve();
+        Map<String, BoardState> solutions = db.findSolutions(initialState);
+
+        Map<String, BoardState> streamedSolutions = new HashMap<>();
+        try (Stream<Map.Entry<String, BoardState>> solutionStream = db.streamSolutions(initialState)) {
+            solutionStream.forEach(solution -> Assert.assertNull(streamedSolutions.put(solution.getKey(),
+                                                                                         solution.getValue())));
+        }
+        Assert.assertEquals(solutions.keySet(), streamedSolutions.keySet());
+
+        // A stream closed before all the solutions are read releases its connection too.
+        try (Stream<Map.Entry<String, BoardState>> solutionStream = db.streamSolutions(initialState)) {
+            Assert.assertTrue(solutionStream.findFirst().isPresent());
+        }
+
+        File solutionsFile = tempFolder.newFile("solutions.gz");
+        Assert.assertEquals(solutions.size(), db.writeSolutions(initialState, solutionsFile.toPath()));
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(solutionsFile)), StandardCharsets.UTF_8))) {
+            Map<String, String> writtenSolutions = new HashMap<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] solution = line.split("\t");
+                writtenSolutions.put(solution[0], solution[1]);
+            }
+            Assert.assertEquals(solutions.keySet(), writtenSolutions.keySet());
+            for (Map.Entry<String, String> solution : writtenSolutions.entrySet()) {
+                Assert.assertEquals(solutions.get(solution.getKey()).getDesc(), solution.getValue());
+            }
+        }
+    }
+
+    @Test
+    public void testCopyBoardSolver() throws Exception {
+        // The objects are created by db, this instance only writes using COPY.
+        BoardSolverDB copyDb = newDb();
+        copyDb.setCopyFlushSize(3);
+        try {
+            for (int numThreads = 1; numThreads < 4; numThreads++) {
+                SampleBoardState initialState = new SampleBoardState();
+                BoardSolver solver = new BoardSolver(numThreads, initialState, copyDb);
+                testBoardSolver(solver, initialState);
+                db.clearObjects();
+            }
+        } finally {
+            copyDb.close();
+        }
+    }
+
+    @Test
+    public void testPersistedInMemoryBoardSolver() throws Exception {
+        SampleBoardState initialState = new SampleBoardState();
+        InMemoryStateStore store = new InMemoryStateStore(true);
+        BoardSolver solver = new BoardSolver(2, initialState, store);
+        solver.solve();
+        // The moves from all the states are recorded in a single transaction.
+        long numCommits = db.getNumCommits();
+        store.persist(db);
+        Assert.assertEquals(numCommits + 1, db.getNumCommits());
+
+        Map<String, BoardState> solutions = db.findSolutions(initialState);
+        Assert.assertEquals(store.findSolutions(initialState).keySet(), solutions.keySet());
+        Assert.assertEquals(SampleBoardState.numSolutions(), Long.valueOf(solutions.size()));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,92 @@
+package com.ashutosh.BoardSolver;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+public class DBConnPoolTest {
+    private final static String dbUrl = "jdbc:postgresql://localhost/boardgames";
+    private final static String dbUser = "boardgames";
+    private final static String dbPassword = "boardgames";
+    private final static String query = "SELECT 1";
+
+    @Test
+    public void testReuse() throws Exception {
+        try (DBConnPool pool = new DBConnPool(dbUrl, dbUser, dbPassword, 2, 60000)) {
+            PreparedStatement stmt;
+            try (DBConnPool.PooledConn pooledConn = pool.lease()) {
+                stmt = pooledConn.prepareStatement(query);
+                Assert.assertSame(stmt, pooledConn.prepareStatement(query));
+                // Leave a transaction open, it should be rolled back when the connection is returned.
+                pooledConn.getConnection().setAutoCommit(false);
+                stmt.executeQuery().close();
+            }
+            Assert.assertEquals(1, pool.getNumIdleConns());
+
+            // The same connection and the statement prepared on it are reused.
+            try (DBConnPool.PooledConn pooledConn = pool.lease()) {
+                Assert.assertSame(stmt, pooledConn.prepareStatement(query));
+                Assert.assertTrue(pooledConn.getConnection().getAutoCommit());
+                try (ResultSet rs = pooledConn.prepareStatement(query).executeQuery()) {
+                    Assert.assertTrue(rs.next());
+                    Assert.assertEquals(1, rs.getInt(1));
+                }
+            }
+            Assert.assertEquals(1, pool.getNumConns());
+        }
+    }
+
+    @Test
+    public void testMaxSize() throws Exception {
+        try (DBConnPool pool = new DBConnPool(dbUrl, dbUser, dbPassword, 2, 60000)) {
+            DBConnPool.PooledConn first = pool.lease();
+            DBConnPool.PooledConn second = pool.lease();
+            Assert.assertEquals(2, pool.getNumConns());
+
+            // The pool is full, so the next lease waits till a connection is returned.
+            DBConnPool.PooledConn[] third = new DBConnPool.PooledConn[1];
+            Thread leaser = new Thread(() -> {
+                try {
+                    third[0] = pool.lease();
+                } catch (SQLException sqle) {
+                    // test fails below
+                }
+            });
+            leaser.start();
+            leaser.join(200);
+            Assert.assertNull(third[0]);
+
+            second.close();
+            // Returning a connection twice is harmless.
+            second.close();
+            leaser.join(1000);
+            Assert.assertSame(second, third[0]);
+            Assert.assertEquals(2, pool.getNumConns());
+
+            // A connection closed by its user is not pooled.
+            first.getConnection().close();
+            first.close();
+            third[0].close();
+            Assert.assertEquals(1, pool.getNumConns());
+        }
+    }
+
+    @Test
+    public void testIdleEviction() throws Exception {
+        try (DBConnPool pool = new DBConnPool(dbUrl, dbUser, dbPassword, 2, 10)) {
+            DBConnPool.PooledConn pooledConn = pool.lease();
+            pooledConn.close();
+            Thread.sleep(50);
+
+            // The idle connection is closed and a new one is opened.
+            try (DBConnPool.PooledConn newConn = pool.lease()) {
+                Assert.assertNotSame(pooledConn, newConn);
+                Assert.assertTrue(pooledConn.getConnection().isClosed());
+            }
+            Assert.assertEquals(1, pool.getNumConns());
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.ashutosh.BoardSolver;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+
+public class DepthFirstBoardSolverTest {
+
+    @Test
+    public void testDepthFirstBoardSolver() throws Exception {
+        InMemoryStateStore store = new InMemoryStateStore(true);
+        SampleBoardState initialState = new SampleBoardState();
+        new BoardSolver(1, initialState, store).solve();
+        Map<String, BoardState> solutions = store.findSolutions(initialState);
+
+        // The solution found should be one of all the solutions.
+        DepthFirstBoardSolver solver = new DepthFirstBoardSolver(initialState, 16);
+        Map.Entry<String, BoardState> solution = solver.findAnySolution();
+        Assert.assertNotNull(solution);
+        Assert.assertTrue(solution.getValue().isFinalState());
+        Assert.assertEquals(solutions.get(solution.getKey()).getKey(), solution.getValue().getKey());
+        Assert.assertTrue(solver.getNumStates() <= store.getNumStates());
+    }
+
+    @Test
+    public void testNoSolution() {
+        // No move is possible from the final state, and as for findSolutions() a solution has at least one move.
+        Assert.assertNull(new DepthFirstBoardSolver(new SampleBoardState(10), 16).findAnySolution());
+    }
+}
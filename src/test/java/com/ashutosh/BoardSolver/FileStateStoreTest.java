@@ -0,0 +1,372 @@
+package com.ashutosh.BoardSolver;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+public class FileStateStoreTest {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private void checkSolutions(FileStateStore store, BoardState initialState) throws Exception {
+        Map<String, BoardState> solutions = store.findSolutions(initialState);
+        Assert.assertEquals(SampleBoardState.numSolutions(), Long.valueOf(solutions.size()));
+        for (BoardState finalState : solutions.values()) {
+            Assert.assertTrue(finalState.isFinalState());
+        }
+    }
+
+    @Test
+    public void testSegment() throws Exception {
+        Path file = tempFolder.getRoot().toPath().resolve("test.seg");
+        StateSegment segment;
+        try (StateSegment.Writer writer = new StateSegment.Writer(file)) {
+            // Enough states to span several blocks of the sparse index, the last one being partial.
+            for (long key = -1000; key < 1000; key = key + 2) {
+                writer.add(key, key * 10);
+            }
+            try {
+                writer.add(0, 0);
+                Assert.fail("keys out of order should not be accepted.");
+            } catch (IllegalArgumentException iae) {
+                // expected
+            }
+            segment = writer.finish();
+        }
+
+        try {
+            Assert.assertEquals(1000, segment.size());
+            for (long key = -1002; key <= 1000; key++) {
+                long expected = key >= -1000 && key < 1000 && key % 2 == 0 ? key * 10 : StateSegment.NOT_FOUND;
+                Assert.assertEquals(expected, segment.get(key));
+            }
+        } finally {
+            segment.close();
+        }
+        Assert.assertFalse(Files.exists(file.resolveSibling(file.getFileName() + ".tmp")));
+    }
+
+    @Test
+    public void testUnfinishedSegment() throws Exception {
+        Path file = tempFolder.getRoot().toPath().resolve("test.seg");
+        try (StateSegment.Writer writer = new StateSegment.Writer(file)) {
+            writer.add(1, 1);
+        }
+        Assert.assertEquals(0, tempFolder.getRoot().list().length);
+    }
+
+    @Test
+    public void testQueueFile() throws Exception {
+        Path file = tempFolder.getRoot().toPath().resolve("test.q");
+        int numEntries = 10000;
+        long[] keys = new long[numEntries];
+        long[] values = new long[numEntries];
+        try (StateQueueFile queue = new StateQueueFile(file)) {
+            for (int cnt = 0; cnt < numEntries; cnt++) {
+                queue.append(cnt, -cnt);
+            }
+            Assert.assertEquals(numEntries, queue.size());
+            // Reading the entries buffered writes those.
+            queue.read(numEntries - 10, 10, keys, values);
+            Assert.assertEquals(numEntries - 1, keys[9]);
+            Assert.assertEquals(1 - numEntries, values[9]);
+            queue.append(numEntries, -numEntries);
+            queue.sync();
+        }
+
+        // A partially written entry at the end is dropped.
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.allocate(Long.BYTES));
+        }
+        try (StateQueueFile queue = new StateQueueFile(file)) {
+            Assert.assertEquals(numEntries + 1, queue.size());
+            queue.read(0, numEntries, keys, values);
+            for (int cnt = 0; cnt < numEntries; cnt++) {
+                Assert.assertEquals(cnt, keys[cnt]);
+                Assert.assertEquals(-cnt, values[cnt]);
+            }
+        }
+    }
+
+    @Test
+    public void testMoveLog() throws Exception {
+        Path file = tempFolder.getRoot().toPath().resolve("test.log");
+        SampleBoardState initialState = new SampleBoardState();
+        Map<BoardMove, BoardState> newStates = StateProcessor.getNewStates(initialState);
+        long id = 0;
+        for (BoardState newState : newStates.values()) {
+            newState.setId(++id);
+        }
+        try (MoveLog moveLog = new MoveLog(file)) {
+            moveLog.append(0, initialState.getKey(), newStates);
+            Assert.assertTrue(moveLog.getBufferedBytes() > 0);
+            Assert.assertEquals(0, moveLog.size());
+            moveLog.sync();
+            Assert.assertEquals(0, moveLog.getBufferedBytes());
+            // Records not synced are lost, as in a crash.
+            moveLog.append(1, 2, newStates);
+        }
+
+        // A partially written record at the end is truncated.
+        long size = Files.size(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer partial = ByteBuffer.allocate(3 * Integer.BYTES);
+            partial.putInt(0, 100);
+            channel.write(partial);
+        }
+        List<Long> startIds = new ArrayList<>();
+        try (MoveLog moveLog = new MoveLog(file)) {
+            moveLog.recover(0, (startId, startKey, endIds, endKeys, symmetries, moveDescs) -> {
+                startIds.add(startId);
+                Assert.assertEquals(initialState.getKey(), startKey);
+                Assert.assertEquals(newStates.size(), endIds.length);
+                for (int cnt = 0; cnt < endIds.length; cnt++) {
+                    BoardState newState = initialState.newStateFromKey(endIds[cnt], endKeys[cnt]);
+                    Assert.assertEquals(endKeys[cnt] - initialState.getKey(), Long.parseLong(moveDescs[cnt]));
+                    Assert.assertEquals(newState.getKey(), endKeys[cnt]);
+                }
+            });
+            Assert.assertEquals(size, moveLog.size());
+        }
+        Assert.assertEquals(1, startIds.size());
+        Assert.assertEquals(size, Files.size(file));
+    }
+
+    @Test
+    public void testStoreOperations() throws Exception {
+        try (FileStateStore store = new FileStateStore(tempFolder.getRoot().toPath());
+             FileStateStore.FSSConn conn = store.getConnection()) {
+            long id = 1000;
+            SampleBoardState initialState = new SampleBoardState();
+            conn.searchAndInsertState(initialState, id);
+            Assert.assertEquals(id, initialState.getId());
+
+            SampleBoardState copyState = new SampleBoardState(initialState);
+            conn.searchAndInsertState(copyState, id + 100);
+            Assert.assertEquals(id, copyState.getId());
+
+            List<BoardMove> moves = initialState.getPossibleMoves();
+            Map<BoardMove, BoardState> movesToStates = new HashMap<>(moves.size());
+            for (BoardMove move : moves) {
+                BoardState result = initialState.apply(move);
+                conn.searchAndInsertState(result, ++id);
+                movesToStates.put(move, result);
+            }
+            Assert.assertEquals(moves.size() + 1, store.getNumStates());
+            Assert.assertEquals(id + 1, store.getNextId());
+
+            // The states are constructed back from the keys with the ids assigned to them.
+            List<BoardState> unprocessedStates = conn.readUnprocessedStates(initialState);
+            Assert.assertEquals(moves.size() + 1, unprocessedStates.size());
+            Assert.assertEquals(initialState.getDesc(), unprocessedStates.get(0).getDesc());
+            Assert.assertEquals(initialState.getId(), unprocessedStates.get(0).getId());
+            Assert.assertEquals(0, conn.readUnprocessedStates(initialState).size());
+
+            conn.addMoves(initialState, movesToStates);
+            try {
+                conn.addMoves(initialState, movesToStates);
+                Assert.fail("the moves from a state should be recorded only once.");
+            } catch (IllegalStateException ise) {
+                // expected
+            }
+
+            // All but the initial state are queued but not processed.
+            Assert.assertEquals(moves.size(), store.reclaimQueuedStates());
+            Assert.assertEquals(moves.size(), conn.readUnprocessedStates(initialState).size());
+        }
+    }
+
+    @Test
+    public void testReopenedStore() throws Exception {
+        Path dir = tempFolder.getRoot().toPath();
+        SampleBoardState initialState = new SampleBoardState();
+        Map<BoardMove, BoardState> newStates = StateProcessor.getNewStates(initialState);
+        // The memtable is written to a segment once, so that the states are recovered from a segment as well as from
+        // the frontier and the move files.
+        int memtableSize = newStates.size();
+        try (FileStateStore store = new FileStateStore(dir);
+             FileStateStore.FSSConn conn = store.getConnection()) {
+            store.setMemtableSize(memtableSize);
+            conn.searchAndInsertState(initialState, 0);
+            Assert.assertEquals(1, conn.readUnprocessedStates(initialState).size());
+            conn.expandStates(Collections.singletonList(initialState), Collections.singletonList(newStates),
+                              Collections.emptyList(), Collections.emptyList(), 1);
+            Assert.assertEquals(1, store.getNumSegments());
+        }
+
+        try (FileStateStore store = new FileStateStore(dir);
+             FileStateStore.FSSConn conn = store.getConnection()) {
+            Assert.assertEquals(newStates.size() + 1, store.getNumStates());
+            Assert.assertEquals(newStates.size() + 1, store.getNextId());
+            // The initial state is processed and the rest are not.
+            List<BoardState> unprocessedStates = conn.readUnprocessedStates(initialState);
+            Assert.assertEquals(newStates.size(), unprocessedStates.size());
+            for (BoardState state : unprocessedStates) {
+                Assert.assertNotEquals(initialState.getKey(), state.getKey());
+                SampleBoardState copyState = new SampleBoardState((int) state.getKey());
+                conn.searchAndInsertState(copyState, store.getNextId());
+                Assert.assertEquals(state.getId(), copyState.getId());
+            }
+            try {
+                conn.addMoves(initialState, newStates);
+                Assert.fail("the moves from a state should be recorded only once.");
+            } catch (IllegalStateException ise) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testTornMoveRecord() throws Exception {
+        Path dir = tempFolder.getRoot().toPath();
+        SampleBoardState initialState = new SampleBoardState();
+        try (FileStateStore store = new FileStateStore(dir);
+             FileStateStore.FSSConn conn = store.getConnection()) {
+            conn.searchAndInsertState(initialState, 0);
+            conn.expandStates(Collections.singletonList(initialState),
+                              Collections.singletonList(StateProcessor.getNewStates(initialState)),
+                              Collections.emptyList(), Collections.emptyList(), 1);
+        }
+
+        // A crash while writing the moves from the initial state leaves a partial record in place of the full one.
+        Path moveFile = dir.resolve("moves-" + initialState.getLevel() + ".log");
+        try (FileChannel channel = FileChannel.open(moveFile, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+        try (FileStateStore store = new FileStateStore(dir);
+             FileStateStore.FSSConn conn = store.getConnection()) {
+            Assert.assertEquals(0, Files.size(moveFile));
+            List<BoardState> unprocessedStates = conn.readUnprocessedStates(initialState);
+            Assert.assertEquals(store.getNumStates(), unprocessedStates.size());
+            Assert.assertEquals(initialState.getKey(), unprocessedStates.get(0).getKey());
+        }
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        Path dir = tempFolder.getRoot().toPath();
+        SampleBoardState initialState = new SampleBoardState();
+        // Every state inserted or processed goes to a segment of its own, so that the segments are merged repeatedly.
+        try (FileStateStore store = new FileStateStore(dir)) {
+            store.setMemtableSize(1);
+            store.setSyncBatchSize(3);
+            new BoardSolver(2, initialState, store).solve();
+            store.awaitCompaction();
+            Assert.assertTrue(store.getNumSegments() <= 5);
+            checkSolutions(store, initialState);
+        }
+
+        // The merged segments are deleted and the store reopens with all the states processed.
+        long numSegmentFiles;
+        try (Stream<Path> files = Files.list(dir)) {
+            numSegmentFiles = files.filter(file -> file.getFileName().toString().endsWith(".seg")).count();
+        }
+        try (FileStateStore store = new FileStateStore(dir);
+             FileStateStore.FSSConn conn = store.getConnection()) {
+            Assert.assertEquals(numSegmentFiles, store.getNumSegments());
+            Assert.assertEquals(10, store.getNumStates());
+            Assert.assertEquals(0, conn.readUnprocessedStates(initialState).size());
+            Assert.assertEquals(0, store.reclaimQueuedStates());
+            checkSolutions(store, initialState);
+        }
+    }
+
+    @Test
+    public void testBoardSolver() throws Exception {
+        // Single and multi threaded, pooled, cached and pipelined.
+        for (int numThreads = 1; numThreads < 4; numThreads++) {
+            for (int variant = 0; variant < 4; variant++) {
+                Path dir = tempFolder.newFolder().toPath();
+                try (FileStateStore store = new FileStateStore(dir)) {
+                    store.setMemtableSize(4);
+                    SampleBoardState initialState = new SampleBoardState();
+                    BoardSolver solver = new BoardSolver(numThreads, initialState, store, variant == 1 ? 2 : 0);
+                    if (variant == 2) {
+                        solver.setKnownStatesCacheSize(5);
+                    } else if (variant == 3) {
+                        solver.setNumWriters(2);
+                    }
+                    solver.solve();
+                    Assert.assertEquals(10, store.getNumStates());
+                    checkSolutions(store, initialState);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLevelBoardSolver() throws Exception {
+        for (int numThreads = 1; numThreads < 4; numThreads++) {
+            try (FileStateStore store = new FileStateStore(tempFolder.newFolder().toPath())) {
+                SampleBoardState initialState = new SampleBoardState();
+                new BoardSolver(numThreads, initialState, store, 2).solveByLevels();
+                checkSolutions(store, initialState);
+            }
+        }
+    }
+
+    @Test
+    public void testResumedBoardSolver() throws Exception {
+        for (int numThreads = 1; numThreads < 4; numThreads++) {
+            // A run which processed the initial state and queued the resultant states, but died before processing those.
+            Path dir = tempFolder.newFolder().toPath();
+            SampleBoardState initialState = new SampleBoardState();
+            try (FileStateStore deadStore = new FileStateStore(dir);
+                 StateStore.Conn conn = deadStore.getConnection()) {
+                long firstId = deadStore.getNextId();
+                conn.searchAndInsertState(initialState, firstId);
+                Assert.assertEquals(1, conn.readUnprocessedStates(initialState).size());
+                conn.expandStates(Collections.singletonList(initialState),
+                                  Collections.singletonList(StateProcessor.getNewStates(initialState)),
+                                  Collections.emptyList(), Collections.emptyList(), firstId + 1);
+                Assert.assertFalse(conn.readUnprocessedStates(initialState).isEmpty());
+            }
+
+            try (FileStateStore store = new FileStateStore(dir)) {
+                BoardSolver solver = new BoardSolver(numThreads, initialState, store);
+                solver.resume();
+                checkSolutions(store, initialState);
+                // Resuming a finished run has nothing to do.
+                solver.resume();
+                Assert.assertEquals(10, store.getNumStates());
+                checkSolutions(store, initialState);
+            }
+        }
+    }
+
+    @Test
+    public void testProcess() throws Exception {
+        try (FileStateStore store = new FileStateStore(tempFolder.getRoot().toPath());
+             FileStateStore.FSSConn conn = store.getConnection()) {
+            long initId = 100000;
+            AtomicLong counter = new AtomicLong(initId);
+            StateProcessor sp = new StateProcessor(store, counter);
+            SampleBoardState sbs = new SampleBoardState(1);
+
+            conn.searchAndInsertState(sbs, counter.getAndIncrement());
+            sp.process(sbs, conn);
+
+            // The resultant states should be found in the store with the ids assigned by process.
+            long unusedId = counter.get();
+            for (BoardMove move : sbs.getPossibleMoves()) {
+                BoardState resultState = sbs.apply(move);
+                conn.searchAndInsertState(resultState, unusedId);
+                Assert.assertTrue(resultState.getId() >= initId && resultState.getId() < unusedId);
+            }
+        }
+    }
+}
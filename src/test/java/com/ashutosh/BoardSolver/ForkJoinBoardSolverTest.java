@@ -0,0 +1,29 @@
+package com.ashutosh.BoardSolver;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ForkJoinBoardSolverTest {
+
+    @Test
+    public void testForkJoinBoardSolver() throws Exception {
+        // Every worker count should visit each state exactly once and see every move, as the in-memory store does.
+        InMemoryStateStore store = new InMemoryStateStore(true);
+        new BoardSolver(1, new SampleBoardState(), store).solve();
+
+        for (int numThreads = 1; numThreads < 5; numThreads++) {
+            ForkJoinBoardSolver solver = new ForkJoinBoardSolver(numThreads, new SampleBoardState(), 16);
+            solver.solve();
+            Assert.assertEquals(store.getNumStates(), solver.getNumStates());
+            Assert.assertEquals(store.getNumMoves(), solver.getNumMoves());
+            Assert.assertEquals(1, solver.getNumFinalStates());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSolveOnce() {
+        ForkJoinBoardSolver solver = new ForkJoinBoardSolver(2, new SampleBoardState(), 16);
+        solver.solve();
+        solver.solve();
+    }
+}
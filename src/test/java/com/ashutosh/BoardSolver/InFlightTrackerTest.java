@@ -0,0 +1,90 @@
+package com.ashutosh.BoardSolver;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class InFlightTrackerTest {
+
+    @Test
+    public void testCompletions() throws Exception {
+        BlockingQueue<BoardState> statesQ = new ArrayBlockingQueue<>(10);
+        InFlightTracker tracker = new InFlightTracker(statesQ, 1);
+        Assert.assertTrue(tracker.isIdle());
+
+        tracker.queued(3);
+        Assert.assertFalse(tracker.isIdle());
+        long completions = tracker.getNumCompletions();
+
+        // The waiter wakes up only after all the states are completed.
+        AtomicBoolean woken = new AtomicBoolean(false);
+        Thread waiter = new Thread(() -> {
+            try {
+                tracker.awaitCompletionAfter(completions);
+                woken.set(true);
+            } catch (InterruptedException ie) {
+                // test fails below
+            }
+        });
+        waiter.start();
+        Thread.sleep(100);
+        Assert.assertFalse(woken.get());
+
+        tracker.completed(2);
+        waiter.join(1000);
+        Assert.assertTrue(woken.get());
+        Assert.assertFalse(tracker.isIdle());
+
+        tracker.completed(1);
+        Assert.assertTrue(tracker.isIdle());
+        Assert.assertEquals(completions + 2, tracker.getNumCompletions());
+
+        // Nothing in flight, so waiting returns immediately.
+        tracker.awaitCompletionAfter(tracker.getNumCompletions());
+        tracker.awaitDemand();
+    }
+
+    @Test
+    public void testDemand() throws Exception {
+        BlockingQueue<BoardState> statesQ = new ArrayBlockingQueue<>(10);
+        InFlightTracker tracker = new InFlightTracker(statesQ, 1);
+        tracker.queued(3);
+        for (int cnt = 0; cnt < 3; cnt++) {
+            statesQ.put(new SampleBoardState(cnt));
+        }
+
+        AtomicBoolean woken = new AtomicBoolean(false);
+        Thread feeder = new Thread(() -> {
+            try {
+                tracker.awaitDemand();
+                woken.set(true);
+            } catch (InterruptedException ie) {
+                // test fails below
+            }
+        });
+        feeder.start();
+
+        // Above the low water mark, the feeder keeps waiting.
+        statesQ.take();
+        tracker.dequeued();
+        Thread.sleep(100);
+        Assert.assertFalse(woken.get());
+
+        statesQ.take();
+        tracker.dequeued();
+        feeder.join(1000);
+        Assert.assertTrue(woken.get());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testFailure() throws Exception {
+        BlockingQueue<BoardState> statesQ = new ArrayBlockingQueue<>(10);
+        InFlightTracker tracker = new InFlightTracker(statesQ, 1);
+        tracker.queued(1);
+        tracker.failed(new RuntimeException("test failure"));
+        tracker.awaitCompletionAfter(tracker.getNumCompletions());
+    }
+}
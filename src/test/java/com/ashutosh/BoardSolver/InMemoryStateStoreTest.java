@@ -0,0 +1,177 @@
+package com.ashutosh.BoardSolver;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class InMemoryStateStoreTest {
+
+    @Test
+    public void testStoreOperations() throws Exception {
+        InMemoryStateStore store = new InMemoryStateStore(true);
+        long id = 1000000;
+        SampleBoardState initialState = new SampleBoardState();
+
+        try (InMemoryStateStore.IMSSConn conn = store.getConnection()) {
+            // Insert a new state with a given id, state should be updated with the given id
+            conn.searchAndInsertState(initialState, id);
+            Assert.assertEquals(id, initialState.getId());
+
+            // Inserting a copy of the state with a different id should give back the original id
+            SampleBoardState copyState = new SampleBoardState(initialState);
+            conn.searchAndInsertState(copyState, id + 100);
+            Assert.assertEquals(id, copyState.getId());
+            Assert.assertEquals(1, store.getNumStates());
+
+            List<BoardMove> moves = initialState.getPossibleMoves();
+            Map<BoardMove, BoardState> movesToStates = new HashMap<>(moves.size());
+            for (BoardMove move : moves) {
+                BoardState result = initialState.apply(move);
+                conn.searchAndInsertState(result, ++id);
+                movesToStates.put(move, result);
+            }
+            conn.addMoves(initialState, movesToStates);
+            Assert.assertEquals(moves.size(), store.getNumMoves());
+
+            // Moves of a state can be added only once.
+            try {
+                conn.addMoves(initialState, movesToStates);
+                Assert.fail("adding moves twice should fail");
+            } catch (IllegalStateException ise) {
+                // expected
+            }
+
+            // The initial state and every resultant state are unprocessed, but are returned only once.
+            Assert.assertEquals(moves.size() + 1, conn.readUnprocessedStates(initialState).size());
+            Assert.assertEquals(0, conn.readUnprocessedStates(initialState).size());
+        }
+    }
+
+    private void testInMemoryBoardSolver(int numThreads, int numConnections) throws Exception {
+        InMemoryStateStore store = new InMemoryStateStore(true);
+        SampleBoardState initialState = new SampleBoardState();
+        BoardSolver solver = new BoardSolver(numThreads, initialState, store, numConnections);
+        solver.solve();
+
+        Map<String, BoardState> solutions = store.findSolutions(initialState);
+        Assert.assertEquals(SampleBoardState.numSolutions(), Long.valueOf(solutions.size()));
+        for (BoardState finalState : solutions.values()) {
+            Assert.assertTrue(finalState.isFinalState());
+        }
+    }
+
+    @Test
+    public void testSingleThreadedBoardSolver() throws Exception {
+        testInMemoryBoardSolver(1, 0);
+    }
+
+    @Test
+    public void testMultiThreadedBoardSolver() throws Exception {
+        for (int numThreads = 2; numThreads < 5; numThreads++) {
+            testInMemoryBoardSolver(numThreads, 0);
+        }
+    }
+
+    @Test
+    public void testPooledBoardSolver() throws Exception {
+        for (int numThreads = 1; numThreads < 5; numThreads++) {
+            testInMemoryBoardSolver(numThreads, 1);
+        }
+    }
+
+    @Test
+    public void testLevelBoardSolver() throws Exception {
+        InMemoryStateStore expectedStore = new InMemoryStateStore(true);
+        SampleBoardState expectedState = new SampleBoardState();
+        new BoardSolver(1, expectedState, expectedStore).solve();
+
+        // Every state should be expanded exactly once, irrespective of the levels its resultant states are at.
+        for (int numThreads = 1; numThreads < 5; numThreads++) {
+            InMemoryStateStore store = new InMemoryStateStore(true);
+            SampleBoardState initialState = new SampleBoardState();
+            new BoardSolver(numThreads, initialState, store).solveByLevels();
+            Assert.assertEquals(expectedStore.getNumStates(), store.getNumStates());
+            Assert.assertEquals(expectedStore.getNumMoves(), store.getNumMoves());
+            Assert.assertEquals(expectedStore.findSolutions(expectedState).keySet(),
+                                store.findSolutions(initialState).keySet());
+        }
+    }
+
+    @Test
+    public void testLevelBoardSolverSearchesNothing() throws Exception {
+        // A single thread records every resultant state before it's reached again, so every resultant state is either
+        // reached for the first time, hence absent from the store, or known to be in the store with its id.
+        InMemoryStateStore store = new InMemoryStateStore(true);
+        AtomicLong numSearched = new AtomicLong();
+        AtomicLong numAbsent = new AtomicLong();
+        AtomicLong numKnown = new AtomicLong();
+        SolutionStore countingStore = new SolutionStore() {
+            @Override
+            public Conn getConnection() {
+                InMemoryStateStore.IMSSConn conn = store.getConnection();
+                return new Conn() {
+                    @Override
+                    public void searchAndInsertState(BoardState state, long id) {
+                        conn.searchAndInsertState(state, id);
+                    }
+
+                    @Override
+                    public void addMoves(BoardState state, Map<BoardMove, BoardState> newStates) {
+                        conn.addMoves(state, newStates);
+                    }
+
+                    @Override
+                    public void expandStates(List<BoardState> states, List<Map<BoardMove, BoardState>> allNewStates,
+                                             List<Map<BoardMove, BoardState>> allAbsentStates,
+                                             List<Map<BoardMove, BoardState>> allKnownStates, long firstId)
+                            throws SQLException {
+                        allNewStates.forEach(newStates -> numSearched.addAndGet(newStates.size()));
+                        allAbsentStates.forEach(absentStates -> numAbsent.addAndGet(absentStates.size()));
+                        allKnownStates.forEach(knownStates -> numKnown.addAndGet(knownStates.size()));
+                        conn.expandStates(states, allNewStates, allAbsentStates, allKnownStates, firstId);
+                    }
+
+                    @Override
+                    public LinkedList<BoardState> readUnprocessedStates(BoardState sampleState) {
+                        return conn.readUnprocessedStates(sampleState);
+                    }
+
+                    @Override
+                    public void close() {
+                        conn.close();
+                    }
+                };
+            }
+
+            @Override
+            public Map<String, BoardState> findSolutions(BoardState initialState) {
+                return store.findSolutions(initialState);
+            }
+        };
+
+        SampleBoardState initialState = new SampleBoardState();
+        new BoardSolver(1, initialState, countingStore).solveByLevels();
+        Assert.assertEquals(0, numSearched.get());
+        // Every state but the initial one is reached for the first time once.
+        Assert.assertEquals(store.getNumStates() - 1, numAbsent.get());
+        Assert.assertEquals(store.getNumMoves(), numAbsent.get() + numKnown.get());
+        Assert.assertEquals(SampleBoardState.numSolutions(),
+                            Long.valueOf(countingStore.findSolutions(initialState).size()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSolutionsNeedGraph() throws Exception {
+        InMemoryStateStore store = new InMemoryStateStore(false);
+        SampleBoardState initialState = new SampleBoardState();
+        new BoardSolver(1, initialState, store).solve();
+        // All the states are visited even if the graph is not retained.
+        Assert.assertEquals(10, store.getNumStates());
+        store.findSolutions(initialState);
+    }
+}
@@ -0,0 +1,100 @@
+package com.ashutosh.BoardSolver;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MappedStateStoreTest {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final long MAX_STATES = 100;
+
+    @Test
+    public void testStateTable() {
+        MappedStateTable table = new MappedStateTable(MAX_STATES);
+
+        // Zero is a valid key as well as a valid id.
+        Assert.assertEquals(-1, table.putIfAbsent(0, 0, false));
+        Assert.assertEquals(-1, table.putIfAbsent(-1, 10, true));
+        Assert.assertEquals(0, table.putIfAbsent(0, 20, true));
+        Assert.assertEquals(10, table.getId(-1));
+        Assert.assertEquals(-1, table.getId(1));
+        Assert.assertEquals(2, table.size());
+
+        Assert.assertFalse(table.isFinal(0));
+        Assert.assertTrue(table.isFinal(-1));
+        Assert.assertEquals(BoardSolverDB.BoardProcState.NEW, table.getProcState(0));
+        table.setProcState(0, BoardSolverDB.BoardProcState.QUEUED);
+        Assert.assertEquals(BoardSolverDB.BoardProcState.QUEUED, table.getProcState(0));
+        table.setProcState(0, BoardSolverDB.BoardProcState.PROCESSED);
+        Assert.assertEquals(BoardSolverDB.BoardProcState.PROCESSED, table.getProcState(0));
+        // Changing the processing state doesn't change the rest.
+        Assert.assertEquals(0, table.getId(0));
+        Assert.assertFalse(table.isFinal(0));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testStateTableFull() {
+        MappedStateTable table = new MappedStateTable(MAX_STATES);
+        for (long key = 0; key <= MAX_STATES; key++) {
+            table.putIfAbsent(key, key, false);
+        }
+    }
+
+    @Test
+    public void testStoreOperations() throws Exception {
+        try (MappedStateStore store = new MappedStateStore(tempFolder.getRoot().toPath(), MAX_STATES);
+             MappedStateStore.MSSConn conn = store.getConnection()) {
+            long id = 1000;
+            SampleBoardState initialState = new SampleBoardState();
+            conn.searchAndInsertState(initialState, id);
+            Assert.assertEquals(id, initialState.getId());
+
+            SampleBoardState copyState = new SampleBoardState(initialState);
+            conn.searchAndInsertState(copyState, id + 100);
+            Assert.assertEquals(id, copyState.getId());
+
+            List<BoardMove> moves = initialState.getPossibleMoves();
+            Map<BoardMove, BoardState> movesToStates = new HashMap<>(moves.size());
+            for (BoardMove move : moves) {
+                BoardState result = initialState.apply(move);
+                conn.searchAndInsertState(result, ++id);
+                movesToStates.put(move, result);
+            }
+            Assert.assertEquals(moves.size() + 1, store.getNumStates());
+            Assert.assertEquals(1, store.getNumFinalStates());
+
+            // The states are constructed back from the keys with the ids assigned to them.
+            List<BoardState> unprocessedStates = conn.readUnprocessedStates(initialState);
+            Assert.assertEquals(moves.size() + 1, unprocessedStates.size());
+            Assert.assertEquals(initialState.getDesc(), unprocessedStates.get(0).getDesc());
+            Assert.assertEquals(initialState.getId(), unprocessedStates.get(0).getId());
+            Assert.assertEquals(BoardSolverDB.BoardProcState.QUEUED, store.getProcState(initialState));
+            Assert.assertEquals(0, conn.readUnprocessedStates(initialState).size());
+
+            conn.addMoves(initialState, movesToStates);
+            Assert.assertEquals(BoardSolverDB.BoardProcState.PROCESSED, store.getProcState(initialState));
+        }
+    }
+
+    @Test
+    public void testBoardSolver() throws Exception {
+        for (int numThreads = 1; numThreads < 4; numThreads++) {
+            try (MappedStateStore store = new MappedStateStore(MAX_STATES)) {
+                SampleBoardState initialState = new SampleBoardState();
+                new BoardSolver(numThreads, initialState, store).solve();
+
+                // Every state from the initial state to the final state is reachable.
+                Assert.assertEquals(10, store.getNumStates());
+                Assert.assertEquals(1, store.getNumFinalStates());
+                Assert.assertEquals(BoardSolverDB.BoardProcState.PROCESSED, store.getProcState(initialState));
+            }
+        }
+    }
+}
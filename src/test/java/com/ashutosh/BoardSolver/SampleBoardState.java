@@ -48,10 +48,16 @@ public class SampleBoardState implements BoardState {
         return id;
     }
 
-    private void setId(long id) {
+    @Override
+    public void setId(long id) {
         this.id = id;
     }
 
+    @Override
+    public long getKey() {
+        return state;
+    }
+
     @Override
     public List<BoardMove> getPossibleMoves() {
         List<BoardMove> result = new ArrayList<>(finalState - state);
@@ -90,8 +96,26 @@ public class SampleBoardState implements BoardState {
         return result;
     }
 
+    @Override
+    public BoardState newStateFromKey(long id, long key) {
+        SampleBoardState result = new SampleBoardState((int) key);
+        result.setId(id);
+        return result;
+    }
+
     @Override
     public boolean isFinalState() {
         return state == finalState;
     }
+
+    @Override
+    public boolean hasLevels() {
+        return true;
+    }
+
+    // Every move increments the state by at least one.
+    @Override
+    public int getLevel() {
+        return finalState - state;
+    }
 }
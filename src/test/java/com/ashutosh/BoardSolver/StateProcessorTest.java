@@ -35,6 +35,7 @@ public class StateProcessorTest {
     @AfterClass
     public static void tearDownClass() throws Exception {
         db.dropObjects();
+        db.close();
     }
 
     @After
@@ -72,13 +73,9 @@ public class StateProcessorTest {
     public void testRunAndWaiting() throws SQLException, InterruptedException {
         AtomicLong idCounter = new AtomicLong(1);
         BlockingQueue<BoardState> statesQ = new ArrayBlockingQueue<>(3);
-        StateProcessor stateProcessor = new StateProcessor(db, statesQ, "testthread1", idCounter);
+        InFlightTracker tracker = new InFlightTracker(statesQ, 1);
+        StateProcessor stateProcessor = new StateProcessor(db, statesQ, "testthread1", idCounter, tracker);
         stateProcessor.start();
-
-        // Sleep for a small amount of time so that the thread tries to fetch from the queue.
-        Thread.sleep(10000);
-        // There's no state in the queue, so the thread should be waiting now.
-        Assert.assertTrue(stateProcessor.isWaitingForNextState());
         SampleBoardState sbs = new SampleBoardState(1);
 
         // Let method process add moves and resultant states to DB.
@@ -88,20 +85,22 @@ public class StateProcessorTest {
             // Fill the queue a couple of times and make sure that it gets drained
             for (int i = 0; i < 2; i++) {
                 LinkedList<BoardState> unprocessedStates = dbConn.readUnprocessedStates(sbs);
+                long completions = tracker.getNumCompletions();
+                tracker.queued(unprocessedStates.size());
                 for (BoardState state : unprocessedStates) {
                     statesQ.put(state);
                 }
-                // Sleep till the state processor thread empties the queue
-                Thread.sleep(10000);
+                // Wait till the state processor thread has processed all the states queued.
+                while (!tracker.isIdle()) {
+                    tracker.awaitCompletionAfter(completions);
+                    completions = tracker.getNumCompletions();
+                }
                 Assert.assertEquals(0, statesQ.size());
-                // There's no state in the queue, so the thread should be waiting now.
-                Assert.assertTrue(stateProcessor.isWaitingForNextState());
             }
         }
-        // At the end interrupt the state processor so that it ends execution, wait for a small duration for it to end itself.
+        // At the end interrupt the state processor so that it ends execution.
         stateProcessor.interrupt();
-        Thread.sleep(10);
-        Assert.assertEquals(Thread.State.TERMINATED, stateProcessor.getState());
         stateProcessor.join();
+        Assert.assertEquals(Thread.State.TERMINATED, stateProcessor.getState());
     }
 }
\ No newline at end of file
@@ -0,0 +1,49 @@
+package com.ashutosh.BoardSolver;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class StateStoreConnPoolTest {
+
+    @Test
+    public void testLeaseAndRelease() throws Exception {
+        InMemoryStateStore store = new InMemoryStateStore(false);
+        StateStoreConnPool pool = new StateStoreConnPool(store, 1);
+        StateStore.Conn conn = pool.lease();
+
+        // The only connection is leased, so the next lease waits till it's released.
+        AtomicBoolean leased = new AtomicBoolean(false);
+        StateStore.Conn[] nextConn = new StateStore.Conn[1];
+        Thread leaser = new Thread(() -> {
+            try {
+                nextConn[0] = pool.lease();
+                leased.set(true);
+            } catch (Exception e) {
+                // test fails below
+            }
+        });
+        leaser.start();
+        Thread.sleep(100);
+        Assert.assertFalse(leased.get());
+
+        pool.release(conn);
+        leaser.join(1000);
+        Assert.assertTrue(leased.get());
+        // Released connection is reused.
+        Assert.assertSame(conn, nextConn[0]);
+
+        // A discarded connection is not reused, but frees up the slot.
+        pool.discard(nextConn[0]);
+        Assert.assertNotSame(conn, pool.lease());
+        pool.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testLeaseAfterClose() throws Exception {
+        StateStoreConnPool pool = new StateStoreConnPool(new InMemoryStateStore(false), 2);
+        pool.close();
+        pool.lease();
+    }
+}
@@ -0,0 +1,58 @@
+package com.ashutosh.BoardSolver;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class StateWriterTest {
+
+    @Test
+    public void testWrite() throws Exception {
+        InMemoryStateStore store = new InMemoryStateStore(true);
+        AtomicLong idCounter = new AtomicLong(0);
+        BlockingQueue<BoardState> statesQ = new ArrayBlockingQueue<>(10);
+        BlockingQueue<StateWriter.ExpandedState> expandedStatesQ = new ArrayBlockingQueue<>(10);
+        InFlightTracker tracker = new InFlightTracker(statesQ, 1);
+
+        // The initial state and the states resulting from it, expanded in turn.
+        BoardState initialState = new SampleBoardState();
+        List<BoardState> states = new ArrayList<>();
+        try (StateStore.Conn dbConn = store.getConnection()) {
+            dbConn.searchAndInsertState(initialState, idCounter.getAndIncrement());
+            states.add(initialState);
+            for (BoardState newState : StateProcessor.getNewStates(initialState).values()) {
+                dbConn.searchAndInsertState(newState, idCounter.getAndIncrement());
+                states.add(newState);
+            }
+        }
+        int numStates = store.getNumStates();
+
+        StateWriter writer = new StateWriter(store, expandedStatesQ, "testwriter", idCounter, tracker, null);
+        writer.start();
+        long completions = tracker.getNumCompletions();
+        tracker.queued(states.size());
+        int numMoves = 0;
+        for (BoardState state : states) {
+            Map<BoardMove, BoardState> newStates = StateProcessor.getNewStates(state);
+            numMoves = numMoves + newStates.size();
+            expandedStatesQ.put(new StateWriter.ExpandedState(state, newStates));
+        }
+
+        // The states are completed only once their moves are in the store.
+        while (!tracker.isIdle()) {
+            tracker.awaitCompletionAfter(completions);
+            completions = tracker.getNumCompletions();
+        }
+        Assert.assertEquals(numMoves, store.getNumMoves());
+        Assert.assertTrue(store.getNumStates() >= numStates);
+
+        writer.interrupt();
+        writer.join();
+    }
+}
@@ -1,6 +1,7 @@
 package com.ashutosh.BrainVitae;
 
 import com.ashutosh.BoardSolver.BoardMove;
+import com.ashutosh.BoardSolver.BoardState;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -39,6 +40,15 @@ public class BVBoardStateTest {
 
         // test copy constructor
         Assert.assertEquals(state, new BVBoardState(state));
+
+        // All the states symmetric to the state have the same canonical key, and the canonical state transforms back
+        // to the state.
+        BoardState canonicalState = state.canonicalize();
+        Assert.assertEquals(state.canonicalKey(), canonicalState.getKey());
+        Assert.assertEquals(state, canonicalState.transform(canonicalState.getSymmetry()));
+        for (int symmetry = 0; symmetry < BrainVitaeBoard.NUM_SYMMETRIES; symmetry++) {
+            Assert.assertEquals(state.canonicalKey(), state.transform(symmetry).canonicalKey());
+        }
     }
 
     @Test
@@ -110,13 +120,50 @@ public class BVBoardStateTest {
             Assert.assertTrue(newState.isEmptyCell(bvMove.getStartBVCell()));
             Assert.assertTrue(newState.isFilledCell(new BVCell(bvMove.getStartBVCell(), bvMove.getDirection().getJumpOffset())));
             Assert.assertTrue(newState.isEmptyCell((new BVCell(bvMove.getStartBVCell(), bvMove.getDirection().getNextOffset()))));
+            // Reversing the move leads back to the state.
+            Assert.assertTrue(newState.getPreviousStates().contains(state));
+
+            // Transformed move leads from the transformed state to the transformed resultant state.
+            for (int symmetry = 0; symmetry < BrainVitaeBoard.NUM_SYMMETRIES; symmetry++) {
+                BVBoardMove transformedMove = BVBoardMove.fromDesc(state.transformMove(bvMove.getDesc(), symmetry));
+                Assert.assertEquals(newState.transform(symmetry), state.transform(symmetry).apply(transformedMove));
+            }
             testApplyMove(newState);
         }
    }
 
-   // TODO: Complete state for isFinalState. Right now there is no way we can create a final state without exposing
-   // com.ashutosh.BrainVitae.BVBoardState.fillCell and com.ashutosh.BrainVitae.BVBoardState.emptyCell.
-   @Test
+    @Test
+    public void testPreviousStates() {
+        // Walk a random game from the initial state. A move from every previous state of a state leads to the state.
+        BoardState state = new BVBoardState(board);
+        List<BoardMove> moves = state.getPossibleMoves();
+        while (!moves.isEmpty()) {
+            state = state.apply(moves.get(random.nextInt(moves.size())));
+            List<BoardState> prevStates = state.getPreviousStates();
+            Assert.assertFalse(prevStates.isEmpty());
+            for (BoardState prevState : prevStates) {
+                Assert.assertEquals(state.getLevel() + 1, prevState.getLevel());
+                boolean leadsToState = false;
+                for (BoardMove move : prevState.getPossibleMoves()) {
+                    leadsToState = leadsToState || prevState.apply(move).equals(state);
+                }
+                Assert.assertTrue(leadsToState);
+            }
+            moves = state.getPossibleMoves();
+        }
+    }
+
+    @Test
     public void testFinalState() {
+        // A final state has a single peg in any of the used cells and no move is possible.
+        List<BoardState> finalStates = new BVBoardState(board).getFinalStates();
+        Assert.assertEquals(new BVBoardState(board).getNumFilled() + 1, finalStates.size());
+        for (BoardState finalState : finalStates) {
+            Assert.assertTrue(finalState.isFinalState());
+            Assert.assertTrue(finalState.hasLevels());
+            Assert.assertEquals(1, finalState.getLevel());
+            Assert.assertTrue(finalState.getPossibleMoves().isEmpty());
+            Assert.assertFalse(finalState.getPreviousStates().isEmpty());
+        }
    }
 }
\ No newline at end of file
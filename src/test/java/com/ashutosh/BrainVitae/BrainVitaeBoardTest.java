@@ -4,6 +4,8 @@ import junit.framework.TestCase;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.Random;
+
 public class BrainVitaeBoardTest extends TestCase {
 
     @Test
@@ -54,4 +56,26 @@ public class BrainVitaeBoardTest extends TestCase {
         Assert.assertEquals(BOARD_SIZE * BOARD_SIZE - 16, expIndex);
         Assert.assertEquals(expIndex, board.numUsedCells);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSymmetries() {
+        BrainVitaeBoard board = new BrainVitaeBoard(7);
+
+        // Rotating clockwise moves the top arm to the right arm, reflecting swaps the left and the right.
+        Assert.assertEquals(new BVCell(2, 6), board.transformCell(new BVCell(0, 2), 1));
+        Assert.assertEquals(new BVCell(0, 4), board.transformCell(new BVCell(0, 2), BrainVitaeBoard.NUM_ROTATIONS));
+        Assert.assertEquals(new BVCell(3, 3), board.transformCell(board.midcell, 5));
+
+        Random random = new Random(1);
+        long key = random.nextLong() & ((1L << board.numUsedCells) - 1);
+        for (int outer = 0; outer < BrainVitaeBoard.NUM_SYMMETRIES; outer++) {
+            Assert.assertEquals(0, board.composeSymmetries(board.invertSymmetry(outer), outer));
+            Assert.assertEquals(key, board.transformKey(board.transformKey(key, outer), board.invertSymmetry(outer)));
+            Assert.assertEquals(Long.bitCount(key), Long.bitCount(board.transformKey(key, outer)));
+            for (int inner = 0; inner < BrainVitaeBoard.NUM_SYMMETRIES; inner++) {
+                Assert.assertEquals(board.transformKey(board.transformKey(key, inner), outer),
+                                    board.transformKey(key, board.composeSymmetries(outer, inner)));
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.ashutosh.BrainVitae;
+
+import com.ashutosh.BoardSolver.BidirectionalBoardSolver;
+import com.ashutosh.BoardSolver.BoardMove;
+import com.ashutosh.BoardSolver.BoardSolver;
+import com.ashutosh.BoardSolver.BoardSolverDB;
+import com.ashutosh.BoardSolver.BoardState;
+import com.ashutosh.BoardSolver.DepthFirstBoardSolver;
+import com.ashutosh.BoardSolver.InMemoryStateStore;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+
+public class BrainVitaeTest {
+    private final static String dbUrl = "jdbc:postgresql://localhost/boardgames";
+    private final static String dbUser = "boardgames";
+    private final static String dbPassword = "boardgames";
+    private final static String dbSchema = BrainVitaeTest.class.getSimpleName().toLowerCase();
+    private final static BoardSolverDB db = new BoardSolverDB(dbUrl, dbUser, dbPassword, "states", "moves", dbSchema);
+    private final static BrainVitaeBoard board = new BrainVitaeBoard(7);
+    // A state with 10 pegs which can be solved, obtained by reversing 9 random moves from a single peg in the middle.
+    // It's not symmetric, so the solver goes through the states symmetric to those actually reached.
+    private final static long initialKey = 637944457L;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        db.createObjects();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        db.dropObjects();
+        db.close();
+    }
+
+    // Number of sequences of moves leading from the given state to a final state, without using symmetries.
+    private static long countSolutions(BoardState state, Map<Long, Long> counts) {
+        Long count = counts.get(state.getKey());
+        if (count == null) {
+            count = state.isFinalState() ? 1L : 0L;
+            for (BoardMove move : state.getPossibleMoves()) {
+                count = count + countSolutions(state.apply(move), counts);
+            }
+            counts.put(state.getKey(), count);
+        }
+        return count;
+    }
+
+    // Every solution should be a valid sequence of moves from the initial state leading to the final state given.
+    private static void checkSolutions(BoardState initialState, Map<String, BoardState> solutions) {
+        Assert.assertEquals(countSolutions(initialState, new HashMap<>()), solutions.size());
+        for (Map.Entry<String, BoardState> solution : solutions.entrySet()) {
+            checkSolution(initialState, solution.getKey(), solution.getValue());
+        }
+    }
+
+    private static void checkSolution(BoardState initialState, String movesPath, BoardState finalState) {
+        BoardState state = initialState;
+        for (String moveDesc : movesPath.split("->")) {
+            state = state.apply(BVBoardMove.fromDesc(moveDesc));
+        }
+        Assert.assertTrue(state.isFinalState());
+        Assert.assertEquals(state, finalState);
+    }
+
+    @Test
+    public void testAnySolution() {
+        BVBoardState initialState = new BVBoardState(board, initialKey);
+        Map.Entry<String, BoardState> solution = new DepthFirstBoardSolver(initialState, 1024).findAnySolution();
+        checkSolution(initialState, solution.getKey(), solution.getValue());
+
+        // A 5 X 5 board can not be solved.
+        Assert.assertNull(new DepthFirstBoardSolver(new BVBoardState(new BrainVitaeBoard(5)), 1024).findAnySolution());
+    }
+
+    @Test
+    public void testSymmetricSolutions() throws Exception {
+        BVBoardState initialState = new BVBoardState(board, initialKey);
+        Assert.assertNotEquals(initialState.getKey(), initialState.canonicalKey());
+
+        for (int numThreads = 1; numThreads < 3; numThreads++) {
+            InMemoryStateStore store = new InMemoryStateStore(true);
+            new BoardSolver(numThreads, initialState, store).solve();
+            Map<String, BoardState> solutions = store.findSolutions(initialState);
+            Assert.assertFalse(solutions.isEmpty());
+            checkSolutions(initialState, solutions);
+
+            new BoardSolver(numThreads, initialState, db).solve();
+            Assert.assertEquals(solutions, db.findSolutions(initialState));
+            Assert.assertEquals(BigInteger.valueOf(solutions.size()), db.countSolutions(initialState));
+            for (Map.Entry<String, BoardState> sample : db.sampleSolutions(initialState, 3).entrySet()) {
+                Assert.assertEquals(solutions.get(sample.getKey()), sample.getValue());
+            }
+            db.clearObjects();
+
+            new BoardSolver(numThreads, initialState, db).solveByLevels();
+            Assert.assertEquals(solutions, db.findSolutions(initialState));
+            db.clearObjects();
+
+            BoardSolverDB copyDb = new BoardSolverDB(dbUrl, dbUser, dbPassword, "states", "moves", dbSchema);
+            copyDb.setCopyFlushSize(3);
+            new BoardSolver(numThreads, initialState, copyDb).solve();
+            copyDb.close();
+            Assert.assertEquals(solutions, db.findSolutions(initialState));
+            db.clearObjects();
+
+            store.persist(db);
+            Assert.assertEquals(solutions, db.findSolutions(initialState));
+            db.clearObjects();
+
+            // Only the states and the moves on the solution paths are recorded.
+            InMemoryStateStore pathStore = new InMemoryStateStore(true);
+            BidirectionalBoardSolver pathSolver = new BidirectionalBoardSolver(numThreads, initialState, pathStore);
+            pathSolver.solve();
+            Assert.assertEquals(solutions, pathStore.findSolutions(initialState));
+            Assert.assertEquals(pathStore.getNumStates(), pathSolver.getNumStates());
+            Assert.assertEquals(pathStore.getNumMoves(), pathSolver.getNumMoves());
+            Assert.assertTrue(pathStore.getNumStates() < store.getNumStates());
+
+            new BidirectionalBoardSolver(numThreads, initialState, db).solve();
+            Assert.assertEquals(solutions, db.findSolutions(initialState));
+            db.clearObjects();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.ashutosh.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ConcurrentLongHashSetTest {
+
+    @Test
+    public void testAddAndContains() {
+        ConcurrentLongHashSet set = new ConcurrentLongHashSet(4);
+
+        // Zero is used to mark free slots internally, it should still work as a key.
+        long[] keys = {0, 1, -1, Long.MAX_VALUE, Long.MIN_VALUE, 1L << 40};
+        for (long key : keys) {
+            Assert.assertFalse(set.contains(key));
+            Assert.assertTrue(set.add(key));
+        }
+        Assert.assertEquals(keys.length, set.size());
+        for (long key : keys) {
+            Assert.assertTrue(set.contains(key));
+            Assert.assertFalse(set.add(key));
+        }
+        Assert.assertEquals(keys.length, set.size());
+        Assert.assertFalse(set.contains(2));
+    }
+
+    // Compare with a HashSet for a large number of random keys, so that the stripes grow many times.
+    @Test
+    public void testAgainstHashSet() {
+        Random random = new Random(42);
+        ConcurrentLongHashSet set = new ConcurrentLongHashSet(0);
+        Set<Long> expected = new HashSet<>();
+
+        for (int cnt = 0; cnt < 100000; cnt++) {
+            // Restrict the range of keys so that some of the keys repeat.
+            long key = random.nextInt(50000) * 0x100000001L;
+            Assert.assertEquals(expected.add(key), set.add(key));
+        }
+
+        Assert.assertEquals(expected.size(), set.size());
+        for (long key : expected) {
+            Assert.assertTrue(set.contains(key));
+        }
+    }
+
+    @Test
+    public void testConcurrentAdds() throws InterruptedException {
+        // Every thread adds all the keys, so every key is added by several threads at once; only one of those succeeds.
+        int numThreads = 4;
+        int numKeys = 100000;
+        ConcurrentLongHashSet set = new ConcurrentLongHashSet(numKeys / 10);
+        AtomicLong numAdded = new AtomicLong();
+        List<Thread> threads = new ArrayList<>(numThreads);
+        for (int cnt = 0; cnt < numThreads; cnt++) {
+            Thread thread = new Thread(() -> {
+                for (long key = 0; key < numKeys; key++) {
+                    if (set.add(key * 31)) {
+                        numAdded.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertEquals(numKeys, numAdded.get());
+        Assert.assertEquals(numKeys, set.size());
+        for (long key = 0; key < numKeys; key++) {
+            Assert.assertTrue(set.contains(key * 31));
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.ashutosh.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class LongLongCacheTest {
+
+    @Test
+    public void testPutAndGet() {
+        LongLongCache cache = new LongLongCache(100);
+
+        long[] keys = {0, 1, -1, Long.MAX_VALUE, Long.MIN_VALUE, 1L << 40};
+        for (int cnt = 0; cnt < keys.length; cnt++) {
+            Assert.assertEquals(-1, cache.getOrDefault(keys[cnt], -1));
+            cache.put(keys[cnt], cnt);
+        }
+        Assert.assertEquals(keys.length, cache.size());
+        for (int cnt = 0; cnt < keys.length; cnt++) {
+            Assert.assertEquals(cnt, cache.getOrDefault(keys[cnt], -1));
+        }
+
+        // Replacing a value doesn't change the size.
+        cache.put(0, 100);
+        Assert.assertEquals(keys.length, cache.size());
+        Assert.assertEquals(100, cache.getOrDefault(0, -1));
+
+        Assert.assertEquals(keys.length + 1, cache.getNumHits());
+        Assert.assertEquals(keys.length, cache.getNumMisses());
+    }
+
+    @Test
+    public void testEviction() {
+        // A single stripe, so that the order of eviction is known.
+        LongLongCache cache = new LongLongCache(1);
+        cache.put(1, 1);
+        cache.put(2, 2);
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(-1, cache.getOrDefault(1, -1));
+        Assert.assertEquals(2, cache.getOrDefault(2, -1));
+
+        // Many random keys, more than the cache can hold. Every key is found with its latest value, unless evicted.
+        int capacity = 1000;
+        cache = new LongLongCache(capacity);
+        Random random = new Random(1);
+        List<Long> keys = new ArrayList<>();
+        for (int cnt = 0; cnt < 10 * capacity; cnt++) {
+            long key = random.nextLong();
+            keys.add(key);
+            cache.put(key, key + 1);
+            Assert.assertEquals(key + 1, cache.getOrDefault(key, -1));
+        }
+        Assert.assertTrue(cache.size() <= capacity);
+        int numFound = 0;
+        for (long key : keys) {
+            long value = cache.getOrDefault(key, -1);
+            if (value != -1) {
+                Assert.assertEquals(key + 1, value);
+                numFound++;
+            }
+        }
+        Assert.assertEquals(cache.size(), numFound);
+    }
+
+    @Test
+    public void testReferencedKeysSurvive() {
+        // A key read between the insertions survives, while the keys never read are evicted.
+        LongLongCache cache = new LongLongCache(16);
+        cache.put(-1, 0);
+        for (long key = 0; key < 1000; key++) {
+            Assert.assertEquals(0, cache.getOrDefault(-1, 1));
+            cache.put(key, key);
+        }
+        Assert.assertEquals(0, cache.getOrDefault(-1, 1));
+    }
+
+    @Test
+    public void testConcurrentUse() throws Exception {
+        LongLongCache cache = new LongLongCache(256);
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = new ArrayList<>();
+        for (int cnt = 0; cnt < 4; cnt++) {
+            long seed = cnt;
+            Thread thread = new Thread(() -> {
+                Random random = new Random(seed);
+                for (int op = 0; op < 100000; op++) {
+                    long key = random.nextInt(1024);
+                    long value = cache.getOrDefault(key, -1);
+                    if (value == -1) {
+                        cache.put(key, 2 * key);
+                    } else if (value != 2 * key) {
+                        throw new AssertionError("key " + key + " has value " + value);
+                    }
+                }
+            });
+            thread.setUncaughtExceptionHandler((t, e) -> {
+                synchronized (failures) {
+                    failures.add(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertTrue(failures.toString(), failures.isEmpty());
+        Assert.assertTrue(cache.size() <= 256);
+        Assert.assertEquals(400000, cache.getNumHits() + cache.getNumMisses());
+    }
+}
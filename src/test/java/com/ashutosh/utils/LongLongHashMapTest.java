@@ -0,0 +1,61 @@
+package com.ashutosh.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class LongLongHashMapTest {
+
+    @Test
+    public void testPutAndGet() {
+        LongLongHashMap map = new LongLongHashMap(4);
+
+        // Zero is used to mark free slots internally, it should still work as a key.
+        long[] keys = {0, 1, -1, Long.MAX_VALUE, Long.MIN_VALUE, 1L << 40};
+        for (int cnt = 0; cnt < keys.length; cnt++) {
+            Assert.assertFalse(map.containsKey(keys[cnt]));
+            map.put(keys[cnt], cnt);
+        }
+        Assert.assertEquals(keys.length, map.size());
+        for (int cnt = 0; cnt < keys.length; cnt++) {
+            Assert.assertTrue(map.containsKey(keys[cnt]));
+            Assert.assertEquals(cnt, map.getOrDefault(keys[cnt], -1));
+        }
+        Assert.assertEquals(-1, map.getOrDefault(2, -1));
+
+        // Replacing a value doesn't change the size.
+        map.put(0, 100);
+        map.put(1, 101);
+        Assert.assertEquals(keys.length, map.size());
+        Assert.assertEquals(100, map.getOrDefault(0, -1));
+        Assert.assertEquals(101, map.getOrDefault(1, -1));
+
+        map.clear();
+        Assert.assertEquals(0, map.size());
+        Assert.assertFalse(map.containsKey(0));
+        Assert.assertFalse(map.containsKey(1));
+    }
+
+    // Compare with a HashMap for a large number of random keys, so that the map is resized many times.
+    @Test
+    public void testAgainstHashMap() {
+        Random random = new Random(42);
+        LongLongHashMap map = new LongLongHashMap();
+        Map<Long, Long> expected = new HashMap<>();
+
+        for (int cnt = 0; cnt < 100000; cnt++) {
+            // Restrict the range of keys so that some of the keys repeat.
+            long key = random.nextInt(50000) * 0x100000001L;
+            map.put(key, cnt);
+            expected.put(key, (long) cnt);
+        }
+
+        Assert.assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            Assert.assertEquals(entry.getValue().longValue(), map.getOrDefault(entry.getKey(), -1));
+        }
+    }
+}
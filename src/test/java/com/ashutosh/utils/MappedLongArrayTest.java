@@ -0,0 +1,70 @@
+package com.ashutosh.utils;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ReadOnlyBufferException;
+import java.nio.file.Path;
+
+public class MappedLongArrayTest {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    // Use small segments so that the array spans multiple segments, the last one being partially filled.
+    private static final int SEGMENT_SHIFT = 4;
+    private static final long LENGTH = 100;
+
+    private void testArray(MappedLongArray array) {
+        Assert.assertEquals(LENGTH, array.length());
+        for (long cnt = 0; cnt < LENGTH; cnt++) {
+            Assert.assertEquals(0, array.get(cnt));
+            array.set(cnt, cnt * Long.MAX_VALUE / LENGTH);
+        }
+        for (long cnt = 0; cnt < LENGTH; cnt++) {
+            Assert.assertEquals(cnt * Long.MAX_VALUE / LENGTH, array.get(cnt));
+        }
+
+        try {
+            array.get(LENGTH);
+            Assert.fail("accessing beyond the length should fail");
+        } catch (IndexOutOfBoundsException ioobe) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testDirectArray() {
+        testArray(new MappedLongArray(LENGTH, SEGMENT_SHIFT));
+    }
+
+    @Test
+    public void testMappedArray() throws Exception {
+        Path file = tempFolder.newFile().toPath();
+        try (MappedLongArray array = new MappedLongArray(file, LENGTH, SEGMENT_SHIFT)) {
+            testArray(array);
+        }
+        Assert.assertEquals(LENGTH * Long.BYTES, file.toFile().length());
+    }
+
+    @Test
+    public void testReadOnlyArray() throws Exception {
+        Path file = tempFolder.newFile().toPath();
+        try (MappedLongArray array = new MappedLongArray(file, LENGTH, SEGMENT_SHIFT)) {
+            testArray(array);
+        }
+        try (MappedLongArray array = MappedLongArray.openReadOnly(file, SEGMENT_SHIFT)) {
+            Assert.assertEquals(LENGTH, array.length());
+            for (long cnt = 0; cnt < LENGTH; cnt++) {
+                Assert.assertEquals(cnt * Long.MAX_VALUE / LENGTH, array.get(cnt));
+            }
+            try {
+                array.set(0, 1);
+                Assert.fail("setting an element of a read only array should fail");
+            } catch (ReadOnlyBufferException robe) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.ashutosh.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class ScalableBloomFilterTest {
+
+    @Test
+    public void testAddAndContain() {
+        ScalableBloomFilter filter = new ScalableBloomFilter(1000, 0.01);
+        long[] keys = {0, 1, -1, Long.MAX_VALUE, Long.MIN_VALUE, 1L << 40};
+        for (long key : keys) {
+            filter.add(key);
+        }
+        for (long key : keys) {
+            Assert.assertTrue(filter.mightContain(key));
+        }
+        // Adding a key again does not count it again.
+        filter.add(0);
+        Assert.assertEquals(keys.length, filter.getNumKeys());
+    }
+
+    @Test
+    public void testGrowth() {
+        // Many more keys than the filter is sized for. Every key added is found, and the false positive rate stays
+        // within twice that of the first filter.
+        double falsePositiveRate = 0.01;
+        ScalableBloomFilter filter = new ScalableBloomFilter(1000, falsePositiveRate);
+        long numBits = filter.getNumBits();
+        Random random = new Random(1);
+        List<Long> keys = new ArrayList<>();
+        for (int cnt = 0; cnt < 100000; cnt++) {
+            long key = random.nextLong();
+            keys.add(key);
+            filter.add(key);
+        }
+        Assert.assertTrue(filter.getNumBits() > numBits);
+        for (long key : keys) {
+            Assert.assertTrue(filter.mightContain(key));
+        }
+
+        int numFalsePositives = 0;
+        int numLookups = 100000;
+        for (int cnt = 0; cnt < numLookups; cnt++) {
+            if (filter.mightContain(random.nextLong())) {
+                numFalsePositives++;
+            }
+        }
+        Assert.assertTrue(numFalsePositives + " false positives", numFalsePositives < 2 * falsePositiveRate * numLookups);
+        Assert.assertTrue(filter.getExpectedFalsePositiveRate() < 2 * falsePositiveRate);
+    }
+
+    @Test
+    public void testConcurrentAdd() throws Exception {
+        ScalableBloomFilter filter = new ScalableBloomFilter(1000, 0.01);
+        List<Thread> threads = new ArrayList<>();
+        for (int cnt = 0; cnt < 4; cnt++) {
+            long seed = cnt;
+            Thread thread = new Thread(() -> {
+                Random random = new Random(seed);
+                for (int op = 0; op < 50000; op++) {
+                    filter.add(random.nextLong());
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // None of the keys added by any of the threads is lost.
+        for (int cnt = 0; cnt < 4; cnt++) {
+            Random random = new Random(cnt);
+            for (int op = 0; op < 50000; op++) {
+                Assert.assertTrue(filter.mightContain(random.nextLong()));
+            }
+        }
+    }
+}